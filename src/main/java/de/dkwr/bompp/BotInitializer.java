@@ -126,6 +126,10 @@ public class BotInitializer {
         return this.omemoController;
     }
 
+    public AbstractXMPPConnection getConnection() {
+        return this.connection;
+    }
+
     public CommandHandler getScriptCommandHandler() {
         return this.scriptCommandHandler;
     }
@@ -1,11 +1,17 @@
 package de.dkwr.bompp;
 
 import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.cmd.exec.OutputMultiplexer;
+import de.dkwr.bompp.cmd.exec.OutputStore;
+import de.dkwr.bompp.cmd.exec.ThreadBackend;
 import de.dkwr.bompp.cmd.handler.BotCommandHandler;
+import de.dkwr.bompp.cmd.schedule.ScheduleManager;
+import de.dkwr.bompp.cmd.schedule.WatchManager;
 import de.dkwr.bompp.util.BotLogger;
 import de.dkwr.bompp.util.ConfigReader;
 import de.dkwr.bompp.util.BotConfiguration;
 import de.dkwr.bompp.util.ConfigFileWatcher;
+import de.dkwr.bompp.xmpp.upload.ResultUploader;
 import org.jxmpp.jid.BareJid;
 
 /**
@@ -22,11 +28,17 @@ public class Main {
             ConfigReader configReader = new ConfigReader(storePath, fileSeparator);
             configReader.loadConfigFile();
             BotConfiguration cfg = BotConfiguration.getInstance();
+            ThreadBackend.getInstance().select(cfg.getExecutorBackend());
 
-            CommandQueue commandQueue = new CommandQueue(cfg.getMaxThreads(), cfg.getQueueSize());
+            CommandQueue commandQueue = new CommandQueue(cfg.getMaxThreads(), cfg.getQueueSize(), cfg.getRejectionPolicy(), cfg.getQueueBlockTimeout(), cfg.getPriorityAging());
 
             BotInitializer botInitializer = new BotInitializer();
             botInitializer.init(cfg, commandQueue);
+            OutputStore.getInstance().clear();
+            OutputMultiplexer.getInstance().start(cfg.getOutputReaders());
+            ResultUploader.getInstance().start(botInitializer.getConnection());
+            ScheduleManager.getInstance().start(commandQueue, botInitializer.getOmemoController());
+            WatchManager.getInstance().start(commandQueue, botInitializer.getOmemoController());
             cfg.clearPassword();
             
             ConfigFileWatcher cfgWatcher = new ConfigFileWatcher(configReader);
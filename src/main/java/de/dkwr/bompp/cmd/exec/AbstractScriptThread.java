@@ -0,0 +1,583 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.xmpp.OmemoController;
+import de.dkwr.bompp.util.BotConfiguration;
+import de.dkwr.bompp.util.BotLogger;
+import de.dkwr.bompp.util.Command;
+import de.dkwr.bompp.xmpp.upload.ResultUploader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The AbstractScriptThread runs a script in a Thread and notifies the client when it is terminated.<br/>
+ * It handles the output of the script, the subclasses define how the script is executed.
+ * They put the output lines into a queue and an end of stream marker for stdout and for stderr
+ * when the script has no more output.
+ *
+ * @author Dennis Kawurek
+ */
+public abstract class AbstractScriptThread implements Runnable {
+    private static final int OUTPUT_QUEUE_SIZE = 256;
+    private static final int REPLAY_BUFFER_SIZE = 8192; // number of chars of the last streamed output which is kept for clients who attach later
+    private static final String STDERR_PREFIX = "[stderr] ";
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "execution timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean showOutPutStream = true;
+    protected final List<String> paramList;
+    private final Command command;
+    private final String clientJID;
+    private final Set<String> attachedJIDs = new CopyOnWriteArraySet<>(); // clients which get the output of this execution as well
+    private boolean acceptsAttachedClients = true;
+    private final OmemoController omemoController;
+    private boolean collectOutputStream; // if true = collects the whole output and sends it when script has finished
+    private ExecutionListener executionListener = null; // gets the output instead of the clients
+    private final Command.StderrMode stderrMode;
+    private final OutputCoalescer outputCoalescer; // batches streamed output for the client
+    private volatile String terminationReason; // set when the execution is terminated before the script has finished
+    private final StringBuilder replayBuffer = new StringBuilder(); // last streamed output, guarded by this
+    private volatile int jobId = 0; // set when the job is registered
+
+    public AbstractScriptThread(Command command, String clientJID, boolean showOutPutStream, OmemoController omemoController) {
+        this.command = command;
+        this.clientJID = clientJID;
+        this.paramList = command.getCmdExecutionList();
+        this.showOutPutStream = showOutPutStream;
+        this.omemoController = omemoController;
+        this.collectOutputStream = command.getCollectOutput();
+        this.stderrMode = command.getStderrMode();
+        this.outputCoalescer = new OutputCoalescer(command.getBatchLines(), command.getBatchBytes(), command.getBatchDelay());
+    }
+
+    /**
+     * Returns the thread which executes the command. If there is a worker pool for the
+     * exec type of the command, the script is executed by a pooled interpreter,
+     * otherwise in a new process.
+     *
+     * @param command the command to execute
+     * @param clientJID the JID of the client or null if the command is executed for the bot CLI
+     * @param showOutPutStream false if the output shall not be shown
+     * @param omemoController the OmemoController to send the output
+     * @return a new thread for the command
+     */
+    public static AbstractScriptThread create(Command command, String clientJID, boolean showOutPutStream, OmemoController omemoController) {
+        WorkerPool workerPool = WorkerPoolManager.getInstance().getPool(command.getExecType());
+        if (workerPool != null) {
+            return new PooledScriptThread(command, clientJID, showOutPutStream, omemoController, workerPool);
+        }
+        return new ExecuteScriptThread(command, clientJID, showOutPutStream, omemoController);
+    }
+
+    /**
+     * Starts the execution of the script. The output has to be put into the
+     * queue, followed by {@link OutputLine#endOfStream} for stdout and stderr.
+     *
+     * @param outputQueue the queue for the output lines
+     * @throws Exception when the script can't be started
+     */
+    protected abstract void startExecution(BlockingQueue<OutputLine> outputQueue) throws Exception;
+
+    /**
+     * Waits until the script has terminated.
+     *
+     * @return the exit code of the script
+     * @throws Exception when the execution fails
+     */
+    protected abstract int waitForExitCode() throws Exception;
+
+    /**
+     * Stops a running execution after an error.
+     */
+    protected abstract void stopExecution();
+
+    /**
+     * Terminates the script and all processes it has started. The output
+     * which has been written so far is still handled, so the end of stream
+     * markers have to be put into the queue as usual.
+     */
+    protected abstract void killExecution();
+
+    /**
+     * Called after the execution in any case, to free resources.
+     */
+    protected void finishExecution() {
+    }
+
+    /**
+     * Returns the number of bytes the script has written to stdout so far.
+     * @return number of bytes
+     */
+    public abstract long getStdoutBytes();
+
+    /**
+     * Returns the number of bytes the script has written to stderr so far.
+     * @return number of bytes
+     */
+    public abstract long getStderrBytes();
+
+    /**
+     * Returns the resources which the processes of the script have used so far.
+     * @return the usage or null if it isn't measured
+     */
+    public ResourceUsage getResourceUsage() {
+        return null;
+    }
+
+    @Override
+    public void run() {
+        ScheduledFuture<?> timeoutTask = null;
+        OutputCapture outCapture = new OutputCapture(this.command.getCaptureHead(), this.command.getCaptureTail());
+        OutputCapture errCapture = new OutputCapture(this.command.getCaptureHead(), this.command.getCaptureTail()); // stderr lines which are only shown on failure
+        Path spillFile = null;
+        try {
+            // the output is spilled for an upload as well, so the whole output is uploaded and not only the head and the tail
+            if ((this.command.isSpill() || ResultUploader.getInstance().isEnabled())
+                    && this.collectOutputStream && this.executionListener == null && this.jobId > 0) {
+                spillFile = OutputStore.getInstance().getSpillFile(this.jobId);
+                if (spillFile != null) {
+                    outCapture.setSpillFile(spillFile, OutputStore.getInstance().getMaxSpillSize());
+                }
+            }
+            this.printExecutionStartInfo();
+            long startTime = System.nanoTime();
+            long startCpuTime = this.getThreadCpuTime();
+
+            BlockingQueue<OutputLine> outputQueue = new ArrayBlockingQueue<>(OUTPUT_QUEUE_SIZE);
+            this.startExecution(outputQueue);
+            if (this.command.getTimeout() > 0) {
+                timeoutTask = TIMEOUT_SCHEDULER.schedule(() -> this.terminate("it has exceeded the timeout of " + this.command.getTimeout() / 1000 + " s"),
+                        this.command.getTimeout(), TimeUnit.MILLISECONDS);
+            }
+
+            // take() blocks until the script writes a line or closes a stream,
+            // so an idle script doesn't cost any CPU time here.
+            // While streamed output is pending, poll() wakes up when the batch has to be sent.
+            int openStreams = 2;
+            while (openStreams > 0) {
+                OutputLine line;
+                if (this.outputCoalescer.hasPending()) {
+                    line = outputQueue.poll(this.outputCoalescer.getRemainingDelay(), TimeUnit.MILLISECONDS);
+                } else {
+                    line = outputQueue.take();
+                }
+                if (line == null) {
+                    this.flushOutput();
+                } else if (line.isEndOfStream()) {
+                    openStreams--;
+                } else {
+                    this.handleLine(line, outCapture, errCapture);
+                }
+            }
+            int exitCode = this.waitForExitCode();
+            String timeInfo = this.getTimeInfo(startTime, startCpuTime) + this.getByteInfo() + this.getResourceInfo();
+            // an empty output isn't cached, a hit would be answered with an empty message,
+            // and neither is the output of a run which has been stopped by a timeout or /cancel
+            if (exitCode == 0 && this.command.getCacheTtl() > 0 && !outCapture.isEmpty() && this.terminationReason == null) {
+                ResultCache.getInstance().put(this.command.getCacheKey(), outCapture.toString(), this.command.getCacheTtl());
+            }
+
+            String output = this.collectOutputStream ? outCapture.toString() : "";
+            String errOutput = exitCode != 0 ? errCapture.toString() : ""; // stderr isn't in the spill file
+            if (!errOutput.isEmpty()) {
+                if (this.collectOutputStream) {
+                    output += errOutput;
+                } else {
+                    this.sendOutput(errOutput.substring(0, errOutput.length() - 1));
+                }
+            }
+            // from now on the list of clients must not change, otherwise an attached client could miss the rest of the output
+            this.closeAttaching();
+            this.flushOutput();
+            boolean spilled = outCapture.finishSpill();
+            if (spilled && this.command.isSpill()) {
+                OutputStore.getInstance().add(this.jobId, spillFile, outCapture.getHeadBytes(), outCapture.getSpillBytes(),
+                        this.command.getCaptureHead(), outCapture.isSpillTruncated(), this.getClientJIDs());
+                output += "The whole output is stored for " + TimeUnit.MILLISECONDS.toMinutes(BotConfiguration.getInstance().getSpillTtl())
+                        + " minutes. Send \"more " + this.jobId + "\" to read it page by page.";
+            }
+
+            if (this.executionListener != null) {
+                System.out.println("End of execution of " + paramList.get(0) + " Exit code: " + exitCode + timeInfo);
+                if (this.terminationReason == null) {
+                    this.executionListener.executionFinished(exitCode, output);
+                } else {
+                    this.executionListener.executionFailed(this.getTerminationMessage());
+                }
+            } else if(this.collectOutputStream && !this.getClientJIDs().isEmpty()) {
+                // clients may have attached to an execution of the bot CLI as well
+                System.out.println("End of execution of " + paramList.get(0) + " for " + String.join(", ", this.getClientJIDs()) + " Exit code: " + exitCode + timeInfo);
+                this.sendToClients(this.uploadIfTooLarge(output, spilled ? spillFile : null, outCapture.isSpillTruncated(), errOutput));
+            } else {
+                System.out.println("End of execution of " + paramList.get(0) + " Exit code: " + exitCode + timeInfo);
+            }
+            if (this.terminationReason != null) {
+                this.notifyClient(this.getTerminationMessage());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.stopExecution();
+            BotLogger.getInstance().logMsg("Execution of " + paramList.get(0) + " was interrupted.");
+            this.closeAttaching();
+            this.flushOutput();
+            String message = "The execution of " + this.command.getCommandName() + " was interrupted.";
+            this.notifyClient(message);
+            if (this.executionListener != null) {
+                this.executionListener.executionFailed(message);
+            }
+        } catch (Exception ex) {
+            this.stopExecution();
+            BotLogger.getInstance().logException(ex);
+            this.closeAttaching();
+            this.flushOutput();
+            String message = this.terminationReason != null ? this.getTerminationMessage()
+                    : "Failed to execute the command " + paramList.get(0) + "\nPlease try it again.";
+            if (this.terminationReason != null || this.clientJID != null) {
+                this.notifyClient(message);
+            }
+            if (this.executionListener != null) {
+                this.executionListener.executionFailed(message);
+            }
+        } finally {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            outCapture.release();
+            errCapture.release();
+            if (spillFile != null && !this.command.isSpill()) {
+                this.deleteSpillFile(spillFile);
+            }
+            this.finishExecution();
+        }
+    }
+
+    /**
+     * Uploads an output which is too large for a message, see {@link ResultUploader}.
+     * Whether it is too large depends on the number of bytes the script has
+     * written, not on the size of the collected output.
+     * @param output the collected output
+     * @param spillFile the file with the whole stdout or null if it hasn't been spilled
+     * @param truncated true if the end of stdout is missing in the spill file
+     * @param errOutput the collected stderr which is part of the output, it isn't in the spill file
+     * @return the message with the link or the output if it isn't uploaded
+     */
+    private String uploadIfTooLarge(String output, Path spillFile, boolean truncated, String errOutput) {
+        long size = this.getStdoutBytes() + this.getStderrBytes();
+        if (!ResultUploader.getInstance().shouldUpload(size)) {
+            return output;
+        }
+        try {
+            long startTime = System.nanoTime();
+            String link;
+            try (InputStream data = spillFile == null ? new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8))
+                    : new SequenceInputStream(Files.newInputStream(spillFile), new ByteArrayInputStream(errOutput.getBytes(StandardCharsets.UTF_8)))) {
+                link = ResultUploader.getInstance().upload(data, this.command.getCommandName() + "-" + this.jobId + ".txt");
+            }
+            System.out.println("Uploaded the output of " + this.command.getCommandName() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+            String message = "The output of " + this.command.getCommandName() + " has " + size + " bytes and has been uploaded encrypted";
+            if (spillFile == null) {
+                message += " without the omitted part";
+            } else if (truncated) {
+                message += " up to " + OutputStore.getInstance().getMaxSpillSize() + " bytes";
+            }
+            return message + ":\n" + link;
+        } catch (Exception ex) {
+            BotLogger.getInstance().logException(ex);
+            return output;
+        }
+    }
+
+    private void deleteSpillFile(Path spillFile) {
+        try {
+            Files.deleteIfExists(spillFile);
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+
+    void setJobId(int jobId) {
+        this.jobId = jobId;
+    }
+
+    public Command getCommand() {
+        return this.command;
+    }
+
+    public String getClientJID() {
+        return this.clientJID;
+    }
+
+    /**
+     * Terminates the running script together with all processes it has started.
+     * The clients get the output up to this point and a message with the reason.
+     * @param reason why the script is terminated, completes the sentence "The execution was terminated because ..."
+     */
+    public void terminate(String reason) {
+        if (this.terminationReason == null) {
+            this.terminationReason = reason;
+            BotLogger.getInstance().logMsg("Terminating " + paramList.get(0) + " because " + reason + ".");
+            this.killExecution();
+        }
+    }
+
+    /**
+     * Sets a listener which gets the whole output when the script has finished,
+     * instead of the clients. Messages about a failed or terminated execution
+     * are still sent to the clients. Has to be called before the execution is started.
+     * @param executionListener the listener
+     */
+    public void setExecutionListener(ExecutionListener executionListener) {
+        this.executionListener = executionListener;
+        this.collectOutputStream = true;
+    }
+
+    public boolean hasExecutionListener() {
+        return this.executionListener != null;
+    }
+
+    /**
+     * Returns true if the execution has been terminated before the script has finished.
+     * @return true if the script has been terminated
+     */
+    public boolean isTerminated() {
+        return this.terminationReason != null;
+    }
+
+    /**
+     * Attaches another client to this execution. The client gets the output
+     * from now on, or the whole output if it is collected.
+     * @param jid the JID of the client, null for the bot CLI which always sees the streamed output
+     * @return true if the client has been attached, false if the execution is already finished
+     */
+    public boolean attachClient(String jid) {
+        return this.attachClient(jid, false);
+    }
+
+    /**
+     * Attaches another client to this execution. The client gets the output
+     * from now on, or the whole output if it is collected.<br/>
+     * If replay is true, the client gets the last streamed output first.
+     * @param jid the JID of the client, null for the bot CLI
+     * @param replay true to send the last streamed output to the client
+     * @return true if the client has been attached, false if the execution is already finished
+     */
+    public synchronized boolean attachClient(String jid, boolean replay) {
+        if (!this.acceptsAttachedClients) {
+            return false;
+        }
+        if (jid != null && !jid.equals(this.clientJID)) {
+            this.attachedJIDs.add(jid);
+        }
+        // the replay is sent while holding the lock, so it can't overtake the next batch
+        if (replay && this.replayBuffer.length() > 0) {
+            if (jid == null) {
+                System.out.println(this.replayBuffer);
+            } else {
+                this.sendToClient(jid, this.replayBuffer.toString());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the JIDs of all clients which get the output of this execution.
+     * @return list of JIDs, empty if the command is executed for the bot CLI only
+     */
+    public List<String> getClientJIDs() {
+        List<String> jids = new ArrayList<>();
+        if (this.clientJID != null) {
+            jids.add(this.clientJID);
+        }
+        jids.addAll(this.attachedJIDs);
+        return jids;
+    }
+
+    /**
+     * Sends a message to all clients of this execution.
+     * If the command is executed for the bot CLI, the message is printed.
+     * @param message the message
+     */
+    public void notifyClient(String message) {
+        if (this.clientJID == null) {
+            System.out.println(message);
+        }
+        this.sendToClients(message);
+    }
+
+    /**
+     * Notifies the clients and the ExecutionListener that the script won't be
+     * executed, because it has been removed from the queue.
+     * @param message the message for the clients
+     */
+    public void notifyNotStarted(String message) {
+        this.notifyClient(message);
+        if (this.executionListener != null) {
+            this.executionListener.executionFailed(message);
+        }
+    }
+
+    private String getTerminationMessage() {
+        return "The execution of " + this.command.getCommandName() + " was terminated because " + this.terminationReason + ".";
+    }
+
+    private synchronized void closeAttaching() {
+        this.acceptsAttachedClients = false;
+    }
+
+    private void sendToClients(String message) {
+        this.sendToClients(this.getClientJIDs(), message);
+    }
+
+    private void sendToClients(List<String> jids, String message) {
+        for (String jid : jids) {
+            this.sendToClient(jid, message);
+        }
+    }
+
+    private void sendToClient(String jid, String message) {
+        try {
+            this.omemoController.sendMessage(this.omemoController.getJid(jid), message);
+        } catch (Exception ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+
+    private void handleLine(OutputLine line, OutputCapture outCapture, OutputCapture errCapture) {
+        if (!this.showOutPutStream) {
+            return;
+        }
+        String text = line.getText();
+        if (line.isStderr()) {
+            text = STDERR_PREFIX + text.replace("\n", "\n" + STDERR_PREFIX);
+            if (this.stderrMode == Command.StderrMode.ON_FAILURE) {
+                errCapture.append(text);
+                return;
+            }
+        }
+
+        if (this.collectOutputStream) {
+            outCapture.append(text);
+        } else {
+            this.sendOutput(text);
+            if (this.command.getCacheTtl() > 0) {
+                outCapture.append(text);
+            }
+        }
+    }
+
+    private void sendOutput(String out) {
+        System.out.println(out);
+        for (String batch : this.outputCoalescer.add(out)) {
+            this.sendBatch(batch);
+        }
+    }
+
+    private void flushOutput() {
+        if (this.outputCoalescer.hasPending()) {
+            this.sendBatch(this.outputCoalescer.flush());
+        }
+    }
+
+    private void sendBatch(String batch) {
+        List<String> jids;
+        synchronized (this) {
+            this.addToReplayBuffer(batch);
+            jids = this.getClientJIDs();
+        }
+        this.sendToClients(jids, batch);
+    }
+
+    private void addToReplayBuffer(String batch) {
+        if (this.replayBuffer.length() > 0) {
+            this.replayBuffer.append(LINE_SEPARATOR);
+        }
+        this.replayBuffer.append(batch);
+        if (this.replayBuffer.length() > REPLAY_BUFFER_SIZE) {
+            // only whole lines are kept
+            int start = this.replayBuffer.indexOf(LINE_SEPARATOR, this.replayBuffer.length() - REPLAY_BUFFER_SIZE);
+            this.replayBuffer.delete(0, start < 0 ? this.replayBuffer.length() - REPLAY_BUFFER_SIZE : start + LINE_SEPARATOR.length());
+        }
+    }
+
+    /**
+     * Returns the CPU time of the current thread in nanoseconds. This is the
+     * time spent reading the output, not the CPU time of the script itself.
+     * @return the CPU time or -1 if the JVM doesn't support measuring it
+     */
+    private long getThreadCpuTime() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return threadMXBean.getCurrentThreadCpuTime();
+    }
+
+    private String getTimeInfo(long startTime, long startCpuTime) {
+        long wallTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        String timeInfo = " Wall time: " + wallTimeMs + " ms";
+        long cpuTime = this.getThreadCpuTime();
+        if (startCpuTime >= 0 && cpuTime >= 0) {
+            timeInfo += " Reader CPU time: " + TimeUnit.NANOSECONDS.toMillis(cpuTime - startCpuTime) + " ms";
+        }
+        return timeInfo;
+    }
+
+    private String getResourceInfo() {
+        ResourceUsage usage = this.getResourceUsage();
+        return usage == null ? "" : " " + usage;
+    }
+
+    private String getByteInfo() {
+        return " stdout: " + this.getStdoutBytes() + " bytes stderr: " + this.getStderrBytes() + " bytes";
+    }
+
+    private void printExecutionStartInfo() {
+        if(this.command.isPipeline()) {
+            System.out.println("Executing pipeline " + this.command.getCommandName() + (this.clientJID == null ? "" : " for " + this.clientJID));
+        } else if(this.clientJID == null) {
+            if(this.paramList.size() < 2) System.out.println("Executing " + this.paramList.get(0));
+            else System.out.println("Executing " + this.paramList.get(0) + " " + this.paramList.get(1));
+        } else {
+            if(this.paramList.size() < 2) System.out.println("Executing " + this.paramList.get(0) + " for " + this.clientJID);
+            else System.out.println("Executing " + this.paramList.get(0) + " " + this.paramList.get(1) + " for " + this.clientJID);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ByteBufferPool keeps direct ByteBuffers for reuse, so the output of the
+ * scripts is captured outside of the heap without allocating new native memory
+ * for every execution.<br/>
+ * At most MAX_POOLED_BUFFERS buffers of each capacity are kept.
+ * ByteBufferPool is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class ByteBufferPool {
+
+    private static final ByteBufferPool INSTANCE = new ByteBufferPool();
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private final Map<Integer, Queue<ByteBuffer>> buffers = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicInteger> pooledCounts = new ConcurrentHashMap<>();
+
+    private ByteBufferPool() {
+    }
+
+    public static ByteBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns an empty direct buffer.
+     *
+     * @param capacity the capacity in bytes
+     * @return a pooled or a new buffer
+     */
+    public ByteBuffer acquire(int capacity) {
+        Queue<ByteBuffer> pooled = this.buffers.get(capacity);
+        ByteBuffer buffer = pooled == null ? null : pooled.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        this.pooledCounts.get(capacity).decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. It must not be used afterwards.
+     *
+     * @param buffer the buffer or null
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (this.pooledCounts.computeIfAbsent(capacity, c -> new AtomicInteger()).incrementAndGet() > MAX_POOLED_BUFFERS) {
+            this.pooledCounts.get(capacity).decrementAndGet();
+            return;
+        }
+        this.buffers.computeIfAbsent(capacity, c -> new ConcurrentLinkedQueue<>()).add(buffer);
+    }
+}
@@ -16,58 +16,179 @@
  */
 package de.dkwr.bompp.cmd.exec;
 
-import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import de.dkwr.bompp.util.BotConfiguration;
+import de.dkwr.bompp.util.Command;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * The CommandQueue executes the scripts in a thread pool. Commands which can't
+ * be executed immediately wait in a bounded {@link JobQueue}, ordered by their
+ * priority. What happens when this queue is full is defined by the {@link RejectionPolicy}.
+ * The threads of the pool are created by the {@link ThreadBackend}.
  *
  * @author Dennis Kawurek
  */
 public class CommandQueue {
 
-    //private final ThreadPoolExecutor threadPool;
-    private final ExecutorService threadPool;
-    HashMap threads;
+    /**
+     * Result of adding a command to the queue.
+     */
+    public enum Result {
+        ADDED, // the command is queued or executed
+        ALREADY_RUNNING, // the command is already running as often as it is allowed to
+        ATTACHED, // the client gets the output of an execution of the command which is already running
+        QUEUE_FULL, // the command was rejected, because the queue is full
+        CLIENT_LIMIT // the client has too many unfinished commands
+    }
+
+    private final ThreadPoolExecutor threadPool;
+    private final JobQueue jobQueue;
+    private final RejectedExecutionHandlerImpl rejectedExecutionHandler;
+    private final JobRegistry jobRegistry = new JobRegistry();
 
     /**
+     * Creates a CommandQueue which rejects new commands when the queue is full.
      *
-     * @param nThreads
-     * @param blockingQueueSize
+     * @param nThreads number of scripts which can be executed at the same time
+     * @param blockingQueueSize number of commands which can wait for execution
      */
     public CommandQueue(int nThreads, int blockingQueueSize) {
-        this.threads = new HashMap<String, Future<?>>();
-        this.threadPool = Executors.newFixedThreadPool(nThreads);
+        this(nThreads, blockingQueueSize, RejectionPolicy.REJECT, 0, 0);
+    }
+
+    /**
+     *
+     * @param nThreads number of scripts which can be executed at the same time
+     * @param blockingQueueSize number of commands which can wait for execution
+     * @param rejectionPolicy what happens with new commands when the queue is full
+     * @param blockTimeout time in ms to wait for a free place if the policy is {@link RejectionPolicy#BLOCK}
+     * @param priorityAging time in ms after which a waiting command gains one priority level, 0 disables aging
+     */
+    public CommandQueue(int nThreads, int blockingQueueSize, RejectionPolicy rejectionPolicy, long blockTimeout, long priorityAging) {
+        this.rejectedExecutionHandler = new RejectedExecutionHandlerImpl(rejectionPolicy, blockTimeout);
+        this.jobQueue = new JobQueue(Math.max(1, blockingQueueSize), priorityAging);
+        this.threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                this.jobQueue, ThreadBackend.getInstance().newThreadFactory("script"), this.rejectedExecutionHandler);
     }
 
     /**
      * Adds a new Task to the queue, which will be executed as soon as there is
-     * a free place in the thread pool.
+     * a free place in the thread pool.<br/>
+     * A command is only added if less than its max_concurrent executions are
+     * unfinished, for a pipeline this applies to each stage as well, and the
+     * client has less than max_jobs_per_user unfinished commands. If the command is a single flight command, the client is
+     * attached to an unfinished execution instead.<br/>
+     * The priority of the job is the priority of the command, or the priority
+     * of the client if it is higher.
      *
      * @param cmd Command name to execute
-     * @param executeScriptThread new Task to execute.
-     * @return true if command is added to queue, false if not. A reason can be that a command is already running.
+     * @param scriptThread new Task to execute.
+     * @return {@link Result#ADDED} if command is added to queue, otherwise the reason why it isn't added.
      */
-    public boolean addToQueue(String cmd, ExecuteScriptThread executeScriptThread) {
-        if (!this.threads.containsKey(cmd)) {
-            Future<?> f = this.threadPool.submit(executeScriptThread);
-            this.threads.put(cmd, f);
-            return true;
-        } else {
-            return checkIfCommandFinishedAndAddToQueue(cmd, executeScriptThread);
+    public Result addToQueue(String cmd, AbstractScriptThread scriptThread) {
+        Job job = new Job(cmd, scriptThread);
+        Command command = scriptThread.getCommand();
+        JobRegistry.Registration registration = this.jobRegistry.register(job, command.getConcurrencyLimits(), BotConfiguration.getInstance().getMaxJobsPerUser());
+        if (registration == JobRegistry.Registration.CLIENT_LIMIT) {
+            return Result.CLIENT_LIMIT;
+        }
+        if (registration == JobRegistry.Registration.COMMAND_LIMIT) {
+            // an execution listener needs an execution of its own
+            if (command.isSingleFlight() && !scriptThread.hasExecutionListener() && this.attachToRunningJob(cmd, scriptThread.getClientJID())) {
+                return Result.ATTACHED;
+            }
+            return Result.ALREADY_RUNNING;
+        }
+
+        Priority senderPriority = BotConfiguration.getInstance().getSenderPriority(scriptThread.getClientJID());
+        job.setPriority(senderPriority == null ? command.getPriority() : command.getPriority().max(senderPriority));
+        try {
+            this.threadPool.execute(job);
+        } catch (RejectedExecutionException ex) {
+            this.jobRegistry.unregister(job);
+            return Result.QUEUE_FULL;
         }
+        return Result.ADDED;
     }
-    
-    private boolean checkIfCommandFinishedAndAddToQueue(String cmd, ExecuteScriptThread executeScriptThread) {
-        Future<?> thread = (Future) this.threads.get(cmd);
-        if(thread.isDone()) {
-            Future<?> f = this.threadPool.submit(executeScriptThread);
-            this.threads.put(cmd, f);
-            return true;
-        } else {
+
+    private boolean attachToRunningJob(String cmd, String clientJID) {
+        for (Job job : this.jobRegistry.getJobs(cmd)) {
+            if (job.getScriptThread().attachClient(clientJID)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancels a job. A waiting job is removed from the queue, a running
+     * script is terminated together with all processes it has started.
+     *
+     * @param jobId the ID of the job
+     * @return false if there is no unfinished job with this ID
+     */
+    public boolean cancel(int jobId) {
+        Job job = this.jobRegistry.getJob(jobId);
+        if (job == null || job.isDone()) {
             return false;
         }
+        if (job.cancelIfWaiting()) {
+            this.threadPool.remove(job);
+            job.getScriptThread().notifyNotStarted("The execution of " + job.getCommandName() + " was cancelled before it was started.");
+        } else {
+            job.getScriptThread().terminate("it was cancelled");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the registry of all unfinished jobs.
+     * @return the JobRegistry
+     */
+    public JobRegistry getJobRegistry() {
+        return this.jobRegistry;
+    }
+
+    /**
+     * Returns the number of commands which are waiting for execution.
+     * @return the number of waiting commands
+     */
+    public int getQueueDepth() {
+        return this.threadPool.getQueue().size();
+    }
+
+    /**
+     * Returns the queue of the waiting commands.
+     * @return the JobQueue
+     */
+    public JobQueue getJobQueue() {
+        return this.jobQueue;
+    }
+
+    /**
+     * Returns the number of scripts which are executed at the moment.
+     * @return the number of running scripts
+     */
+    public int getActiveCount() {
+        return this.threadPool.getActiveCount();
+    }
+
+    /**
+     * Returns the number of commands which have been rejected, because the queue was full.
+     * @return the number of rejected commands
+     */
+    public long getRejectedCount() {
+        return this.rejectedExecutionHandler.getRejectedCount();
+    }
+
+    /**
+     * Returns the number of waiting commands which have been removed from the queue for newer ones.
+     * @return the number of dropped commands
+     */
+    public long getDroppedCount() {
+        return this.rejectedExecutionHandler.getDroppedCount();
     }
 
     /**
@@ -80,6 +201,7 @@ public class CommandQueue {
 
     /**
      * Stops immediately all current running tasks.
+     * The scripts are terminated together with all processes they have started.
      */
     public void quitCommandExecutionNow() {
         this.threadPool.shutdownNow();
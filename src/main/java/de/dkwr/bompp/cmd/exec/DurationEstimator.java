@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The DurationEstimator learns how long the executions of a command take. The
+ * estimate is an exponentially weighted moving average of the durations of the
+ * finished executions, so it follows changes of a script without jumping on
+ * single outliers.<br/>
+ * DurationEstimator is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class DurationEstimator {
+
+    private static final DurationEstimator INSTANCE = new DurationEstimator();
+    private static final double ALPHA = 0.3; // weight of the newest duration
+    private final ConcurrentHashMap<String, Estimate> estimates = new ConcurrentHashMap<>();
+
+    /**
+     * The estimated duration of a command and the number of measured executions.
+     */
+    private static class Estimate {
+
+        private final double duration;
+        private final long runs;
+
+        private Estimate(double duration, long runs) {
+            this.duration = duration;
+            this.runs = runs;
+        }
+    }
+
+    private DurationEstimator() {
+    }
+
+    public static DurationEstimator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds the duration of a finished execution to the estimate of a command.
+     *
+     * @param cmd the command name
+     * @param duration the duration in ms
+     */
+    public void record(String cmd, long duration) {
+        this.estimates.merge(cmd, new Estimate(duration, 1),
+                (old, current) -> new Estimate(ALPHA * current.duration + (1 - ALPHA) * old.duration, old.runs + 1));
+    }
+
+    /**
+     * Returns the estimated duration of a command.
+     *
+     * @param cmd the command name
+     * @return the duration in ms or -1 if the command hasn't been executed yet
+     */
+    public long getEstimate(String cmd) {
+        Estimate estimate = this.estimates.get(cmd);
+        return estimate == null ? -1 : Math.round(estimate.duration);
+    }
+
+    /**
+     * Returns the number of executions the estimate of a command is based on.
+     *
+     * @param cmd the command name
+     * @return number of executions
+     */
+    public long getRuns(String cmd) {
+        Estimate estimate = this.estimates.get(cmd);
+        return estimate == null ? 0 : estimate.runs;
+    }
+}
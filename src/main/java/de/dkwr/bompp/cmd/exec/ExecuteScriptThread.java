@@ -17,88 +17,114 @@
 package de.dkwr.bompp.cmd.exec;
 
 import de.dkwr.bompp.xmpp.OmemoController;
-import de.dkwr.bompp.util.BotLogger;
+import de.dkwr.bompp.util.BotConfiguration;
 import de.dkwr.bompp.util.Command;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.List;
+import java.util.concurrent.BlockingQueue;
 
 /**
- * The ExecuteScriptThread runs a script in a Thread and notifies the client when it is terminated.
+ * The ExecuteScriptThread runs a script in a new process and notifies the client when it is terminated.<br/>
+ * stdout and stderr of the script are read concurrently by two {@link StreamPump}s,
+ * which decode them with the encoding of the command, or by the
+ * {@link OutputMultiplexer} if it has been started. The resources of the
+ * process tree are sampled by the {@link ResourceMonitor}.
  *
  * @author Dennis Kawurek
  */
-public class ExecuteScriptThread implements Runnable {
-    private boolean showOutPutStream = true;
-    List<String> paramList;
-    private final String clientJID;
-    private final OmemoController omemoController;
-    private final boolean collectOutputStream; // if true = collects the whole output and sends it when script has finished
+public class ExecuteScriptThread extends AbstractScriptThread {
+    private volatile Process exec;
+    private volatile StreamPump stdoutPump;
+    private volatile StreamPump stderrPump;
+    private volatile OutputMultiplexer.Registration registration;
+    private volatile ResourceMonitor.Sampler sampler;
+    private volatile ResourceUsage resourceUsage; // set when the sampling has been finished
 
     public ExecuteScriptThread(Command command, String clientJID, boolean showOutPutStream, OmemoController omemoController) {
-        this.clientJID = clientJID;
-        this.paramList = command.getCmdExecutionList();
-        this.showOutPutStream = showOutPutStream;
-        this.omemoController = omemoController;
-        this.collectOutputStream = command.getCollectOutput();
+        super(command, clientJID, showOutPutStream, omemoController);
     }
 
     @Override
-    public void run() {
-        try {
-            this.printExecutionStartInfo();
-            Process exec;
-            exec = new ProcessBuilder(paramList).start();
+    protected void startExecution(BlockingQueue<OutputLine> outputQueue) throws Exception {
+        this.exec = new ProcessBuilder(paramList).start();
+        this.sampler = ResourceMonitor.getInstance().register(ProcessTree.getPid(this.exec));
 
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(exec.getInputStream())
-            );
-            String out;
-            StringBuilder strBuilder = new StringBuilder();
-            while (exec.isAlive()) {
-                if (this.showOutPutStream) {
-                    while ((out = reader.readLine()) != null) {
-                        if(this.clientJID != null && !this.collectOutputStream) {
-                            this.omemoController.sendMessage(this.omemoController.getJid(this.clientJID), out);
-                            System.out.println(out);
-                        } else if(this.clientJID == null && !this.collectOutputStream) {
-                            System.out.println(out);
-                        } else {
-                            //System.out.println(out);
-                            strBuilder.append(out);
-                            strBuilder.append(System.getProperty("line.separator"));
-                        }
-                    }
-                }
-            }
+        if (OutputMultiplexer.getInstance().isStarted()) {
+            this.registration = OutputMultiplexer.getInstance().register(this.exec, outputQueue, this.getCommand().getEncoding());
+            return;
+        }
+        this.stdoutPump = new StreamPump(this.exec.getInputStream(), OutputLine.Stream.STDOUT, outputQueue, this.getCommand().getEncoding());
+        this.stderrPump = new StreamPump(this.exec.getErrorStream(), OutputLine.Stream.STDERR, outputQueue, this.getCommand().getEncoding());
+        this.stdoutPump.start("stdout " + paramList.get(0));
+        this.stderrPump.start("stderr " + paramList.get(0));
+    }
+
+    @Override
+    protected int waitForExitCode() throws Exception {
+        // the output has ended, so the processes are about to terminate and are sampled a last time
+        this.finishSampling();
+        return this.exec.waitFor();
+    }
+
+    @Override
+    protected void finishExecution() {
+        this.finishSampling();
+    }
+
+    private void finishSampling() {
+        ResourceMonitor.Sampler currentSampler = this.sampler;
+        if (currentSampler != null) {
+            this.resourceUsage = currentSampler.finish();
+            this.sampler = null;
+        }
+    }
+
+    @Override
+    public ResourceUsage getResourceUsage() {
+        ResourceUsage usage = this.resourceUsage;
+        if (usage != null) {
+            return usage;
+        }
+        ResourceMonitor.Sampler currentSampler = this.sampler;
+        return currentSampler == null ? null : currentSampler.getUsage();
+    }
 
-            if(this.clientJID != null && this.collectOutputStream) {
-                System.out.println("End of execution of " + paramList.get(0) + " for " + clientJID + " Exit code: " + exec.exitValue());
-                this.omemoController.sendMessage(this.omemoController.getJid(this.clientJID), strBuilder.toString());
-            } else {
-                System.out.println("End of execution of " + paramList.get(0) + " Exit code: " + exec.exitValue());
-            }
-        } catch (Exception ex) {
-            BotLogger.getInstance().logException(ex);
-            if(this.clientJID != null) {
-                try {
-                    this.omemoController.sendMessage(this.omemoController.getJid(this.clientJID), "Failed to execute the command " + paramList.get(0) + "\nPlease try it again.");
-                } catch (Exception e) {
-                    BotLogger.getInstance().logException(e);
-                }
-            }
+    @Override
+    protected void killExecution() {
+        Process process = this.exec;
+        if (process != null) {
+            ProcessTree.terminate(process, BotConfiguration.getInstance().getKillGracePeriod());
         }
     }
 
-    private void printExecutionStartInfo() {
-        if(this.clientJID == null) {
-            if(this.paramList.size() < 2) System.out.println("Executing " + this.paramList.get(0));
-            else System.out.println("Executing " + this.paramList.get(0) + " " + this.paramList.get(1));
-        } else {
-            if(this.paramList.size() < 2) System.out.println("Executing " + this.paramList.get(0) + " for " + this.clientJID);
-            else System.out.println("Executing " + this.paramList.get(0) + " " + this.paramList.get(1) + " for " + this.clientJID);
+    @Override
+    protected void stopExecution() {
+        this.killExecution();
+        if (this.registration != null) {
+            this.registration.cancel();
+        }
+        if (this.stdoutPump != null) {
+            this.stdoutPump.stop();
+        }
+        if (this.stderrPump != null) {
+            this.stderrPump.stop();
         }
     }
 
+    @Override
+    public long getStdoutBytes() {
+        if (this.registration != null) {
+            return this.registration.getStdoutBytes();
+        }
+        StreamPump pump = this.stdoutPump;
+        return pump == null ? 0 : pump.getByteCount();
+    }
+
+    @Override
+    public long getStderrBytes() {
+        if (this.registration != null) {
+            return this.registration.getStderrBytes();
+        }
+        StreamPump pump = this.stderrPump;
+        return pump == null ? 0 : pump.getByteCount();
+    }
 }
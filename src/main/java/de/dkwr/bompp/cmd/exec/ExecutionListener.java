@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+/**
+ * An ExecutionListener gets the whole output of an execution instead of the
+ * clients, see {@link AbstractScriptThread#setExecutionListener}.
+ *
+ * @author Dennis Kawurek
+ */
+public interface ExecutionListener {
+
+    /**
+     * Called when the script has finished. It isn't called if the execution
+     * failed or was terminated.
+     *
+     * @param exitCode the exit code of the script
+     * @param output the whole output of the script
+     */
+    void executionFinished(int exitCode, String output);
+
+    /**
+     * Called instead of {@link #executionFinished} if the script couldn't be
+     * executed, was terminated or was removed from the queue before its start.
+     *
+     * @param reason the message which has been sent to the clients
+     */
+    default void executionFailed(String reason) {
+    }
+}
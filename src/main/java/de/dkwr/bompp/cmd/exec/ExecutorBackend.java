@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+/**
+ * Defines on which threads the scripts and the received messages are
+ * handled, see {@link ThreadBackend}.
+ *
+ * @author Dennis Kawurek
+ */
+public enum ExecutorBackend {
+    PLATFORM, // a fixed pool of platform threads executes the scripts, a small fixed pool of platform threads handles the messages
+    VIRTUAL // every script and every received message gets a virtual thread, if the JVM supports them
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Job is a script execution which has been added to the {@link CommandQueue}.
+ * It gets an ID when it is registered in the {@link JobRegistry}.
+ *
+ * @author Dennis Kawurek
+ */
+public class Job extends FutureTask<Void> {
+
+    /**
+     * State of a job.
+     */
+    public enum State {
+        QUEUED, // waiting for a free thread
+        RUNNING,
+        FINISHED, // the script has finished
+        TERMINATED, // the script has been terminated, e.g. after a timeout or when it was cancelled
+        CANCELLED // the job was removed from the queue before it was started
+    }
+
+    private final String cmd;
+    private final AbstractScriptThread scriptThread;
+    private final long submitTime = System.currentTimeMillis();
+    private final AtomicBoolean claimed = new AtomicBoolean(); // set when the job is started or cancelled before its start
+    private volatile long startTime = 0;
+    private volatile long endTime = 0;
+    private volatile int id = 0;
+    private volatile Priority priority = Priority.NORMAL;
+    private volatile JobRegistry registry;
+
+    /**
+     * Creates a new Job.
+     *
+     * @param cmd the command name
+     * @param scriptThread the task which executes the script
+     */
+    public Job(String cmd, AbstractScriptThread scriptThread) {
+        super(scriptThread, null);
+        this.cmd = cmd;
+        this.scriptThread = scriptThread;
+    }
+
+    @Override
+    public void run() {
+        if (this.claimed.compareAndSet(false, true)) {
+            this.startTime = System.currentTimeMillis();
+            super.run();
+            if (!this.scriptThread.isTerminated()) {
+                DurationEstimator.getInstance().record(this.cmd, System.currentTimeMillis() - this.startTime);
+            }
+            ResourceUsage usage = this.scriptThread.getResourceUsage();
+            if (usage != null) {
+                ResourceStats.getInstance().record(this.cmd, usage);
+            }
+        }
+    }
+
+    @Override
+    protected void done() {
+        this.endTime = System.currentTimeMillis();
+        JobRegistry jobRegistry = this.registry;
+        if (jobRegistry != null) {
+            jobRegistry.unregister(this);
+        }
+    }
+
+    /**
+     * Cancels the job if it hasn't been started yet.
+     * @return true if the job was waiting and has been cancelled, false if it is already running or done
+     */
+    boolean cancelIfWaiting() {
+        return this.claimed.compareAndSet(false, true) && this.cancel(false);
+    }
+
+    void setRegistry(JobRegistry registry, int id) {
+        this.registry = registry;
+        this.id = id;
+        this.scriptThread.setJobId(id);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Priority getPriority() {
+        return this.priority;
+    }
+
+    void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public String getCommandName() {
+        return this.cmd;
+    }
+
+    public AbstractScriptThread getScriptThread() {
+        return this.scriptThread;
+    }
+
+    /**
+     * Returns the JID of the client which has requested this job.
+     * @return the JID or null if the job was started by the bot CLI
+     */
+    public String getRequester() {
+        return this.scriptThread.getClientJID();
+    }
+
+    public long getSubmitTime() {
+        return this.submitTime;
+    }
+
+    /**
+     * Returns the time when the job was started.
+     * @return the time in ms since the epoch or 0 if the job hasn't been started
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    public State getState() {
+        if (this.isCancelled() && this.startTime == 0) {
+            return State.CANCELLED;
+        }
+        if (this.startTime == 0) {
+            return State.QUEUED;
+        }
+        if (!this.isDone()) {
+            return State.RUNNING;
+        }
+        return this.scriptThread.isTerminated() ? State.TERMINATED : State.FINISHED;
+    }
+
+    /**
+     * Returns how long the job has waited in the queue.
+     * @return the time in ms
+     */
+    public long getQueueWait() {
+        long start = this.startTime;
+        if (start == 0) {
+            long end = this.endTime;
+            return (end == 0 ? System.currentTimeMillis() : end) - this.submitTime;
+        }
+        return start - this.submitTime;
+    }
+
+    /**
+     * Returns the number of bytes the script has written to stdout and stderr so far.
+     * @return number of bytes
+     */
+    public long getOutputBytes() {
+        return this.scriptThread.getStdoutBytes() + this.scriptThread.getStderrBytes();
+    }
+
+    /**
+     * Returns the resources which the processes of this job have used so far.
+     * @return the usage or null if it isn't measured
+     */
+    public ResourceUsage getResourceUsage() {
+        return this.scriptThread.getResourceUsage();
+    }
+
+    /**
+     * Returns a line with the state of this job for /jobs.
+     * @return description of the job
+     */
+    public String getStatusLine() {
+        StringBuilder line = new StringBuilder();
+        line.append('#').append(this.id)
+                .append(' ').append(this.cmd)
+                .append(' ').append(this.getState())
+                .append(' ').append(this.priority);
+        if (this.getRequester() != null) {
+            line.append(" for ").append(this.getRequester());
+        }
+        line.append(", waited ").append(TimeUnit.MILLISECONDS.toSeconds(this.getQueueWait())).append(" s");
+        long start = this.startTime;
+        if (start != 0) {
+            long end = this.endTime;
+            line.append(", ran ").append(TimeUnit.MILLISECONDS.toSeconds((end == 0 ? System.currentTimeMillis() : end) - start)).append(" s");
+            line.append(", ").append(this.getOutputBytes()).append(" bytes output");
+            ResourceUsage usage = this.getResourceUsage();
+            if (usage != null) {
+                line.append(", CPU ").append(usage.getCpuTime()).append(" ms")
+                        .append(", peak RSS ").append(ResourceUsage.formatBytes(usage.getPeakRss()));
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,549 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The JobQueue is the bounded queue of the {@link CommandQueue}. It has a level
+ * for every {@link Priority} and returns the jobs of the highest level first.<br/>
+ * To prevent that jobs with a low priority starve, a waiting job gains one
+ * priority level for every aging interval it has waited.<br/>
+ * Inside of a level every client has its own FIFO queue. The clients are served
+ * in weighted round-robin order, a client with the weight n gets n jobs per turn.
+ * So a client who sends many commands can't delay the commands of the others.<br/>
+ * With {@link SchedulingPolicy#SHORTEST_FIRST} the job with the shortest
+ * estimated duration of a level is started first instead. A job which has
+ * waited longer than the starvation limit is started before all others of its level.
+ *
+ * @author Dennis Kawurek
+ */
+public class JobQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final Priority[] LEVELS = Priority.values();
+
+    /**
+     * A waiting task together with the time it has been added to the queue.
+     */
+    private static class Entry {
+
+        private final Runnable task;
+        private final Priority priority;
+        private final String client;
+        private final String command;
+        private final long enqueueTime = System.currentTimeMillis();
+
+        private Entry(Runnable task) {
+            this.task = task;
+            Job job = task instanceof Job ? (Job) task : null;
+            this.priority = job != null ? job.getPriority() : Priority.NORMAL;
+            String requester = job != null ? job.getRequester() : null;
+            this.client = requester != null ? requester.toLowerCase() : ""; // the bot CLI is one client as well
+            this.command = job != null ? job.getCommandName() : "";
+        }
+    }
+
+    /**
+     * The waiting entries of one priority, with a queue per client.
+     */
+    private static class Level {
+
+        private final Map<String, ArrayDeque<Entry>> clientQueues = new HashMap<>();
+        private final ArrayDeque<String> turns = new ArrayDeque<>(); // clients with waiting entries, the first one has its turn
+        private int servedInTurn = 0; // entries the first client got in its current turn
+        private int size = 0;
+
+        private void add(Entry entry) {
+            ArrayDeque<Entry> queue = this.clientQueues.get(entry.client);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                this.clientQueues.put(entry.client, queue);
+                this.turns.addLast(entry.client);
+            }
+            queue.addLast(entry);
+            this.size++;
+        }
+
+        /**
+         * Returns the next entry of the client which has its turn.
+         */
+        private Entry peekNext() {
+            String client = this.turns.peekFirst();
+            return client == null ? null : this.clientQueues.get(client).peekFirst();
+        }
+
+        /**
+         * Removes the next entry and passes the turn on, when the client has got
+         * as many entries as its weight or has no more waiting entries.
+         */
+        private Entry pollNext() {
+            String client = this.turns.peekFirst();
+            if (client == null) {
+                return null;
+            }
+            Entry entry = this.clientQueues.get(client).pollFirst();
+            this.size--;
+            this.servedInTurn++;
+            if (this.clientQueues.get(client).isEmpty()) {
+                this.clientQueues.remove(client);
+                this.turns.pollFirst();
+                this.servedInTurn = 0;
+            } else if (this.servedInTurn >= BotConfiguration.getInstance().getUserWeight(client.isEmpty() ? null : client)) {
+                this.turns.addLast(this.turns.pollFirst());
+                this.servedInTurn = 0;
+            }
+            return entry;
+        }
+
+        /**
+         * Returns the entry with the shortest estimated duration. Commands
+         * without an estimate come first, so their duration gets measured.
+         * If the oldest entry has waited for starvationLimit ms, it is returned instead.
+         */
+        private Entry peekShortest(long now, long starvationLimit) {
+            Entry oldest = this.getOldest();
+            if (oldest == null || (starvationLimit > 0 && now - oldest.enqueueTime >= starvationLimit)) {
+                return oldest;
+            }
+            Entry shortest = null;
+            long shortestEstimate = Long.MAX_VALUE;
+            for (ArrayDeque<Entry> queue : this.clientQueues.values()) {
+                for (Entry entry : queue) {
+                    long estimate = DurationEstimator.getInstance().getEstimate(entry.command);
+                    if (estimate < shortestEstimate || (estimate == shortestEstimate && entry.enqueueTime < shortest.enqueueTime)) {
+                        shortest = entry;
+                        shortestEstimate = estimate;
+                    }
+                }
+            }
+            return shortest;
+        }
+
+        /**
+         * Returns the entry which waits the longest time.
+         */
+        private Entry getOldest() {
+            Entry oldest = null;
+            for (ArrayDeque<Entry> queue : this.clientQueues.values()) {
+                Entry head = queue.peekFirst();
+                if (oldest == null || head.enqueueTime < oldest.enqueueTime) {
+                    oldest = head;
+                }
+            }
+            return oldest;
+        }
+
+        /**
+         * Removes the entry of a task.
+         */
+        private Entry remove(Object task) {
+            for (Map.Entry<String, ArrayDeque<Entry>> clientQueue : this.clientQueues.entrySet()) {
+                Iterator<Entry> it = clientQueue.getValue().iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    if (entry.task.equals(task)) {
+                        it.remove();
+                        this.size--;
+                        if (clientQueue.getValue().isEmpty()) {
+                            this.removeClient(clientQueue.getKey());
+                        }
+                        return entry;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void removeClient(String client) {
+            if (client.equals(this.turns.peekFirst())) {
+                this.servedInTurn = 0;
+            }
+            this.clientQueues.remove(client);
+            this.turns.remove(client);
+        }
+
+        private void addTasksTo(List<Runnable> tasks) {
+            for (String client : this.turns) {
+                this.clientQueues.get(client).forEach(entry -> tasks.add(entry.task));
+            }
+        }
+    }
+
+    private final int capacity;
+    private final long agingInterval;
+    private final List<Level> levels = new ArrayList<>();
+    private final long[] dequeuedCount = new long[LEVELS.length];
+    private final long[] totalWait = new long[LEVELS.length];
+    private final long[] maxWait = new long[LEVELS.length];
+    private int count = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+
+    /**
+     * Creates a new JobQueue.
+     *
+     * @param capacity maximum number of waiting jobs
+     * @param agingInterval time in ms after which a waiting job gains one priority level, 0 disables aging
+     */
+    public JobQueue(int capacity, long agingInterval) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity of the queue must be at least 1.");
+        }
+        this.capacity = capacity;
+        this.agingInterval = agingInterval;
+        for (Priority level : LEVELS) {
+            this.levels.add(new Level());
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        this.lock.lock();
+        try {
+            if (this.count >= this.capacity) {
+                return false;
+            }
+            this.enqueue(task);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count >= this.capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+            this.enqueue(task);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count >= this.capacity) {
+                this.notFull.await();
+            }
+            this.enqueue(task);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        this.lock.lock();
+        try {
+            return this.count == 0 ? null : this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == 0) {
+                this.notEmpty.await();
+            }
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        this.lock.lock();
+        try {
+            Level next = this.selectLevel();
+            return next == null ? null : this.peekEntry(next).task;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest job of the lowest priority, to make place for a new one.
+     *
+     * @return the removed job or null if the queue is empty
+     */
+    public Runnable pollOldest() {
+        this.lock.lock();
+        try {
+            for (int i = this.levels.size() - 1; i >= 0; i--) {
+                Level level = this.levels.get(i);
+                if (level.size > 0) {
+                    Entry entry = level.remove(level.getOldest().task);
+                    this.count--;
+                    this.notFull.signal();
+                    return entry.task;
+                }
+            }
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        this.lock.lock();
+        try {
+            for (Level level : this.levels) {
+                if (level.remove(task) != null) {
+                    this.count--;
+                    this.notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        this.lock.lock();
+        try {
+            return this.capacity - this.count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        this.lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && this.count > 0) {
+                c.add(this.dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the waiting tasks, ordered by their priority and client.
+     * Removing a task with the iterator removes it from the queue.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> tasks = new ArrayList<>();
+        this.lock.lock();
+        try {
+            for (Level level : this.levels) {
+                level.addTasksTo(tasks);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        Iterator<Runnable> snapshot = tasks.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable current;
+
+            @Override
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                this.current = snapshot.next();
+                return this.current;
+            }
+
+            @Override
+            public void remove() {
+                JobQueue.this.remove(this.current);
+            }
+        };
+    }
+
+    /**
+     * Returns the wait time statistics of a priority level. Only jobs which have
+     * been taken from the queue for execution are counted.
+     *
+     * @param priority the priority level
+     * @return number of jobs, average and maximum wait time in ms
+     */
+    public long[] getWaitStats(Priority priority) {
+        this.lock.lock();
+        try {
+            int i = priority.ordinal();
+            long average = this.dequeuedCount[i] == 0 ? 0 : this.totalWait[i] / this.dequeuedCount[i];
+            return new long[]{this.dequeuedCount[i], average, this.maxWait[i]};
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of jobs of a priority which are waiting.
+     *
+     * @param priority the priority level
+     * @return number of jobs
+     */
+    public int getWaitingCount(Priority priority) {
+        this.lock.lock();
+        try {
+            return this.levels.get(priority.ordinal()).size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void enqueue(Runnable task) {
+        Entry entry = new Entry(task);
+        this.levels.get(entry.priority.ordinal()).add(entry);
+        this.count++;
+        this.notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        Level level = this.selectLevel();
+        Entry entry = BotConfiguration.getInstance().getSchedulingPolicy() == SchedulingPolicy.SHORTEST_FIRST
+                ? level.remove(this.peekEntry(level).task) : level.pollNext();
+        this.count--;
+        this.notFull.signal();
+
+        int i = entry.priority.ordinal();
+        long wait = System.currentTimeMillis() - entry.enqueueTime;
+        this.dequeuedCount[i]++;
+        this.totalWait[i] += wait;
+        this.maxWait[i] = Math.max(this.maxWait[i], wait);
+        return entry.task;
+    }
+
+    /**
+     * Returns the next entry of a level, depending on the scheduling policy.
+     */
+    private Entry peekEntry(Level level) {
+        BotConfiguration cfg = BotConfiguration.getInstance();
+        if (cfg.getSchedulingPolicy() == SchedulingPolicy.SHORTEST_FIRST) {
+            return level.peekShortest(System.currentTimeMillis(), cfg.getStarvationLimit());
+        }
+        return level.peekNext();
+    }
+
+    /**
+     * Returns the level of the next entry. The oldest entry of every level is
+     * compared by its aged priority, if two entries have the same one the
+     * older one wins.
+     */
+    private Level selectLevel() {
+        long now = System.currentTimeMillis();
+        Level next = null;
+        Entry nextOldest = null;
+        int nextLevel = Integer.MAX_VALUE;
+        for (Level level : this.levels) {
+            if (level.size == 0) {
+                continue;
+            }
+            Entry oldest = level.getOldest();
+            int agedLevel = this.getAgedLevel(oldest, now);
+            if (agedLevel < nextLevel || (agedLevel == nextLevel && oldest.enqueueTime < nextOldest.enqueueTime)) {
+                next = level;
+                nextOldest = oldest;
+                nextLevel = agedLevel;
+            }
+        }
+        return next;
+    }
+
+    private int getAgedLevel(Entry entry, long now) {
+        if (this.agingInterval <= 0) {
+            return entry.priority.ordinal();
+        }
+        long gainedLevels = (now - entry.enqueueTime) / this.agingInterval;
+        return (int) Math.max(0, entry.priority.ordinal() - gainedLevels);
+    }
+}
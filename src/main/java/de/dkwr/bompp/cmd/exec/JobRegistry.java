@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The JobRegistry keeps track of all unfinished jobs per command. It is used by
+ * the CLI and the message listener at the same time, so all methods are thread
+ * safe.<br/>
+ * A pipeline counts as a job of every stage as well, so the limits of the
+ * stages apply to it, see {@link de.dkwr.bompp.util.Command#getConcurrencyLimits()}.<br/>
+ * Jobs remove themselves from the registry when they are done. The last
+ * finished jobs are kept, so their state can still be shown.
+ *
+ * @author Dennis Kawurek
+ */
+public class JobRegistry {
+
+    /**
+     * Result of registering a job.
+     */
+    public enum Registration {
+        REGISTERED,
+        COMMAND_LIMIT, // the command has max_concurrent unfinished jobs
+        CLIENT_LIMIT // the client has the maximum number of unfinished jobs
+    }
+
+    private static final int FINISHED_JOBS_SIZE = 20;
+    private final ConcurrentHashMap<String, Set<Job>> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Job> jobsById = new ConcurrentHashMap<>();
+    private final Deque<Job> finishedJobs = new ArrayDeque<>(); // guarded by itself
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final ConcurrentHashMap<String, Integer> jobsPerClient = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a job, if there are less than maxConcurrent unfinished jobs of
+     * the same command. The job gets a new ID.
+     *
+     * @param job the job to register
+     * @param maxConcurrent maximum number of unfinished jobs of the command
+     * @return true if the job has been registered, false if the limit is reached
+     */
+    public boolean register(Job job, int maxConcurrent) {
+        return this.register(job, maxConcurrent, 0) == Registration.REGISTERED;
+    }
+
+    /**
+     * Registers a job, if there are less than maxConcurrent unfinished jobs of
+     * the same command and the client who has requested the job has less than
+     * maxClientJobs unfinished jobs. The job gets a new ID.
+     *
+     * @param job the job to register
+     * @param maxConcurrent maximum number of unfinished jobs of the command
+     * @param maxClientJobs maximum number of unfinished jobs of the client, 0 for no limit
+     * @return {@link Registration#REGISTERED} or the limit which is reached
+     */
+    public Registration register(Job job, int maxConcurrent, int maxClientJobs) {
+        return this.register(job, Collections.singletonMap(job.getCommandName(), maxConcurrent), maxClientJobs);
+    }
+
+    /**
+     * Registers a job, if there are less unfinished jobs than the limit of
+     * every given command and the client who has requested the job has less
+     * than maxClientJobs unfinished jobs. The job gets a new ID.
+     *
+     * @param job the job to register
+     * @param limits maximum number of unfinished jobs per command name, the job is counted for each of them
+     * @param maxClientJobs maximum number of unfinished jobs of the client, 0 for no limit
+     * @return {@link Registration#REGISTERED} or the limit which is reached
+     */
+    public Registration register(Job job, Map<String, Integer> limits, int maxClientJobs) {
+        String client = job.getRequester() == null ? null : job.getRequester().toLowerCase();
+        if (client != null && !this.acquireClientSlot(client, maxClientJobs)) {
+            return Registration.CLIENT_LIMIT;
+        }
+        boolean registered = true;
+        // all limits are checked and taken together, so two pipelines can't take the last place of different stages
+        synchronized (this.jobs) {
+            for (Map.Entry<String, Integer> limit : limits.entrySet()) {
+                Set<Job> cmdJobs = this.jobs.get(limit.getKey());
+                if (cmdJobs != null) {
+                    cmdJobs.removeIf(Job::isDone);
+                }
+                if ((cmdJobs == null ? 0 : cmdJobs.size()) >= limit.getValue()) {
+                    registered = false;
+                    break;
+                }
+            }
+            if (registered) {
+                for (String cmd : limits.keySet()) {
+                    this.jobs.computeIfAbsent(cmd, key -> ConcurrentHashMap.newKeySet()).add(job);
+                }
+            }
+        }
+        if (!registered) {
+            if (client != null) {
+                this.releaseClientSlot(client);
+            }
+            return Registration.COMMAND_LIMIT;
+        }
+        int id = this.nextId.getAndIncrement();
+        job.setRegistry(this, id);
+        this.jobsById.put(id, job);
+        return Registration.REGISTERED;
+    }
+
+    /**
+     * Removes a job from the registry. If it is done, it is added to the
+     * finished jobs.
+     *
+     * @param job the job to remove
+     */
+    public void unregister(Job job) {
+        synchronized (this.jobs) {
+            Set<String> limitedCmds = new HashSet<>(job.getScriptThread().getCommand().getConcurrencyLimits().keySet());
+            limitedCmds.add(job.getCommandName());
+            for (String limitedCmd : limitedCmds) {
+                this.jobs.computeIfPresent(limitedCmd, (cmd, cmdJobs) -> {
+                    cmdJobs.remove(job);
+                    return cmdJobs.isEmpty() ? null : cmdJobs;
+                });
+            }
+        }
+        if (!this.jobsById.remove(job.getId(), job)) {
+            return;
+        }
+        if (job.getRequester() != null) {
+            this.releaseClientSlot(job.getRequester().toLowerCase());
+        }
+        if (job.isDone()) {
+            synchronized (this.finishedJobs) {
+                this.finishedJobs.addLast(job);
+                if (this.finishedJobs.size() > FINISHED_JOBS_SIZE) {
+                    this.finishedJobs.removeFirst();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of unfinished jobs of a client.
+     *
+     * @param jid the JID of the client
+     * @return number of jobs
+     */
+    public int getClientJobCount(String jid) {
+        return this.jobsPerClient.getOrDefault(jid.toLowerCase(), 0);
+    }
+
+    private boolean acquireClientSlot(String client, int maxClientJobs) {
+        boolean[] acquired = {false};
+        this.jobsPerClient.compute(client, (jid, count) -> {
+            int current = count == null ? 0 : count;
+            if (maxClientJobs > 0 && current >= maxClientJobs) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    private void releaseClientSlot(String client) {
+        this.jobsPerClient.computeIfPresent(client, (jid, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Returns an unfinished or one of the last finished jobs.
+     *
+     * @param id the ID of the job
+     * @return the job or null if there is no job with this ID
+     */
+    public Job getJob(int id) {
+        Job job = this.jobsById.get(id);
+        if (job != null) {
+            return job;
+        }
+        synchronized (this.finishedJobs) {
+            for (Job finishedJob : this.finishedJobs) {
+                if (finishedJob.getId() == id) {
+                    return finishedJob;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the last finished jobs.
+     *
+     * @return list of jobs, ordered by their ID
+     */
+    public List<Job> getFinishedJobs() {
+        List<Job> jobList;
+        synchronized (this.finishedJobs) {
+            jobList = new ArrayList<>(this.finishedJobs);
+        }
+        jobList.sort(Comparator.comparingInt(Job::getId));
+        return jobList;
+    }
+
+    /**
+     * Returns all unfinished jobs of a command.
+     *
+     * @param cmd the command name
+     * @return list of jobs, which is empty if the command isn't running
+     */
+    public List<Job> getJobs(String cmd) {
+        Set<Job> cmdJobs = this.jobs.get(cmd);
+        if (cmdJobs == null) {
+            return Collections.emptyList();
+        }
+        List<Job> jobList = new ArrayList<>();
+        for (Job job : cmdJobs) {
+            // pipelines are counted for their stages, but they are no jobs of the stages
+            if (job.getCommandName().equals(cmd)) {
+                jobList.add(job);
+            }
+        }
+        return jobList;
+    }
+
+    /**
+     * Returns all unfinished jobs.
+     *
+     * @return list of jobs, ordered by their ID
+     */
+    public List<Job> getAllJobs() {
+        List<Job> allJobs = new ArrayList<>(this.jobsById.values());
+        allJobs.sort(Comparator.comparingInt(Job::getId));
+        return allJobs;
+    }
+}
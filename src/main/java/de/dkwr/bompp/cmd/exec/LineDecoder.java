@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * The LineDecoder decodes the bytes of one output stream with a decoder which
+ * is reused for the whole stream and splits the characters into lines.<br/>
+ * Invalid input is replaced by U+FFFD and control characters which can't be
+ * sent in a message as well, so binary output doesn't cause errors. A \r
+ * before a line break is dropped. Lines which are longer than MAX_LINE_LENGTH
+ * are split, but not between the two chars of a surrogate pair.
+ *
+ * @author Dennis Kawurek
+ */
+class LineDecoder {
+
+    private static final int MAX_LINE_LENGTH = 65536;
+    private static final char LINE_SEPARATOR = '\n';
+    private static final char REPLACEMENT = '\uFFFD';
+    private final CharsetDecoder decoder;
+    private final StringBuilder partialLine = new StringBuilder(); // the beginning of a line which is continued by the next bytes
+    private boolean carriageReturn = false; // the last character has been a \r, which is dropped before a line break
+
+    /**
+     * Creates a new LineDecoder.
+     *
+     * @param charset the encoding of the stream
+     */
+    LineDecoder(Charset charset) {
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .replaceWith(String.valueOf(REPLACEMENT));
+    }
+
+    /**
+     * Decodes the bytes of the buffer and appends the complete lines, each
+     * followed by a line separator. The bytes of an incomplete character stay
+     * in the buffer.
+     *
+     * @param in the bytes to decode
+     * @param out the buffer for the decoded characters, it is empty afterwards
+     * @param lines receives the complete lines
+     * @param endOfInput true if there are no more bytes, the last line is appended even without a line break
+     */
+    void decode(ByteBuffer in, CharBuffer out, StringBuilder lines, boolean endOfInput) {
+        while (this.decoder.decode(in, out, endOfInput).isOverflow()) {
+            this.addChars(out, lines);
+        }
+        if (endOfInput) {
+            while (this.decoder.flush(out).isOverflow()) {
+                this.addChars(out, lines);
+            }
+        }
+        this.addChars(out, lines);
+        if (endOfInput && this.partialLine.length() > 0) {
+            lines.append(this.partialLine).append(LINE_SEPARATOR);
+            this.partialLine.setLength(0);
+        }
+    }
+
+    private void addChars(CharBuffer out, StringBuilder lines) {
+        out.flip();
+        char[] chars = out.array();
+        for (int i = out.position(); i < out.limit(); i++) {
+            char c = chars[i];
+            if (c == LINE_SEPARATOR) {
+                lines.append(this.partialLine).append(LINE_SEPARATOR);
+                this.partialLine.setLength(0);
+                this.carriageReturn = false;
+                continue;
+            }
+            if (this.carriageReturn) {
+                this.partialLine.append('\r');
+            }
+            this.carriageReturn = c == '\r';
+            if (!this.carriageReturn) {
+                this.partialLine.append(isValidChar(c) ? c : REPLACEMENT);
+            }
+            int length = this.partialLine.length();
+            if (length >= MAX_LINE_LENGTH && !Character.isHighSurrogate(this.partialLine.charAt(length - 1))) {
+                lines.append(this.partialLine).append(LINE_SEPARATOR);
+                this.partialLine.setLength(0);
+            }
+        }
+        out.clear();
+    }
+
+    /**
+     * Checks whether a character may be sent in a XML stanza.
+     */
+    private static boolean isValidChar(char c) {
+        return c >= 0x20 ? c < 0xFFFE : c == '\t' || c == '\r';
+    }
+
+    /**
+     * Removes the lines from the builder and returns them as one OutputLine.
+     *
+     * @param stream the stream the lines were read from
+     * @param lines the lines, each followed by a line separator
+     * @return the OutputLine or null if there are no lines
+     */
+    static OutputLine takeLines(OutputLine.Stream stream, StringBuilder lines) {
+        if (lines.length() == 0) {
+            return null;
+        }
+        OutputLine line = new OutputLine(stream, lines.substring(0, lines.length() - 1));
+        lines.setLength(0);
+        return line;
+    }
+}
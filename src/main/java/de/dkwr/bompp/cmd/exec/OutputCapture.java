@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The OutputCapture collects the output of a script with a bounded size. It
+ * keeps the first headSize bytes and the last tailSize bytes, the output in
+ * between is replaced by a marker with the number of omitted bytes and lines.
+ * Lines at the border of the omitted part can be incomplete.
+ * <br/>The bytes are stored UTF-8 encoded in direct buffers of the
+ * {@link ByteBufferPool}, which are acquired when they are needed.
+ * If a spill file is set, the whole output is written to it as soon as it
+ * doesn't fit into the head anymore, see {@link OutputStore}.
+ * {@link #release()} has to be called when the capture isn't used anymore.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputCapture {
+
+    private static final byte LINE_SEPARATOR = '\n';
+    private static final int SPILL_BUFFER_SIZE = 65536;
+    private final int headSize;
+    private final int tailSize;
+    private byte[] lineBytes; // the current line, UTF-8 encoded
+    private ByteBuffer head;
+    private ByteBuffer tail; // ring buffer, position is the next write position
+    private boolean headClosed = false; // set when a line didn't fit into the head
+    private long tailBytes = 0; // number of bytes which have been written into the tail
+    private long totalBytes = 0;
+    private long totalLines = 0;
+    private long headLines = 0;
+    private Path spillFile;
+    private long maxSpillBytes;
+    private FileChannel spillChannel; // open while the output is spilled
+    private ByteBuffer spillBuffer;
+    private long spillBytes = 0;
+    private boolean spillTruncated = false;
+
+    /**
+     * Creates a new OutputCapture.
+     *
+     * @param headSize number of bytes at the beginning of the output which are kept
+     * @param tailSize number of bytes at the end of the output which are kept
+     */
+    public OutputCapture(int headSize, int tailSize) {
+        this.headSize = Math.max(0, headSize);
+        this.tailSize = Math.max(0, tailSize);
+    }
+
+    /**
+     * Sets the file to which the whole output is written if it doesn't fit
+     * into the head. Has to be called before the first line is appended.
+     *
+     * @param spillFile the file
+     * @param maxSpillBytes the maximum size of the file, the rest of the output isn't written
+     */
+    public void setSpillFile(Path spillFile, long maxSpillBytes) {
+        this.spillFile = spillFile;
+        this.maxSpillBytes = maxSpillBytes;
+    }
+
+    /**
+     * Appends one or more lines.
+     *
+     * @param text the lines separated by line breaks, without trailing line separator
+     */
+    public void append(String text) {
+        int start = 0;
+        int end;
+        while ((end = text.indexOf(LINE_SEPARATOR, start)) != -1) {
+            this.appendLine(text, start, end);
+            start = end + 1;
+        }
+        this.appendLine(text, start, text.length());
+    }
+
+    private void appendLine(String text, int start, int end) {
+        int length = this.encode(text, start, end);
+        byte[] bytes = this.lineBytes;
+        this.totalBytes += length + 1;
+        this.totalLines++;
+
+        int tailOffset = 0;
+        if (!this.headClosed && this.headSize > 0) {
+            if (this.head == null) {
+                this.head = ByteBufferPool.getInstance().acquire(this.headSize);
+            }
+            if (this.head.remaining() > length) {
+                this.head.put(bytes, 0, length).put(LINE_SEPARATOR);
+                this.headLines++;
+                return;
+            }
+            if (this.head.position() == 0) {
+                // the first line is longer than the head, so its beginning is kept
+                int headLength = this.head.remaining();
+                while (headLength > 0 && headLength < length && (bytes[headLength] & 0xC0) == 0x80) {
+                    headLength--; // don't split a UTF-8 character
+                }
+                this.head.put(bytes, 0, headLength);
+                tailOffset = headLength;
+            }
+        }
+        if (!this.headClosed && this.spillFile != null) {
+            this.startSpill();
+        }
+        this.headClosed = true;
+        if (this.spillChannel != null) {
+            this.spill(bytes, tailOffset, length);
+        }
+        this.appendToTail(bytes, tailOffset, length);
+    }
+
+    /**
+     * Encodes a part of the text as UTF-8 into lineBytes, which is reused for
+     * all lines. Unpaired surrogates are replaced by '?'.
+     *
+     * @return the number of bytes
+     */
+    private int encode(String text, int start, int end) {
+        if (this.lineBytes == null || this.lineBytes.length < (end - start) * 3) {
+            this.lineBytes = new byte[Math.max(256, (end - start) * 3)];
+        }
+        byte[] bytes = this.lineBytes;
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[length++] = '?';
+            } else {
+                bytes[length++] = (byte) (0xE0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return length;
+    }
+
+    private void startSpill() {
+        try {
+            this.spillChannel = FileChannel.open(this.spillFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.spillBuffer = ByteBufferPool.getInstance().acquire(SPILL_BUFFER_SIZE);
+            if (this.head != null) {
+                ByteBuffer headView = this.head.duplicate();
+                headView.flip();
+                this.spillBytes = headView.remaining();
+                while (headView.hasRemaining()) {
+                    this.spillChannel.write(headView);
+                }
+            }
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+            this.closeSpill(true);
+        }
+    }
+
+    private void spill(byte[] bytes, int offset, int end) {
+        if (this.spillTruncated || this.spillBytes + end - offset + 1 > this.maxSpillBytes) {
+            this.spillTruncated = true;
+            return;
+        }
+        try {
+            while (offset < end) {
+                if (!this.spillBuffer.hasRemaining()) {
+                    this.flushSpill();
+                }
+                int length = Math.min(end - offset, this.spillBuffer.remaining());
+                this.spillBuffer.put(bytes, offset, length);
+                offset += length;
+                this.spillBytes += length;
+            }
+            if (!this.spillBuffer.hasRemaining()) {
+                this.flushSpill();
+            }
+            this.spillBuffer.put(LINE_SEPARATOR);
+            this.spillBytes++;
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+            this.closeSpill(true);
+        }
+    }
+
+    private void flushSpill() throws IOException {
+        this.spillBuffer.flip();
+        while (this.spillBuffer.hasRemaining()) {
+            this.spillChannel.write(this.spillBuffer);
+        }
+        this.spillBuffer.clear();
+    }
+
+    /**
+     * Writes the rest of the spilled output to the spill file and closes it.
+     *
+     * @return true if the output has been spilled, false if it fit into the head or the file couldn't be written
+     */
+    public boolean finishSpill() {
+        if (this.spillChannel == null) {
+            return false;
+        }
+        try {
+            this.flushSpill();
+            this.closeSpill(false);
+            return true;
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+            this.closeSpill(true);
+            return false;
+        }
+    }
+
+    private void closeSpill(boolean delete) {
+        try {
+            if (this.spillChannel != null) {
+                this.spillChannel.close();
+            }
+            if (delete) {
+                Files.deleteIfExists(this.spillFile);
+            }
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+        this.spillChannel = null;
+        ByteBufferPool.getInstance().release(this.spillBuffer);
+        this.spillBuffer = null;
+    }
+
+    /**
+     * Returns the number of bytes at the beginning of the spill file which are
+     * part of the head.
+     *
+     * @return number of bytes
+     */
+    public int getHeadBytes() {
+        return this.head == null ? 0 : this.head.position();
+    }
+
+    public long getSpillBytes() {
+        return this.spillBytes;
+    }
+
+    /**
+     * Checks whether the output was larger than the maximum size of the spill file.
+     *
+     * @return true if the end of the output is missing in the spill file
+     */
+    public boolean isSpillTruncated() {
+        return this.spillTruncated;
+    }
+
+    private void appendToTail(byte[] bytes, int offset, int end) {
+        if (this.tailSize == 0) {
+            return;
+        }
+        if (this.tail == null) {
+            this.tail = ByteBufferPool.getInstance().acquire(this.tailSize);
+        }
+        for (int i = Math.max(offset, end - this.tailSize); i < end; ) {
+            if (!this.tail.hasRemaining()) {
+                this.tail.clear();
+            }
+            int length = Math.min(end - i, this.tail.remaining());
+            this.tail.put(bytes, i, length);
+            i += length;
+        }
+        if (!this.tail.hasRemaining()) {
+            this.tail.clear();
+        }
+        this.tail.put(LINE_SEPARATOR);
+        this.tailBytes += end - offset + 1;
+    }
+
+    public boolean isEmpty() {
+        return this.totalLines == 0;
+    }
+
+    public long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    public long getTotalLines() {
+        return this.totalLines;
+    }
+
+    /**
+     * Returns the captured output. If bytes have been omitted, a marker with
+     * their number and the total size of the output is inserted.
+     *
+     * @return the output, every line ends with a line separator
+     */
+    @Override
+    public String toString() {
+        byte[] headBytes = new byte[this.head == null ? 0 : this.head.position()];
+        if (this.head != null) {
+            ByteBuffer headView = this.head.duplicate();
+            headView.flip();
+            headView.get(headBytes);
+        }
+
+        byte[] tailBytes = new byte[(int) Math.min(this.tailBytes, this.tailSize)];
+        int tailStart = 0;
+        if (this.tail != null) {
+            ByteBuffer tailView = this.tail.duplicate();
+            if (this.tailBytes > this.tailSize) {
+                // the oldest bytes are behind the write position
+                int position = tailView.position();
+                tailView.limit(this.tailSize);
+                tailView.get(tailBytes, 0, this.tailSize - position);
+                tailView.clear().limit(position);
+                tailView.get(tailBytes, this.tailSize - position, position);
+                // the oldest byte can be in the middle of a UTF-8 character
+                while (tailStart < tailBytes.length && (tailBytes[tailStart] & 0xC0) == 0x80) {
+                    tailStart++;
+                }
+            } else {
+                tailView.flip();
+                tailView.get(tailBytes);
+            }
+        }
+
+        long omittedBytes = this.totalBytes - headBytes.length - (tailBytes.length - tailStart);
+        StringBuilder output = new StringBuilder(headBytes.length + tailBytes.length + 100);
+        output.append(new String(headBytes, StandardCharsets.UTF_8));
+        if (omittedBytes > 0) {
+            long tailLines = 0;
+            for (int i = tailStart; i < tailBytes.length; i++) {
+                if (tailBytes[i] == LINE_SEPARATOR) {
+                    tailLines++;
+                }
+            }
+            if (output.length() > 0 && output.charAt(output.length() - 1) != LINE_SEPARATOR) {
+                output.append('\n');
+            }
+            output.append("[... ").append(omittedBytes).append(" bytes (")
+                    .append(this.totalLines - this.headLines - tailLines).append(" lines) omitted, the output has ")
+                    .append(this.totalLines).append(" lines and ").append(this.totalBytes).append(" bytes ...]")
+                    .append('\n');
+        }
+        output.append(new String(tailBytes, tailStart, tailBytes.length - tailStart, StandardCharsets.UTF_8));
+        return output.toString();
+    }
+
+    /**
+     * Gives the buffers back to the pool. The capture is empty afterwards.
+     * A spill file which hasn't been finished is deleted.
+     */
+    public void release() {
+        if (this.spillChannel != null) {
+            this.closeSpill(true);
+        }
+        this.spillFile = null;
+        this.spillBytes = 0;
+        this.spillTruncated = false;
+        ByteBufferPool.getInstance().release(this.head);
+        ByteBufferPool.getInstance().release(this.tail);
+        this.head = null;
+        this.tail = null;
+        this.headClosed = false;
+        this.tailBytes = 0;
+        this.totalBytes = 0;
+        this.totalLines = 0;
+        this.headLines = 0;
+    }
+}
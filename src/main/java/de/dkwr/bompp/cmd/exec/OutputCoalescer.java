@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The OutputCoalescer collects streamed output lines into batches, so that
+ * not every single line has to be encrypted and sent as its own message.<br/>
+ * A batch is ready as soon as it has reached the maximum number of lines,
+ * the maximum size in bytes or when its first line is older than the maximum
+ * delay. The lines of one chunk of output can be spread over several batches,
+ * only a single line which is larger than the maximum size exceeds it.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputCoalescer {
+
+    private static final char LINE_SEPARATOR = '\n';
+    private final int maxLines;
+    private final int maxBytes;
+    private final long maxDelay;
+    private final StringBuilder batch = new StringBuilder();
+    private int lines = 0;
+    private int bytes = 0;
+    private long firstLineTime;
+
+    /**
+     * Creates a new OutputCoalescer.
+     *
+     * @param maxLines maximum number of lines of a batch
+     * @param maxBytes maximum size of a batch in bytes (UTF-8)
+     * @param maxDelay maximum time in ms a line waits before its batch is sent
+     */
+    public OutputCoalescer(int maxLines, int maxBytes, long maxDelay) {
+        this.maxLines = Math.max(1, maxLines);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxDelay = Math.max(0, maxDelay);
+    }
+
+    /**
+     * Adds one or more lines. The batches which are ready are returned, the
+     * rest of the lines stays in the current batch.
+     *
+     * @param text the lines separated by line breaks, without trailing line separator
+     * @return the batches which should be sent, in their order
+     */
+    public List<String> add(String text) {
+        List<String> batches = Collections.emptyList();
+        int start = 0;
+        while (true) {
+            int end = text.indexOf(LINE_SEPARATOR, start);
+            if (end == -1) {
+                end = text.length();
+            }
+            int length = utf8Length(text, start, end);
+            if (this.lines > 0 && this.bytes + 1 + length > this.maxBytes) {
+                // the line doesn't fit into the current batch anymore
+                batches = addBatch(batches, this.flush());
+            }
+            this.addLine(text, start, end, length);
+            if (this.lines >= this.maxLines || this.bytes >= this.maxBytes) {
+                batches = addBatch(batches, this.flush());
+            }
+            if (end == text.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        if (this.hasPending() && this.getRemainingDelay() == 0) {
+            batches = addBatch(batches, this.flush());
+        }
+        return batches;
+    }
+
+    private void addLine(String text, int start, int end, int length) {
+        if (this.lines == 0) {
+            this.firstLineTime = System.currentTimeMillis();
+        } else {
+            this.batch.append(LINE_SEPARATOR);
+            this.bytes++;
+        }
+        this.batch.append(text, start, end);
+        this.bytes += length;
+        this.lines++;
+    }
+
+    private static List<String> addBatch(List<String> batches, String batch) {
+        List<String> result = batches.isEmpty() ? new ArrayList<>() : batches;
+        result.add(batch);
+        return result;
+    }
+
+    /**
+     * Checks whether there are lines which haven't been flushed yet.
+     *
+     * @return true if the batch isn't empty
+     */
+    public boolean hasPending() {
+        return this.lines > 0;
+    }
+
+    /**
+     * Returns how long the current batch may still wait before it has to be flushed.
+     *
+     * @return remaining time in ms, 0 if the batch has to be flushed now
+     */
+    public long getRemainingDelay() {
+        long age = System.currentTimeMillis() - this.firstLineTime;
+        return Math.max(0, this.maxDelay - age);
+    }
+
+    /**
+     * Returns the current batch and starts a new one.
+     *
+     * @return all lines of the batch separated by line breaks
+     */
+    public String flush() {
+        String out = this.batch.toString();
+        this.batch.setLength(0);
+        this.lines = 0;
+        this.bytes = 0;
+        return out;
+    }
+
+    private static int utf8Length(String str, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                length += 2; // a surrogate pair is encoded with 4 bytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
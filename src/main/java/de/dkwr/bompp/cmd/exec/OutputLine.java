@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+/**
+ * One or more lines of output of a script, tagged with the stream they were
+ * read from. The lines are separated by line breaks.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputLine {
+
+    /**
+     * The output streams of a script.
+     */
+    public enum Stream {
+        STDOUT, STDERR
+    }
+
+    private final Stream stream;
+    private final String text;
+
+    /**
+     * Creates a new output line.
+     *
+     * @param stream the stream the line was read from
+     * @param text the lines without trailing line separator or null to mark the end of the stream
+     */
+    public OutputLine(Stream stream, String text) {
+        this.stream = stream;
+        this.text = text;
+    }
+
+    /**
+     * Creates the marker which signals that a stream has no more lines.
+     *
+     * @param stream the stream which has been closed
+     * @return an OutputLine without text
+     */
+    public static OutputLine endOfStream(Stream stream) {
+        return new OutputLine(stream, null);
+    }
+
+    public Stream getStream() {
+        return this.stream;
+    }
+
+    public String getText() {
+        return this.text;
+    }
+
+    public boolean isEndOfStream() {
+        return this.text == null;
+    }
+
+    public boolean isStderr() {
+        return this.stream == Stream.STDERR;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The OutputMultiplexer reads the output of all running scripts with a fixed
+ * number of reader threads, instead of two {@link StreamPump}s per script.
+ * <br/>A reader polls the stdout and stderr pipes of its processes and reads
+ * only the bytes which are available, so it never blocks on one script. The
+ * pipes of a script whose output queue is full aren't read until there is
+ * space again, so the script blocks as it does with a StreamPump. When a round
+ * hasn't found any output, the reader waits before the next round, at most
+ * MAX_IDLE_DELAY ms.<br/>
+ * The readers are started with {@link #start(int)}, if the config file sets
+ * output_readers. OutputMultiplexer is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputMultiplexer {
+
+    private static final OutputMultiplexer INSTANCE = new OutputMultiplexer();
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final long MIN_IDLE_DELAY = 5;
+    private static final long MAX_IDLE_DELAY = 100;
+    private final List<Reader> readers = new ArrayList<>();
+    private volatile boolean started = false;
+
+    /**
+     * The output streams of one process, which are read by the same reader.
+     */
+    public static class Registration {
+
+        private final Process process;
+        private final BlockingQueue<OutputLine> queue;
+        private final Source[] sources;
+        private volatile boolean cancelled = false;
+
+        private Registration(Process process, BlockingQueue<OutputLine> queue, Charset charset) {
+            this.process = process;
+            this.queue = queue;
+            this.sources = new Source[]{
+                new Source(process.getInputStream(), OutputLine.Stream.STDOUT, charset),
+                new Source(process.getErrorStream(), OutputLine.Stream.STDERR, charset)
+            };
+        }
+
+        public long getStdoutBytes() {
+            return this.sources[0].byteCount;
+        }
+
+        public long getStderrBytes() {
+            return this.sources[1].byteCount;
+        }
+
+        /**
+         * Stops reading the output. No end of stream markers are put into the
+         * queue afterwards.
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        private boolean isDone() {
+            return this.cancelled || (this.sources[0].finished && this.sources[1].finished);
+        }
+
+        /**
+         * Reads the available output of both streams. There is only one reader
+         * per queue, so the queue has enough space for the lines of one read
+         * and the end of stream marker if it is checked before.
+         *
+         * @return true if output has been read or a stream has ended
+         */
+        private boolean poll(ByteBuffer in, CharBuffer out, StringBuilder lines) throws InterruptedException {
+            boolean progress = false;
+            for (Source source : this.sources) {
+                if (source.finished || this.cancelled || this.queue.remainingCapacity() < 2) {
+                    continue;
+                }
+                try {
+                    progress |= this.poll(source, in, out, lines);
+                } catch (IOException ex) {
+                    BotLogger.getInstance().logException(ex);
+                    this.endOfStream(source);
+                    progress = true;
+                }
+            }
+            return progress;
+        }
+
+        private boolean poll(Source source, ByteBuffer in, CharBuffer out, StringBuilder lines) throws IOException, InterruptedException {
+            // the exit of the process is checked before available(), so the output
+            // it has written before its exit is counted as available or read below
+            boolean exited = !this.process.isAlive();
+            int available = source.inputStream.available();
+            if (available == 0 && !exited) {
+                return false;
+            }
+            in.clear();
+            if (source.leftover != null) {
+                in.put(source.leftover);
+                source.leftover = null;
+            }
+            // after the exit the pipe is read until its end, even if available() returns 0
+            int n = source.inputStream.read(in.array(), in.position(), available > 0 ? Math.min(available, in.remaining()) : in.remaining());
+            boolean end = n < 0;
+            if (!end) {
+                in.position(in.position() + n);
+                source.byteCount += n;
+            }
+            in.flip();
+            source.lineDecoder.decode(in, out, lines, end);
+            if (in.hasRemaining()) {
+                // an incomplete character, it is decoded with the next bytes
+                source.leftover = new byte[in.remaining()];
+                in.get(source.leftover);
+            }
+            OutputLine line = LineDecoder.takeLines(source.stream, lines);
+            if (line != null) {
+                this.queue.put(line);
+            }
+            if (end) {
+                this.endOfStream(source);
+            }
+            return true;
+        }
+
+        private void endOfStream(Source source) throws InterruptedException {
+            source.finished = true;
+            try {
+                source.inputStream.close();
+            } catch (IOException ex) {
+                BotLogger.getInstance().logException(ex);
+            }
+            this.queue.put(OutputLine.endOfStream(source.stream));
+        }
+    }
+
+    /**
+     * One output stream of a process.
+     */
+    private static class Source {
+
+        private final InputStream inputStream;
+        private final OutputLine.Stream stream;
+        private final LineDecoder lineDecoder;
+        private volatile long byteCount = 0; // only written by the reader
+        private byte[] leftover = null; // bytes of an incomplete character
+        private boolean finished = false;
+
+        private Source(InputStream inputStream, OutputLine.Stream stream, Charset charset) {
+            this.inputStream = inputStream;
+            this.stream = stream;
+            this.lineDecoder = new LineDecoder(charset);
+        }
+    }
+
+    /**
+     * A reader thread, it reads the output of its registrations in rounds.
+     */
+    private static class Reader implements Runnable {
+
+        private final Queue<Registration> registrations = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private Reader(String name) {
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        private void add(Registration registration) {
+            this.size.incrementAndGet();
+            this.registrations.add(registration);
+            LockSupport.unpark(this.thread);
+        }
+
+        private void stop() {
+            this.running = false;
+            this.thread.interrupt();
+        }
+
+        @Override
+        public void run() {
+            // the buffers are shared by all registrations of this reader
+            ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            CharBuffer out = CharBuffer.allocate(READ_BUFFER_SIZE);
+            StringBuilder lines = new StringBuilder();
+            long idleDelay = MIN_IDLE_DELAY;
+            try {
+                while (this.running) {
+                    boolean progress = false;
+                    for (Iterator<Registration> it = this.registrations.iterator(); it.hasNext();) {
+                        Registration registration = it.next();
+                        progress |= registration.poll(in, out, lines);
+                        if (registration.isDone()) {
+                            it.remove();
+                            this.size.decrementAndGet();
+                        }
+                    }
+                    if (progress) {
+                        idleDelay = MIN_IDLE_DELAY;
+                    } else if (this.registrations.isEmpty()) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(idleDelay));
+                        idleDelay = Math.min(idleDelay * 2, MAX_IDLE_DELAY);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private OutputMultiplexer() {
+    }
+
+    public static OutputMultiplexer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the reader threads. Afterwards the output of new processes is
+     * read by them.
+     *
+     * @param readerCount the number of reader threads
+     */
+    public synchronized void start(int readerCount) {
+        if (this.started || readerCount <= 0) {
+            return;
+        }
+        for (int i = 0; i < readerCount; i++) {
+            Reader reader = new Reader("output reader " + (i + 1));
+            this.readers.add(reader);
+            reader.thread.start();
+        }
+        this.started = true;
+    }
+
+    /**
+     * Checks whether the output of processes is read by the reader threads.
+     *
+     * @return true if the readers have been started
+     */
+    public boolean isStarted() {
+        return this.started;
+    }
+
+    /**
+     * Reads the output of a process with the reader which has the fewest
+     * processes. The lines are put into the queue, followed by an end of
+     * stream marker for stdout and for stderr.
+     *
+     * @param process the process
+     * @param queue the queue for the output lines, it must not get lines from anywhere else
+     * @param charset the encoding of the output
+     * @return the registration
+     */
+    public synchronized Registration register(Process process, BlockingQueue<OutputLine> queue, Charset charset) {
+        if (!this.started) {
+            throw new IllegalStateException("The OutputMultiplexer hasn't been started.");
+        }
+        Reader reader = this.readers.get(0);
+        for (Reader candidate : this.readers) {
+            if (candidate.size.get() < reader.size.get()) {
+                reader = candidate;
+            }
+        }
+        Registration registration = new Registration(process, queue, charset);
+        reader.add(registration);
+        return registration;
+    }
+
+    /**
+     * Returns the number of processes whose output is read.
+     *
+     * @return number of processes
+     */
+    public synchronized int getSize() {
+        return this.readers.stream().mapToInt(reader -> reader.size.get()).sum();
+    }
+
+    /**
+     * Stops the reader threads.
+     */
+    public synchronized void shutdown() {
+        this.readers.forEach(Reader::stop);
+        this.readers.clear();
+        this.started = false;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.cmd.schedule.ScheduleManager;
+import de.dkwr.bompp.cmd.schedule.TimingWheel;
+import de.dkwr.bompp.util.BotConfiguration;
+import de.dkwr.bompp.util.BotLogger;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The OutputStore keeps the outputs which were too large for one message in
+ * files in the output folder of the store. The clients of a job can read such
+ * an output page by page with "more &lt;job id&gt;", every client has its own
+ * position. The pages are read from memory-mapped regions of the file, so the
+ * output isn't loaded into the heap.<br/>
+ * The files are deleted after the spill TTL. OutputStore is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputStore {
+
+    private static final OutputStore INSTANCE = new OutputStore();
+    private static final String OUTPUT_DIR = "output";
+    private static final long MAX_SPILL_SIZE = 64L * 1024 * 1024;
+    private static final int MIN_PAGE_SIZE = 1024;
+    private static final String CLI_KEY = ""; // position of the bot CLI
+    private final Map<Integer, StoredOutput> outputs = new ConcurrentHashMap<>();
+
+    private static class StoredOutput {
+
+        private final Path file;
+        private final long start; // bytes at the beginning which have already been sent
+        private final long size;
+        private final int pageSize;
+        private final boolean truncated;
+        private final Set<String> clientJIDs = new HashSet<>();
+        private final Map<String, Long> positions = new HashMap<>(); // guarded by this
+        private TimingWheel.Timeout expiry;
+
+        private StoredOutput(Path file, long start, long size, int pageSize, boolean truncated) {
+            this.file = file;
+            this.start = start;
+            this.size = size;
+            this.pageSize = pageSize;
+            this.truncated = truncated;
+        }
+    }
+
+    private OutputStore() {
+    }
+
+    public static OutputStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the file to which the output of a job is spilled.
+     *
+     * @param jobId the ID of the job
+     * @return the file or null if it can't be created
+     */
+    public Path getSpillFile(int jobId) {
+        try {
+            Path dir = this.getOutputDir();
+            Files.createDirectories(dir);
+            return dir.resolve("job-" + jobId + "-" + System.currentTimeMillis() + ".out");
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+            return null;
+        }
+    }
+
+    public long getMaxSpillSize() {
+        return MAX_SPILL_SIZE;
+    }
+
+    /**
+     * Adds a spilled output. It is deleted after the spill TTL.
+     *
+     * @param jobId the ID of the job
+     * @param file the spill file
+     * @param start the number of bytes which have already been sent to the clients
+     * @param size the size of the file
+     * @param pageSize the maximum number of bytes of a page
+     * @param truncated true if the end of the output is missing in the file
+     * @param clientJIDs the clients which may read the output
+     */
+    public void add(int jobId, Path file, long start, long size, int pageSize, boolean truncated, List<String> clientJIDs) {
+        StoredOutput output = new StoredOutput(file, start, size, Math.max(MIN_PAGE_SIZE, pageSize), truncated);
+        clientJIDs.forEach(jid -> output.clientJIDs.add(jid.toLowerCase()));
+        output.expiry = ScheduleManager.getInstance().getTimingWheel().schedule(() -> this.remove(jobId), BotConfiguration.getInstance().getSpillTtl());
+        StoredOutput oldOutput = this.outputs.put(jobId, output);
+        if (oldOutput != null) {
+            this.delete(oldOutput);
+        }
+    }
+
+    /**
+     * Returns the next page of a stored output. Pages end at a line break if
+     * the page contains one.
+     *
+     * @param jobId the ID of the job
+     * @param clientJID the JID of the client or null for the bot CLI
+     * @return the page or null if there is no output of this job for the client
+     */
+    public String more(int jobId, String clientJID) {
+        StoredOutput output = this.outputs.get(jobId);
+        if (output == null || !this.mayRead(output, clientJID)) {
+            return null;
+        }
+        String key = clientJID == null ? CLI_KEY : clientJID.toLowerCase();
+        synchronized (output) {
+            long position = output.positions.getOrDefault(key, output.start);
+            if (position >= output.size) {
+                return "There is no more output of job #" + jobId + (output.truncated ? ", the rest of it was too large to store." : ".");
+            }
+            int length = (int) Math.min(output.pageSize, output.size - position);
+            byte[] page;
+            try (FileChannel channel = FileChannel.open(output.file, StandardOpenOption.READ)) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (position + length < output.size) {
+                    length = this.getPageEnd(region, length);
+                }
+                page = new byte[length];
+                region.get(page);
+            } catch (IOException ex) {
+                BotLogger.getInstance().logException(ex);
+                return "The output of job #" + jobId + " can't be read.";
+            }
+            output.positions.put(key, position + length);
+            boolean hasMore = position + length < output.size;
+            return "Output of job #" + jobId + ", bytes " + position + " to " + (position + length) + " of " + output.size + ":\n"
+                    + new String(page, StandardCharsets.UTF_8)
+                    + (hasMore ? "\nSend \"more " + jobId + "\" for the next part." : "\nEnd of the output of job #" + jobId + ".");
+        }
+    }
+
+    /**
+     * Returns the length of a page, so that it ends after the last line break
+     * or at least not within a UTF-8 character.
+     */
+    private int getPageEnd(MappedByteBuffer region, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (region.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        int lead = length - 1;
+        while (lead > 0 && (region.get(lead) & 0xC0) == 0x80) {
+            lead--;
+        }
+        int leadByte = region.get(lead) & 0xFF;
+        int charLength = leadByte < 0x80 ? 1 : leadByte >= 0xF0 ? 4 : leadByte >= 0xE0 ? 3 : 2;
+        return lead + charLength <= length ? length : Math.max(lead, 1);
+    }
+
+    private boolean mayRead(StoredOutput output, String clientJID) {
+        if (clientJID == null) {
+            return true;
+        }
+        String adminJID = BotConfiguration.getInstance().getAdminJID();
+        return output.clientJIDs.contains(clientJID.toLowerCase()) || (adminJID != null && adminJID.equalsIgnoreCase(clientJID));
+    }
+
+    private void remove(int jobId) {
+        StoredOutput output = this.outputs.remove(jobId);
+        if (output != null) {
+            this.delete(output);
+        }
+    }
+
+    private void delete(StoredOutput output) {
+        if (output.expiry != null) {
+            output.expiry.cancel();
+        }
+        try {
+            Files.deleteIfExists(output.file);
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+
+    /**
+     * Deletes all stored outputs, including the files which are left from a
+     * previous run of the bot.
+     */
+    public void clear() {
+        this.outputs.keySet().forEach(this::remove);
+        Path dir = this.getOutputDir();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "job-*.out")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+
+    private Path getOutputDir() {
+        return Paths.get(BotConfiguration.getInstance().getStorePath(), OUTPUT_DIR);
+    }
+
+}
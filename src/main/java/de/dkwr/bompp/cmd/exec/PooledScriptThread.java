@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import de.dkwr.bompp.util.BotLogger;
+import de.dkwr.bompp.util.Command;
+import de.dkwr.bompp.xmpp.OmemoController;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The PooledScriptThread runs a script in a pre-started interpreter of a
+ * {@link WorkerPool} instead of starting a new process.<br/>
+ * The output frames of the worker are read in a separate Thread and decoded
+ * into lines by a {@link LineDecoder}, like the output of a process.
+ *
+ * @author Dennis Kawurek
+ */
+public class PooledScriptThread extends AbstractScriptThread {
+
+    private static final long BORROW_TIMEOUT = 60000;
+    private final WorkerPool workerPool;
+    private final AtomicLong stdoutBytes = new AtomicLong();
+    private final AtomicLong stderrBytes = new AtomicLong();
+    private volatile Worker worker;
+    private Thread readerThread;
+    private volatile int exitCode = -1;
+    private volatile Exception failure;
+
+    public PooledScriptThread(Command command, String clientJID, boolean showOutPutStream, OmemoController omemoController, WorkerPool workerPool) {
+        super(command, clientJID, showOutPutStream, omemoController);
+        this.workerPool = workerPool;
+    }
+
+    @Override
+    protected void startExecution(BlockingQueue<OutputLine> outputQueue) throws Exception {
+        this.worker = this.workerPool.borrow(BORROW_TIMEOUT);
+        if (this.worker == null) {
+            throw new IOException("No worker for " + this.workerPool.getExecType() + " available.");
+        }
+        Worker currentWorker = this.worker;
+        String scriptPath = this.getCommand().getScriptPath();
+
+        Charset charset = this.getCommand().getEncoding();
+
+        this.readerThread = ThreadBackend.getInstance().newThread(() -> {
+            FrameDecoder stdoutDecoder = new FrameDecoder(OutputLine.Stream.STDOUT, charset, outputQueue);
+            FrameDecoder stderrDecoder = new FrameDecoder(OutputLine.Stream.STDERR, charset, outputQueue);
+            try {
+                try {
+                    this.exitCode = currentWorker.run(scriptPath, (stream, data) -> {
+                        if (stream == OutputLine.Stream.STDOUT) {
+                            this.stdoutBytes.addAndGet(data.length);
+                            stdoutDecoder.decode(data);
+                        } else {
+                            this.stderrBytes.addAndGet(data.length);
+                            stderrDecoder.decode(data);
+                        }
+                    });
+                } catch (IOException ex) {
+                    this.failure = ex;
+                }
+                stdoutDecoder.finish();
+                stderrDecoder.finish();
+                outputQueue.put(OutputLine.endOfStream(OutputLine.Stream.STDOUT));
+                outputQueue.put(OutputLine.endOfStream(OutputLine.Stream.STDERR));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "worker " + this.workerPool.getExecType());
+        this.readerThread.start();
+    }
+
+    @Override
+    protected int waitForExitCode() throws Exception {
+        this.readerThread.join();
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        return this.exitCode;
+    }
+
+    @Override
+    protected void killExecution() {
+        // the worker is replaced, the reader thread gets the end of its output
+        Worker currentWorker = this.worker;
+        if (currentWorker != null) {
+            currentWorker.terminate(BotConfiguration.getInstance().getKillGracePeriod());
+        }
+    }
+
+    @Override
+    protected void stopExecution() {
+        // a script can't be stopped inside of the interpreter, so the worker is replaced
+        Worker currentWorker = this.worker;
+        if (currentWorker != null) {
+            currentWorker.destroy();
+        }
+        if (this.readerThread != null) {
+            this.readerThread.interrupt();
+        }
+    }
+
+    @Override
+    protected void finishExecution() {
+        Worker currentWorker = this.worker;
+        if (currentWorker != null) {
+            this.worker = null;
+            try {
+                this.workerPool.release(currentWorker);
+            } catch (Exception ex) {
+                BotLogger.getInstance().logException(ex);
+            }
+        }
+    }
+
+    @Override
+    public long getStdoutBytes() {
+        return this.stdoutBytes.get();
+    }
+
+    @Override
+    public long getStderrBytes() {
+        return this.stderrBytes.get();
+    }
+
+    /**
+     * Decodes the output frames of one stream of the worker. All complete
+     * lines of a buffer are put into the queue as one {@link OutputLine}.
+     */
+    private static class FrameDecoder {
+
+        private static final int BUFFER_SIZE = 8192;
+        private final OutputLine.Stream stream;
+        private final BlockingQueue<OutputLine> outputQueue;
+        private final LineDecoder lineDecoder;
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharBuffer out = CharBuffer.allocate(BUFFER_SIZE);
+        private final StringBuilder lines = new StringBuilder();
+
+        private FrameDecoder(OutputLine.Stream stream, Charset charset, BlockingQueue<OutputLine> outputQueue) {
+            this.stream = stream;
+            this.outputQueue = outputQueue;
+            this.lineDecoder = new LineDecoder(charset);
+        }
+
+        private void decode(byte[] data) throws InterruptedException {
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, this.in.remaining());
+                this.in.put(data, offset, length);
+                offset += length;
+                this.in.flip();
+                this.lineDecoder.decode(this.in, this.out, this.lines, false);
+                this.in.compact(); // the bytes of an incomplete character stay in the buffer
+                this.putLines();
+            }
+        }
+
+        /**
+         * Decodes the rest of the stream, a last line without line break as well.
+         */
+        private void finish() throws InterruptedException {
+            this.in.flip();
+            this.lineDecoder.decode(this.in, this.out, this.lines, true);
+            this.in.clear();
+            this.putLines();
+        }
+
+        private void putLines() throws InterruptedException {
+            OutputLine line = LineDecoder.takeLines(this.stream, this.lines);
+            if (line != null) {
+                this.outputQueue.put(line);
+            }
+        }
+    }
+}
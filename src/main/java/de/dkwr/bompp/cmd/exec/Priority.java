@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+/**
+ * Priority of a job in the {@link JobQueue}. Jobs with a higher priority are
+ * executed first.
+ *
+ * @author Dennis Kawurek
+ */
+public enum Priority {
+    HIGH,
+    NORMAL,
+    LOW;
+
+    /**
+     * Returns the higher one of two priorities.
+     * @param other the other priority
+     * @return this or the other priority
+     */
+    public Priority max(Priority other) {
+        return other.ordinal() < this.ordinal() ? other : this;
+    }
+}
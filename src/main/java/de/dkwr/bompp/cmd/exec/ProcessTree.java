@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class provides static methods to find and terminate a process together
+ * with all of its child processes.<br/>
+ * The process tree is read from /proc, so this only works on Linux. On other
+ * systems only the process itself is terminated.
+ *
+ * @author Dennis Kawurek
+ */
+public class ProcessTree {
+
+    private static final File PROC_DIR = new File("/proc");
+    private static final ScheduledExecutorService KILL_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "process killer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ProcessTree() {
+    }
+
+    /**
+     * Terminates a process and all of its descendants. First SIGTERM is sent,
+     * the processes which are still alive after the grace period get SIGKILL.
+     * The method returns immediately, SIGKILL is sent in the background.<br/>
+     * The start times of the processes are compared before SIGKILL, so a
+     * process which got the PID of a terminated one isn't killed.
+     *
+     * @param process the root of the process tree
+     * @param gracePeriod time in ms the processes get to terminate
+     */
+    public static void terminate(Process process, long gracePeriod) {
+        long pid = getPid(process);
+        List<Long> tree = pid > 0 ? getTree(pid) : new ArrayList<>();
+        Map<Long, Long> startTimes = new HashMap<>();
+        tree.forEach(treePid -> startTimes.put(treePid, getStartTime(treePid)));
+        if (tree.isEmpty()) {
+            process.destroy();
+        } else {
+            signal(tree, "TERM");
+        }
+        KILL_SCHEDULER.schedule(() -> {
+            if (!tree.isEmpty()) {
+                // children which have been started in the meantime are killed as well
+                Set<Long> remaining = new LinkedHashSet<>();
+                for (Long treePid : tree) {
+                    long startTime = startTimes.get(treePid);
+                    if (startTime >= 0 && getStartTime(treePid) == startTime) {
+                        remaining.addAll(getTree(treePid));
+                    }
+                }
+                if (!remaining.isEmpty()) {
+                    signal(new ArrayList<>(remaining), "KILL");
+                }
+            }
+            process.destroyForcibly();
+        }, gracePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the PID of a process.
+     *
+     * @param process the process
+     * @return the PID or -1 if it can't be determined
+     */
+    public static long getPid(Process process) {
+        try {
+            Method pidMethod = Process.class.getMethod("pid"); // Java 9 and later
+            return (Long) pidMethod.invoke(process);
+        } catch (ReflectiveOperationException ex) {
+            // Java 8 stores the pid in a private field of UNIXProcess
+        }
+        try {
+            Field pidField = process.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            return pidField.getLong(process);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns a process and all of its descendants.
+     *
+     * @param pid the PID of the root process
+     * @return list of PIDs, starting with the root, empty if the process doesn't exist or /proc isn't available
+     */
+    public static List<Long> getTree(long pid) {
+        if (!isAlive(pid)) {
+            return new ArrayList<>();
+        }
+        return getTree(pid, readChildren());
+    }
+
+    /**
+     * Returns a process and all of its descendants.
+     *
+     * @param pid the PID of the root process
+     * @param children the children of all processes, see {@link #readChildren()}
+     * @return list of PIDs, starting with the root
+     */
+    static List<Long> getTree(long pid, Map<Long, List<Long>> children) {
+        List<Long> tree = new ArrayList<>();
+        tree.add(pid);
+        for (int i = 0; i < tree.size(); i++) {
+            List<Long> childPids = children.get(tree.get(i));
+            if (childPids != null) {
+                tree.addAll(childPids);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Checks if a process exists.
+     *
+     * @param pid the PID
+     * @return true if there is an entry for the process in /proc
+     */
+    public static boolean isAlive(long pid) {
+        return new File(PROC_DIR, Long.toString(pid)).isDirectory();
+    }
+
+    /**
+     * Reads the child processes of all processes from /proc.
+     *
+     * @return map of PIDs to the PIDs of their children
+     */
+    static Map<Long, List<Long>> readChildren() {
+        Map<Long, List<Long>> children = new HashMap<>();
+        File[] entries = PROC_DIR.listFiles();
+        if (entries == null) {
+            return children;
+        }
+        for (File entry : entries) {
+            if (!entry.getName().matches("\\d+")) {
+                continue;
+            }
+            long parentPid = readParentPid(entry);
+            if (parentPid > 0) {
+                children.computeIfAbsent(parentPid, k -> new ArrayList<>()).add(Long.parseLong(entry.getName()));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Returns the start time of a process. A PID can be reused after the
+     * process has terminated, but not with the same start time.
+     *
+     * @param pid the PID
+     * @return the start time in clock ticks after the boot or -1 if the process doesn't exist
+     */
+    static long getStartTime(long pid) {
+        return readStatField(new File(PROC_DIR, Long.toString(pid)), 22);
+    }
+
+    private static long readParentPid(File procEntry) {
+        return readStatField(procEntry, 4);
+    }
+
+    /**
+     * Reads a numeric field of /proc/[pid]/stat.
+     *
+     * @param procEntry the directory of the process in /proc
+     * @param field the number of the field, as in proc(5)
+     * @return the value or -1 if the process doesn't exist
+     */
+    private static long readStatField(File procEntry, int field) {
+        try {
+            String stat = new String(Files.readAllBytes(new File(procEntry, "stat").toPath()), StandardCharsets.US_ASCII);
+            // the name of the executable may contain spaces, so the fields are counted after its closing bracket, which ends field 2
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[field - 3]);
+        } catch (IOException | RuntimeException ex) {
+            return -1; // the process has terminated in the meantime
+        }
+    }
+
+    private static void signal(List<Long> pids, String signal) {
+        List<String> killCmd = new ArrayList<>();
+        killCmd.add("kill");
+        killCmd.add("-" + signal);
+        pids.forEach(pid -> killCmd.add(Long.toString(pid)));
+        try {
+            new ProcessBuilder(killCmd)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(new File("/dev/null")))
+                    .start()
+                    .waitFor();
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
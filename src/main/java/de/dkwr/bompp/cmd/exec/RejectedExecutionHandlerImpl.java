@@ -18,24 +18,96 @@
 package de.dkwr.bompp.cmd.exec;
 
 import de.dkwr.bompp.util.BotLogger;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This is the standard handler when an execution fails.<br/>
- * It puts the rejected Thread into the queue and lets it wait for a place in the executor.
+ * This is the handler which is called when the queue of the executor is full.<br/>
+ * What happens with the new task depends on the {@link RejectionPolicy}.
+ * If the task can't be added a {@link RejectedExecutionException} is thrown.
  * @author Dennis Kawurek
  */
 public class RejectedExecutionHandlerImpl implements RejectedExecutionHandler {
 
+    private final RejectionPolicy policy;
+    private final long blockTimeout;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Creates a new handler.
+     * @param policy the policy for full queues
+     * @param blockTimeout time in ms a client waits for a free place if the policy is {@link RejectionPolicy#BLOCK}
+     */
+    public RejectedExecutionHandlerImpl(RejectionPolicy policy, long blockTimeout) {
+        this.policy = policy;
+        this.blockTimeout = blockTimeout;
+    }
+
     @Override
     public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-        try {
-            executor.getQueue().put(r);
-        } catch (InterruptedException ex) {
-            BotLogger.getInstance().logException(ex);
+        if (!executor.isShutdown()) {
+            switch (this.policy) {
+                case BLOCK:
+                    try {
+                        if (executor.getQueue().offer(r, this.blockTimeout, TimeUnit.MILLISECONDS)) {
+                            return;
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    break;
+                case DROP_OLDEST:
+                    // other clients may take the free place, so this is repeated until the task is queued
+                    BlockingQueue<Runnable> queue = executor.getQueue();
+                    Runnable oldest = null;
+                    do {
+                        if (oldest != null) {
+                            this.droppedCount.incrementAndGet();
+                            this.notifyDropped(oldest);
+                        }
+                        if (queue.offer(r)) {
+                            return;
+                        }
+                        oldest = queue instanceof JobQueue ? ((JobQueue) queue).pollOldest() : queue.poll();
+                    } while (oldest != null);
+                    break;
+                default:
+                    break;
+            }
         }
-   
+        this.rejectedCount.incrementAndGet();
+        throw new RejectedExecutionException("The command queue is full.");
+    }
+
+    /**
+     * Returns the number of tasks which have been rejected.
+     * @return number of rejected tasks
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
     }
 
-}
\ No newline at end of file
+    /**
+     * Returns the number of waiting tasks which have been removed from the queue for newer ones.
+     * @return number of dropped tasks
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    private void notifyDropped(Runnable r) {
+        if (!(r instanceof Job)) {
+            return;
+        }
+        Job job = (Job) r;
+        job.cancel(false);
+        BotLogger.getInstance().logMsg("Dropped " + job.getCommandName() + " from the full command queue.");
+        job.getScriptThread().notifyNotStarted("The command " + job.getCommandName()
+                + " has been removed from the queue because it is full. Please try it again later.");
+    }
+}
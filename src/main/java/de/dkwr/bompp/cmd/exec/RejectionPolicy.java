@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+/**
+ * Defines what the {@link CommandQueue} does with a new command when its
+ * queue is full.
+ *
+ * @author Dennis Kawurek
+ */
+public enum RejectionPolicy {
+    REJECT, // the command is rejected and the client gets an answer
+    BLOCK, // the client waits a short time for a free place in the queue before the command is rejected
+    DROP_OLDEST // the oldest waiting command with the lowest priority is removed from the queue to make place for the new one
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ResourceMonitor samples the resources which the process trees of the
+ * executions use from /proc, so this only works on Linux.<br/>
+ * Every SAMPLE_INTERVAL ms the CPU time (utime, stime, cutime and cstime),
+ * the peak resident memory (VmHWM) and the number of bytes read and written
+ * (rchar and wchar, including pipes and the page cache) of the processes of
+ * a tree are summed up. The CPU time and the bytes of terminated children are
+ * included in the values of their parent, after it has waited for them.
+ * As the values are sampled, the last interval before the exit of the tree is
+ * missing. For trees of several processes the peak memory is an upper bound,
+ * as the processes needn't reach their peaks at the same time.
+ * <br/>All samplers share one thread, which reads the process list once per
+ * round. ResourceMonitor is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class ResourceMonitor {
+
+    private static final ResourceMonitor INSTANCE = new ResourceMonitor();
+    private static final long SAMPLE_INTERVAL = 500;
+    private static final long CLOCK_TICKS_PER_SECOND = 100; // USER_HZ, the unit of the times in /proc/<pid>/stat
+    private static final File PROC_DIR = new File("/proc");
+    private final Set<Sampler> samplers = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * Samples the resources of one process tree.
+     */
+    public static class Sampler {
+
+        private final long pid;
+        private long cpuTime = 0;
+        private long peakRss = 0;
+        private long readBytes = 0;
+        private long writeBytes = 0;
+        private boolean finished = false;
+
+        private Sampler(long pid) {
+            this.pid = pid;
+        }
+
+        /**
+         * Returns the resources which have been used so far.
+         *
+         * @return the usage
+         */
+        public synchronized ResourceUsage getUsage() {
+            return new ResourceUsage(this.cpuTime, this.peakRss, this.readBytes, this.writeBytes);
+        }
+
+        /**
+         * Takes a last sample and stops sampling.
+         *
+         * @return the resources which have been used
+         */
+        public ResourceUsage finish() {
+            if (PROC_DIR.isDirectory()) {
+                this.sample(ProcessTree.readChildren());
+            }
+            synchronized (this) {
+                this.finished = true;
+            }
+            INSTANCE.samplers.remove(this);
+            return this.getUsage();
+        }
+
+        private synchronized void sample(Map<Long, List<Long>> children) {
+            if (this.finished || !ProcessTree.isAlive(this.pid)) {
+                return;
+            }
+            long treeCpuTime = 0;
+            long treeRss = 0;
+            long treeReadBytes = 0;
+            long treeWriteBytes = 0;
+            for (Long treePid : ProcessTree.getTree(this.pid, children)) {
+                File procEntry = new File(PROC_DIR, Long.toString(treePid));
+                long processCpuTime = readCpuTime(procEntry);
+                if (processCpuTime < 0) {
+                    continue; // the process has terminated in the meantime
+                }
+                treeCpuTime += processCpuTime;
+                treeRss += readPeakRss(procEntry);
+                long[] processIo = readIo(procEntry);
+                treeReadBytes += processIo[0];
+                treeWriteBytes += processIo[1];
+            }
+            // the sums drop when a process leaves the tree, e.g. an orphan which is adopted by init
+            this.cpuTime = Math.max(this.cpuTime, treeCpuTime * 1000 / CLOCK_TICKS_PER_SECOND);
+            this.peakRss = Math.max(this.peakRss, treeRss);
+            this.readBytes = Math.max(this.readBytes, treeReadBytes);
+            this.writeBytes = Math.max(this.writeBytes, treeWriteBytes);
+        }
+    }
+
+    private ResourceMonitor() {
+    }
+
+    public static ResourceMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts sampling a process and its descendants.
+     *
+     * @param pid the PID of the process
+     * @return the sampler or null if the PID is unknown or /proc isn't available
+     */
+    public Sampler register(long pid) {
+        if (pid <= 0 || !PROC_DIR.isDirectory()) {
+            return null;
+        }
+        Sampler sampler = new Sampler(pid);
+        this.samplers.add(sampler);
+        this.startScheduler();
+        return sampler;
+    }
+
+    private synchronized void startScheduler() {
+        if (this.scheduler != null) {
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resource monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::sampleAll, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void sampleAll() {
+        if (this.samplers.isEmpty()) {
+            return;
+        }
+        try {
+            Map<Long, List<Long>> children = ProcessTree.readChildren();
+            this.samplers.forEach(sampler -> sampler.sample(children));
+        } catch (RuntimeException ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+
+    /**
+     * Reads utime + stime + cutime + cstime of a process.
+     *
+     * @return the time in clock ticks or -1 if the process doesn't exist anymore
+     */
+    private static long readCpuTime(File procEntry) {
+        try {
+            String stat = new String(Files.readAllBytes(new File(procEntry, "stat").toPath()), StandardCharsets.US_ASCII);
+            // the name of the executable may contain spaces, so the fields are counted after its closing bracket
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[11]) + Long.parseLong(fields[12]) + Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+        } catch (IOException | RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads VmHWM of a process.
+     *
+     * @return the peak resident memory in bytes, 0 if it isn't known
+     */
+    private static long readPeakRss(File procEntry) {
+        try {
+            for (String line : Files.readAllLines(new File(procEntry, "status").toPath(), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // the process has terminated in the meantime
+        }
+        return 0;
+    }
+
+    /**
+     * Reads rchar and wchar of a process.
+     *
+     * @return the numbers of bytes read and written, 0 if they can't be read
+     */
+    private static long[] readIo(File procEntry) {
+        long[] io = new long[2];
+        try {
+            for (String line : Files.readAllLines(new File(procEntry, "io").toPath(), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("rchar:")) {
+                    io[0] = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("wchar:")) {
+                    io[1] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // the process has terminated in the meantime or belongs to another user
+        }
+        return io;
+    }
+}
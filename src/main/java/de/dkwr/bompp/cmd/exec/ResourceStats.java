@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ResourceStats sum up the resources the executions of each command have
+ * used since the start of the bot, see {@link ResourceMonitor}.<br/>
+ * ResourceStats is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class ResourceStats {
+
+    private static final ResourceStats INSTANCE = new ResourceStats();
+    private final ConcurrentHashMap<String, CommandStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * The resources of all executions of one command.
+     */
+    public static class CommandStats {
+
+        private final String cmd;
+        private final long runs;
+        private final long cpuTime;
+        private final long maxPeakRss;
+        private final long readBytes;
+        private final long writeBytes;
+
+        private CommandStats(String cmd, long runs, long cpuTime, long maxPeakRss, long readBytes, long writeBytes) {
+            this.cmd = cmd;
+            this.runs = runs;
+            this.cpuTime = cpuTime;
+            this.maxPeakRss = maxPeakRss;
+            this.readBytes = readBytes;
+            this.writeBytes = writeBytes;
+        }
+
+        private CommandStats add(CommandStats other) {
+            return new CommandStats(this.cmd, this.runs + other.runs, this.cpuTime + other.cpuTime,
+                    Math.max(this.maxPeakRss, other.maxPeakRss), this.readBytes + other.readBytes, this.writeBytes + other.writeBytes);
+        }
+
+        public String getCommandName() {
+            return this.cmd;
+        }
+
+        public long getRuns() {
+            return this.runs;
+        }
+
+        /**
+         * Returns the CPU time of all executions.
+         * @return the time in ms
+         */
+        public long getCpuTime() {
+            return this.cpuTime;
+        }
+
+        @Override
+        public String toString() {
+            return this.cmd + ": " + this.runs + " runs, CPU time " + this.cpuTime + " ms (avg " + this.cpuTime / this.runs
+                    + " ms), peak RSS max " + ResourceUsage.formatBytes(this.maxPeakRss)
+                    + ", read " + ResourceUsage.formatBytes(this.readBytes) + " (avg " + ResourceUsage.formatBytes(this.readBytes / this.runs)
+                    + "), written " + ResourceUsage.formatBytes(this.writeBytes) + " (avg " + ResourceUsage.formatBytes(this.writeBytes / this.runs) + ")";
+        }
+    }
+
+    private ResourceStats() {
+    }
+
+    public static ResourceStats getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds the resources of a finished execution to the stats of its command.
+     *
+     * @param cmd the command name
+     * @param usage the resources of the execution
+     */
+    public void record(String cmd, ResourceUsage usage) {
+        this.stats.merge(cmd, new CommandStats(cmd, 1, usage.getCpuTime(), usage.getPeakRss(), usage.getReadBytes(), usage.getWriteBytes()),
+                CommandStats::add);
+    }
+
+    /**
+     * Returns the stats of all commands which have been executed, the command
+     * with the most CPU time first.
+     *
+     * @return list of stats
+     */
+    public List<CommandStats> getStats() {
+        List<CommandStats> list = new ArrayList<>(this.stats.values());
+        list.sort((a, b) -> Long.compare(b.cpuTime, a.cpuTime));
+        return list;
+    }
+
+    /**
+     * Returns the stats of one command.
+     *
+     * @param cmd the command name
+     * @return the stats or null if the command hasn't been executed
+     */
+    public CommandStats getStats(String cmd) {
+        return this.stats.get(cmd);
+    }
+
+    /**
+     * Removes all stats.
+     */
+    public void clear() {
+        this.stats.clear();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+/**
+ * The resources which the processes of an execution have used, see
+ * {@link ResourceMonitor}.
+ *
+ * @author Dennis Kawurek
+ */
+public class ResourceUsage {
+
+    private final long cpuTime;
+    private final long peakRss;
+    private final long readBytes;
+    private final long writeBytes;
+
+    /**
+     * Creates a new ResourceUsage.
+     *
+     * @param cpuTime user and system CPU time in ms
+     * @param peakRss peak resident memory in bytes
+     * @param readBytes number of bytes read
+     * @param writeBytes number of bytes written
+     */
+    public ResourceUsage(long cpuTime, long peakRss, long readBytes, long writeBytes) {
+        this.cpuTime = cpuTime;
+        this.peakRss = peakRss;
+        this.readBytes = readBytes;
+        this.writeBytes = writeBytes;
+    }
+
+    public long getCpuTime() {
+        return this.cpuTime;
+    }
+
+    public long getPeakRss() {
+        return this.peakRss;
+    }
+
+    public long getReadBytes() {
+        return this.readBytes;
+    }
+
+    public long getWriteBytes() {
+        return this.writeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "Process CPU time: " + this.cpuTime + " ms Peak RSS: " + formatBytes(this.peakRss)
+                + " Read: " + formatBytes(this.readBytes) + " Written: " + formatBytes(this.writeBytes);
+    }
+
+    /**
+     * Formats a number of bytes with the largest unit which keeps it above 1.
+     *
+     * @param bytes number of bytes
+     * @return e.g. 512 B, 12 KB or 3 MB
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return bytes / 1024 + " KB";
+        }
+        return bytes / (1024 * 1024) + " MB";
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ResultCache keeps the output of successful executions of commands which
+ * have a cache_ttl, so that repeated requests can be answered without executing
+ * the script again.<br/>
+ * The cache holds at most maxSize results. If it is full, the least recently used
+ * result is removed. ResultCache is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class ResultCache {
+
+    private static final ResultCache INSTANCE = new ResultCache();
+    private static final int DEFAULT_MAX_SIZE = 64;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long hits = 0;
+    private long misses = 0;
+    private final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private ResultCache() {
+    }
+
+    public static ResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached output of a command.
+     *
+     * @param key the cache key of the command
+     * @return the output or null if there is no valid result
+     */
+    public synchronized String get(String key) {
+        CachedResult result = this.results.get(key);
+        if (result != null && result.isExpired()) {
+            this.results.remove(key);
+            result = null;
+        }
+        if (result == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return result.output;
+    }
+
+    /**
+     * Adds the output of a command to the cache.
+     *
+     * @param key the cache key of the command
+     * @param output the output of the command
+     * @param ttl time in ms the output is valid
+     */
+    public synchronized void put(String key, String output, long ttl) {
+        this.results.put(key, new CachedResult(output, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Removes all results. Should be called when the commands have changed.
+     */
+    public synchronized void clear() {
+        this.results.clear();
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    public synchronized int getSize() {
+        return this.results.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    private static class CachedResult {
+
+        private final String output;
+        private final long expiresAt;
+
+        CachedResult(String output, long expiresAt) {
+            this.output = output;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= this.expiresAt;
+        }
+    }
+}
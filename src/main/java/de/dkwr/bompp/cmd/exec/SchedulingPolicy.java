@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+/**
+ * Defines how the {@link JobQueue} chooses the next job inside of a priority level.
+ *
+ * @author Dennis Kawurek
+ */
+public enum SchedulingPolicy {
+    FAIR_SHARE, // the clients are served in weighted round-robin order
+    SHORTEST_FIRST // the job with the shortest estimated duration is started first, see DurationEstimator
+}
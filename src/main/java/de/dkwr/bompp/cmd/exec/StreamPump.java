@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The StreamPump reads one output stream of a script in its own Thread and
+ * puts its lines into a bounded queue. When the queue is full the pump
+ * blocks, so a script can't fill up the memory faster than its output is
+ * handled.<br/>
+ * The bytes are read into a pooled buffer of the {@link ByteBufferPool} and
+ * decoded by a {@link LineDecoder}. All complete lines of one read are put
+ * into the queue as one {@link OutputLine}, so there is no allocation per
+ * line.<br/>
+ * After the stream has been closed an end of stream marker is put into the
+ * queue.
+ *
+ * @author Dennis Kawurek
+ */
+public class StreamPump implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private final InputStream inputStream;
+    private final OutputLine.Stream stream;
+    private final BlockingQueue<OutputLine> queue;
+    private final LineDecoder lineDecoder;
+    private final AtomicLong byteCount = new AtomicLong();
+    private final StringBuilder lines = new StringBuilder(); // the complete lines of the current read
+    private Thread thread;
+
+    /**
+     * Creates a new StreamPump.
+     *
+     * @param inputStream the stream to read
+     * @param stream the stream type which is used to tag the lines
+     * @param queue the queue which receives the lines
+     * @param charset the encoding of the stream
+     */
+    public StreamPump(InputStream inputStream, OutputLine.Stream stream, BlockingQueue<OutputLine> queue, Charset charset) {
+        this.inputStream = inputStream;
+        this.stream = stream;
+        this.queue = queue;
+        this.lineDecoder = new LineDecoder(charset);
+    }
+
+    /**
+     * Starts pumping in a new daemon Thread of the {@link ThreadBackend}.
+     *
+     * @param name name of the Thread
+     */
+    public void start(String name) {
+        this.thread = ThreadBackend.getInstance().newThread(this, name);
+        this.thread.start();
+    }
+
+    /**
+     * Interrupts the pump, if it is waiting for space in the queue.
+     */
+    public void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer in = ByteBufferPool.getInstance().acquire(READ_BUFFER_SIZE);
+        CharBuffer out = CharBuffer.allocate(READ_BUFFER_SIZE);
+        try (ReadableByteChannel channel = Channels.newChannel(this.inputStream)) {
+            int n;
+            while ((n = channel.read(in)) != -1) {
+                this.byteCount.addAndGet(n);
+                in.flip();
+                this.lineDecoder.decode(in, out, this.lines, false);
+                in.compact();
+                this.putLines();
+            }
+            in.flip();
+            this.lineDecoder.decode(in, out, this.lines, true);
+            this.putLines();
+        } catch (ClosedByInterruptException ex) {
+            // the pump has been stopped while it was waiting for output
+            return;
+        } catch (IOException ex) {
+            BotLogger.getInstance().logException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            ByteBufferPool.getInstance().release(in);
+        }
+
+        try {
+            this.queue.put(OutputLine.endOfStream(this.stream));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void putLines() throws InterruptedException {
+        OutputLine line = LineDecoder.takeLines(this.stream, this.lines);
+        if (line != null) {
+            this.queue.put(line);
+        }
+    }
+
+    /**
+     * Returns the number of bytes read from the stream so far.
+     *
+     * @return number of bytes
+     */
+    public long getByteCount() {
+        return this.byteCount.get();
+    }
+}
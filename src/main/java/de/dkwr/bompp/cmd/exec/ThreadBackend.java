@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ThreadBackend creates the threads for the scripts and the received
+ * messages according to the {@link ExecutorBackend}. This includes the threads
+ * which read the output of a script.<br/>
+ * BoMPP is compiled for Java 8, so virtual threads are created by reflection.
+ * If the JVM doesn't support them, platform threads are used.
+ * With virtual threads the number of concurrent scripts is only limited by
+ * max_threads and the other limits of the {@link CommandQueue}, so
+ * max_threads can be much higher than with platform threads.
+ * ThreadBackend is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class ThreadBackend {
+
+    private static final ThreadBackend INSTANCE = new ThreadBackend();
+    private static final int MESSAGE_THREADS = 4; // platform threads which handle the received messages
+    private ExecutorBackend backend = ExecutorBackend.PLATFORM;
+    private Executor messageExecutor = null;
+    private final Map<String, Queue<Runnable>> messageQueues = new HashMap<>();
+
+    private ThreadBackend() {
+    }
+
+    public static ThreadBackend getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Selects the backend. Has to be called before the {@link CommandQueue} is created.
+     *
+     * @param backend the backend of the config file
+     */
+    public synchronized void select(ExecutorBackend backend) {
+        if (this.messageExecutor instanceof ExecutorService) {
+            // the messages which are already queued are still handled
+            ((ExecutorService) this.messageExecutor).shutdown();
+        }
+        this.backend = ExecutorBackend.PLATFORM;
+        if (backend == ExecutorBackend.VIRTUAL) {
+            ThreadFactory factory = createVirtualThreadFactory("message ");
+            if (factory != null) {
+                this.backend = ExecutorBackend.VIRTUAL;
+                this.messageExecutor = task -> factory.newThread(task).start();
+                System.out.println("Executor backend: " + this.backend);
+                return;
+            }
+            BotLogger.getInstance().logMsg("This JVM doesn't support virtual threads, a pool of platform threads is used.");
+        }
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.messageExecutor = Executors.newFixedThreadPool(MESSAGE_THREADS, r -> {
+            Thread thread = new Thread(r, "message handler " + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("Executor backend: " + this.backend);
+    }
+
+    public synchronized ExecutorBackend getBackend() {
+        return this.backend;
+    }
+
+    /**
+     * Checks whether the JVM supports virtual threads.
+     *
+     * @return true if virtual threads can be created
+     */
+    public static boolean isVirtualThreadSupported() {
+        return createVirtualThreadFactory("") != null;
+    }
+
+    /**
+     * Returns a factory for the threads of a pool.
+     *
+     * @param name the prefix of the thread names
+     * @return a factory for virtual threads or the default factory
+     */
+    public synchronized ThreadFactory newThreadFactory(String name) {
+        if (this.backend == ExecutorBackend.VIRTUAL) {
+            ThreadFactory factory = createVirtualThreadFactory(name + " ");
+            if (factory != null) {
+                return factory;
+            }
+        }
+        return Executors.defaultThreadFactory();
+    }
+
+    /**
+     * Creates a daemon thread for a helper task of a script, e.g. reading
+     * its output. With virtual threads the thread is a virtual thread.
+     *
+     * @param task the task of the thread
+     * @param name the name of the thread
+     * @return the thread, which isn't started yet
+     */
+    public Thread newThread(Runnable task, String name) {
+        if (this.getBackend() == ExecutorBackend.VIRTUAL) {
+            Thread thread = createVirtualThread(task, name);
+            if (thread != null) {
+                return thread;
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Handles a received message in a thread of the backend, so a slow
+     * command handler or a full queue with the policy BLOCK doesn't block
+     * the connection. Before a backend is selected it is handled in the
+     * calling thread.<br/>
+     * With platform threads a pool of MESSAGE_THREADS threads handles the
+     * messages, with virtual threads every sender with pending messages gets
+     * its own virtual thread. The messages of one sender are handled one
+     * after another in the order they have been received.
+     *
+     * @param sender the JID of the sender
+     * @param task the handler of the message
+     */
+    public void handleMessage(String sender, Runnable task) {
+        Executor executor;
+        synchronized (this) {
+            executor = this.messageExecutor;
+        }
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        synchronized (this.messageQueues) {
+            Queue<Runnable> queue = this.messageQueues.get(sender);
+            if (queue != null) {
+                // a thread is handling the messages of this sender
+                queue.add(task);
+                return;
+            }
+            this.messageQueues.put(sender, new ArrayDeque<>());
+        }
+        synchronized (this) {
+            // under the lock, so select() can't shut the executor down in between
+            this.messageExecutor.execute(() -> this.handleMessages(sender, task));
+        }
+    }
+
+    private void handleMessages(String sender, Runnable task) {
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                BotLogger.getInstance().logException(ex);
+            }
+            synchronized (this.messageQueues) {
+                task = this.messageQueues.get(sender).poll();
+                if (task == null) {
+                    this.messageQueues.remove(sender);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the factory of Thread.ofVirtual().name(prefix, 1), which is
+     * available since Java 21.
+     *
+     * @return the factory or null if virtual threads aren't supported
+     */
+    private static ThreadFactory createVirtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // older JVMs, or Java 19 and 20 without --enable-preview
+            return null;
+        }
+    }
+
+    /**
+     * Creates Thread.ofVirtual().name(name).unstarted(task).
+     *
+     * @return the thread or null if virtual threads aren't supported
+     */
+    private static Thread createVirtualThread(Runnable task, String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+            return (Thread) builderClass.getMethod("unstarted", Runnable.class).invoke(builder, task);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+}
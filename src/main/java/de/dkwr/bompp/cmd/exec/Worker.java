@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Worker is a long-lived interpreter process which executes scripts on request.<br/>
+ * The worker speaks a simple framed protocol over its stdin and stdout. Every
+ * frame starts with a header line, which may be followed by a body of the
+ * given length:
+ * <pre>
+ * bot to worker:   PING            RUN &lt;length&gt; + script path
+ * worker to bot:   READY   PONG    OUT &lt;length&gt; + data   ERR &lt;length&gt; + data   EXIT &lt;code&gt;   QUIT
+ * </pre>
+ * The worker sends READY once it has started. A RUN request is answered by
+ * any number of OUT and ERR frames, followed by exactly one EXIT frame. If
+ * the script terminates the interpreter, the worker sends QUIT instead of EXIT
+ * and the exit status of the worker process is the exit code of the script.<br/>
+ * Whatever the worker or the processes started by a script write to stderr
+ * is forwarded as stderr of the running script.<br/>
+ * If the worker doesn't answer in time while it starts, to a PING or in the
+ * middle of a frame, it is terminated.
+ *
+ * @author Dennis Kawurek
+ */
+public class Worker {
+
+    /**
+     * Receives the output of a script executed by a worker.
+     */
+    public interface OutputConsumer {
+
+        /**
+         * Called for every chunk of output.
+         *
+         * @param stream the stream the script has written to
+         * @param data the output, which doesn't have to end at a line break
+         */
+        void accept(OutputLine.Stream stream, byte[] data) throws InterruptedException;
+    }
+
+    private static final int MAX_HEADER_LENGTH = 64;
+    private static final long START_TIMEOUT = 10000; // time in ms a worker has to get ready
+    private static final long FRAME_TIMEOUT = 10000; // time in ms the body of a frame has to arrive after its header
+    private static final long QUIT_TIMEOUT = 5000; // time in ms a worker has to terminate after QUIT
+    private static final int STDERR_BUFFER_SIZE = 4096;
+    private static final ScheduledExecutorService DEADLINE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "worker deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Process process;
+    private final DataInputStream fromWorker;
+    private final OutputStream toWorker;
+    private final Object outputLock = new Object(); // the frames and stderr are passed to the consumer one after another
+    private OutputConsumer consumer = null; // guarded by outputLock
+    private int executedJobs = 0;
+    private volatile boolean broken = false;
+
+    private Worker(Process process) {
+        this.process = process;
+        this.fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        this.toWorker = new BufferedOutputStream(process.getOutputStream());
+    }
+
+    /**
+     * A frame or a part of it which is read from the worker.
+     */
+    private interface FrameReader<T> {
+
+        T read() throws IOException;
+    }
+
+    /**
+     * Starts a new worker and waits until it is ready.
+     *
+     * @param workerCmd the command to start the worker, e.g. {python3, /path/to/worker.py}
+     * @return the started worker
+     * @throws IOException when the worker can't be started
+     */
+    public static Worker start(List<String> workerCmd) throws IOException {
+        Process process = new ProcessBuilder(workerCmd).start();
+        Worker worker = new Worker(process);
+        worker.startErrorReader();
+        String header;
+        try {
+            header = worker.readWithin(START_TIMEOUT, worker::readHeader);
+        } catch (IOException ex) {
+            worker.destroy();
+            throw new IOException("Worker " + workerCmd + " didn't start properly.", ex);
+        }
+        if (!"READY".equals(header)) {
+            worker.destroy();
+            throw new IOException("Worker " + workerCmd + " didn't start properly: " + header);
+        }
+        return worker;
+    }
+
+    /**
+     * Executes a script and waits until the worker has finished it.
+     *
+     * @param scriptPath the path of the script
+     * @param consumer receives the output of the script
+     * @return the exit code of the script
+     * @throws IOException when the communication with the worker fails
+     * @throws InterruptedException when the consumer has been interrupted
+     */
+    public int run(String scriptPath, OutputConsumer consumer) throws IOException, InterruptedException {
+        this.executedJobs++;
+        synchronized (this.outputLock) {
+            this.consumer = consumer;
+        }
+        try {
+            byte[] path = scriptPath.getBytes(StandardCharsets.UTF_8);
+            this.toWorker.write(("RUN " + path.length + "\n").getBytes(StandardCharsets.US_ASCII));
+            this.toWorker.write(path);
+            this.toWorker.flush();
+
+            // the script may run for a long time, so only the command's timeout limits the wait for a header
+            while (true) {
+                String header = this.readHeader();
+                if (header.startsWith("OUT ")) {
+                    this.forward(OutputLine.Stream.STDOUT, this.readWithin(FRAME_TIMEOUT, () -> this.readBody(header)));
+                } else if (header.startsWith("ERR ")) {
+                    this.forward(OutputLine.Stream.STDERR, this.readWithin(FRAME_TIMEOUT, () -> this.readBody(header)));
+                } else if (header.startsWith("EXIT ")) {
+                    return Integer.parseInt(header.substring(5).trim());
+                } else if (header.equals("QUIT")) {
+                    return this.waitForQuit();
+                } else {
+                    throw new IOException("Unexpected frame from worker: " + header);
+                }
+            }
+        } catch (IOException | RuntimeException | InterruptedException ex) {
+            this.broken = true;
+            throw ex;
+        } finally {
+            synchronized (this.outputLock) {
+                this.consumer = null;
+            }
+        }
+    }
+
+    /**
+     * Checks if the worker is still responding.
+     *
+     * @param timeout time in ms the worker has to answer
+     * @return true if the worker has answered in time
+     */
+    public boolean ping(long timeout) {
+        if (!this.isAlive()) {
+            return false;
+        }
+        try {
+            this.toWorker.write("PING\n".getBytes(StandardCharsets.US_ASCII));
+            this.toWorker.flush();
+            if ("PONG".equals(this.readWithin(timeout, this::readHeader))) {
+                return true;
+            }
+        } catch (IOException ex) {
+            // handled below
+        }
+        this.broken = true;
+        return false;
+    }
+
+    /**
+     * Checks if the worker can execute more scripts.
+     *
+     * @return true if the process is alive and the protocol hasn't failed
+     */
+    public boolean isAlive() {
+        return !this.broken && this.process.isAlive();
+    }
+
+    /**
+     * Returns the number of scripts the worker has executed.
+     *
+     * @return number of executed scripts
+     */
+    public int getExecutedJobs() {
+        return this.executedJobs;
+    }
+
+    /**
+     * Stops the worker process and all processes started by a script.
+     */
+    public void destroy() {
+        this.terminate(0);
+    }
+
+    /**
+     * Terminates the worker process and all processes started by a script,
+     * see {@link ProcessTree#terminate}.
+     * @param gracePeriod time in ms the processes get before they are killed
+     */
+    public void terminate(long gracePeriod) {
+        this.broken = true;
+        ProcessTree.terminate(this.process, gracePeriod);
+    }
+
+    /**
+     * Reads from the worker and terminates it if the read doesn't complete in time.
+     * Killing the worker closes its stdout, so the blocked read returns.
+     */
+    private <T> T readWithin(long timeout, FrameReader<T> reader) throws IOException {
+        AtomicBoolean expired = new AtomicBoolean(false);
+        ScheduledFuture<?> deadline = DEADLINE_SCHEDULER.schedule(() -> {
+            expired.set(true);
+            this.terminate(0);
+        }, timeout, TimeUnit.MILLISECONDS);
+        try {
+            T result = reader.read();
+            deadline.cancel(false);
+            if (expired.get()) {
+                throw new IOException("Worker didn't answer within " + timeout + " ms.");
+            }
+            return result;
+        } catch (IOException ex) {
+            deadline.cancel(false);
+            if (expired.get()) {
+                throw new IOException("Worker didn't answer within " + timeout + " ms.", ex);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * The script has terminated the interpreter, its exit code is the exit status of the worker.
+     */
+    private int waitForQuit() throws IOException, InterruptedException {
+        this.broken = true;
+        if (!this.process.waitFor(QUIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            this.terminate(0);
+            throw new IOException("Worker didn't terminate after QUIT.");
+        }
+        return this.process.exitValue();
+    }
+
+    private void forward(OutputLine.Stream stream, byte[] data) throws InterruptedException {
+        synchronized (this.outputLock) {
+            if (this.consumer != null) {
+                this.consumer.accept(stream, data);
+            } else {
+                BotLogger.getInstance().logMsg("Worker: " + new String(data, StandardCharsets.UTF_8).trim());
+            }
+        }
+    }
+
+    /**
+     * Reads stderr of the worker, which also gets the output of processes
+     * started by a script, and forwards it to the running script.
+     */
+    private void startErrorReader() {
+        ThreadBackend.getInstance().newThread(() -> {
+            byte[] buffer = new byte[STDERR_BUFFER_SIZE];
+            try (InputStream stderr = this.process.getErrorStream()) {
+                int length;
+                while ((length = stderr.read(buffer)) != -1) {
+                    this.forward(OutputLine.Stream.STDERR, Arrays.copyOf(buffer, length));
+                }
+            } catch (IOException ex) {
+                // the worker has been terminated
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "worker stderr").start();
+    }
+
+    private String readHeader() throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int b;
+        while ((b = this.fromWorker.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Worker has closed the connection.");
+            }
+            if (header.size() >= MAX_HEADER_LENGTH) {
+                throw new IOException("Invalid frame header from worker.");
+            }
+            header.write(b);
+        }
+        return new String(header.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private byte[] readBody(String header) throws IOException {
+        int length = Integer.parseInt(header.substring(4).trim());
+        byte[] body = new byte[length];
+        this.fromWorker.readFully(body);
+        return body;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The WorkerPool keeps a number of pre-started {@link Worker}s for one exec type,
+ * so scripts don't have to wait for the start of the interpreter.<br/>
+ * A worker is replaced after it has executed maxJobs scripts or if it doesn't
+ * respond anymore.
+ *
+ * @author Dennis Kawurek
+ */
+public class WorkerPool {
+
+    private static final long PING_TIMEOUT = 5000;
+    private final String execType;
+    private final List<String> workerCmd;
+    private final int size;
+    private final int maxJobs;
+    private final LinkedBlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new pool. The workers are started with {@link #start()}.
+     *
+     * @param execType the exec type of the commands which are executed by the pool
+     * @param workerCmd the command to start a worker
+     * @param size number of workers
+     * @param maxJobs number of scripts a worker executes before it is replaced
+     */
+    public WorkerPool(String execType, List<String> workerCmd, int size, int maxJobs) {
+        this.execType = execType;
+        this.workerCmd = new ArrayList<>(workerCmd);
+        this.size = Math.max(1, size);
+        this.maxJobs = Math.max(1, maxJobs);
+    }
+
+    /**
+     * Starts all workers of the pool.
+     */
+    public void start() {
+        for (int i = 0; i < this.size; i++) {
+            this.addWorker();
+        }
+        System.out.println("Started " + this.workerCount.get() + " workers for " + this.execType);
+    }
+
+    /**
+     * Takes an idle worker out of the pool and waits if all workers are busy.
+     *
+     * @param timeout time in ms to wait for a worker
+     * @return a worker or null if no worker has become idle in time
+     * @throws InterruptedException when the thread is interrupted while waiting
+     */
+    public Worker borrow(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!this.closed) {
+            if (this.workerCount.get() < this.size) {
+                this.addWorker(); // a failed worker couldn't be replaced before
+            }
+            Worker worker = this.idleWorkers.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (worker == null) {
+                return null;
+            }
+            if (worker.isAlive()) {
+                return worker;
+            }
+            this.replace(worker);
+        }
+        return null;
+    }
+
+    /**
+     * Gives a worker back to the pool after it has executed a script.
+     *
+     * @param worker the worker
+     */
+    public void release(Worker worker) {
+        if (this.closed || !worker.isAlive() || worker.getExecutedJobs() >= this.maxJobs) {
+            this.replace(worker);
+        } else {
+            this.idleWorkers.offer(worker);
+        }
+    }
+
+    /**
+     * Pings all idle workers and replaces the ones which don't respond.
+     */
+    public void checkHealth() {
+        List<Worker> workers = new ArrayList<>();
+        this.idleWorkers.drainTo(workers);
+        for (Worker worker : workers) {
+            if (worker.ping(PING_TIMEOUT)) {
+                this.idleWorkers.offer(worker);
+            } else {
+                BotLogger.getInstance().logMsg("Worker for " + this.execType + " doesn't respond and is replaced.");
+                this.replace(worker);
+            }
+        }
+    }
+
+    /**
+     * Stops all idle workers. Busy workers are stopped when they are released.
+     */
+    public void close() {
+        this.closed = true;
+        List<Worker> workers = new ArrayList<>();
+        this.idleWorkers.drainTo(workers);
+        workers.forEach(Worker::destroy);
+    }
+
+    /**
+     * Checks whether another pool would start the same workers.
+     *
+     * @param other the other pool
+     * @return true if the exec type, the worker command, the size and the maximum number of jobs are equal
+     */
+    public boolean hasSameSettings(WorkerPool other) {
+        return this.execType.equals(other.execType) && this.workerCmd.equals(other.workerCmd)
+                && this.size == other.size && this.maxJobs == other.maxJobs;
+    }
+
+    public String getExecType() {
+        return this.execType;
+    }
+
+    public int getIdleCount() {
+        return this.idleWorkers.size();
+    }
+
+    public int getWorkerCount() {
+        return this.workerCount.get();
+    }
+
+    private void replace(Worker worker) {
+        worker.destroy();
+        this.workerCount.decrementAndGet();
+        if (!this.closed) {
+            this.addWorker();
+        }
+    }
+
+    private void addWorker() {
+        if (this.workerCount.incrementAndGet() > this.size) {
+            this.workerCount.decrementAndGet();
+            return;
+        }
+        try {
+            this.idleWorkers.offer(Worker.start(this.workerCmd));
+        } catch (IOException ex) {
+            this.workerCount.decrementAndGet();
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The WorkerPoolManager holds the {@link WorkerPool}s of all exec types and
+ * checks the health of their workers periodically. WorkerPoolManager is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class WorkerPoolManager {
+
+    private static final WorkerPoolManager INSTANCE = new WorkerPoolManager();
+    private static final long HEALTH_CHECK_INTERVAL = 30;
+    private static final String BUNDLED_WORKERS_DIR = ".workers";
+    private static final String PYTHON_WORKER = "bompp_worker.py";
+    private static final String PHP_WORKER = "bompp_worker.php";
+    private Map<String, WorkerPool> pools = new HashMap<>();
+    private ScheduledExecutorService healthChecker;
+
+    private WorkerPoolManager() {
+    }
+
+    public static WorkerPoolManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Replaces all pools. A pool with unchanged settings keeps its running
+     * workers, the other old pools are closed and the workers of the new
+     * pools are started.
+     *
+     * @param newPools the pools, only one per exec type
+     */
+    public synchronized void setPools(List<WorkerPool> newPools) {
+        Map<String, WorkerPool> oldPools = this.pools;
+        this.pools = new HashMap<>();
+        for (WorkerPool pool : newPools) {
+            WorkerPool oldPool = oldPools.remove(pool.getExecType());
+            if (oldPool != null && oldPool.hasSameSettings(pool)) {
+                this.pools.put(pool.getExecType(), oldPool);
+                continue;
+            }
+            if (oldPool != null) {
+                oldPool.close();
+            }
+            pool.start();
+            this.pools.put(pool.getExecType(), pool);
+        }
+        oldPools.values().forEach(WorkerPool::close);
+
+        if (!this.pools.isEmpty() && this.healthChecker == null) {
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "worker health check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.healthChecker.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_INTERVAL, HEALTH_CHECK_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns the pool for an exec type.
+     *
+     * @param execType the exec type of a command
+     * @return the pool or null if scripts of this exec type are executed in new processes
+     */
+    public synchronized WorkerPool getPool(String execType) {
+        if (execType == null) {
+            return null;
+        }
+        return this.pools.get(execType);
+    }
+
+    /**
+     * Closes all pools and stops the health check.
+     */
+    public synchronized void shutdown() {
+        this.pools.values().forEach(WorkerPool::close);
+        this.pools = new HashMap<>();
+        if (this.healthChecker != null) {
+            this.healthChecker.shutdownNow();
+            this.healthChecker = null;
+        }
+    }
+
+    /**
+     * Copies the worker script which comes with BoMPP for an exec type into the store.
+     *
+     * @param execType the exec type, which has to contain 'python' or 'php'
+     * @param storePath the path of the store
+     * @return the path of the worker script
+     * @throws IOException when there is no worker for the exec type or it can't be copied
+     */
+    public static String installBundledWorker(String execType, String storePath) throws IOException {
+        String workerName;
+        if (execType.contains("python")) {
+            workerName = PYTHON_WORKER;
+        } else if (execType.contains("php")) {
+            workerName = PHP_WORKER;
+        } else {
+            throw new IOException("There is no bundled worker for " + execType + ". Please set the worker script in the config file.");
+        }
+
+        File dir = new File(storePath, BUNDLED_WORKERS_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        File worker = new File(dir, workerName);
+        try (InputStream in = WorkerPoolManager.class.getResourceAsStream("/workers/" + workerName)) {
+            if (in == null) {
+                throw new IOException("Bundled worker " + workerName + " is missing.");
+            }
+            Files.copy(in, worker.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return worker.getAbsolutePath();
+    }
+
+    private void checkHealth() {
+        List<WorkerPool> currentPools;
+        synchronized (this) {
+            currentPools = new ArrayList<>(this.pools.values());
+        }
+        currentPools.forEach(WorkerPool::checkHealth);
+    }
+}
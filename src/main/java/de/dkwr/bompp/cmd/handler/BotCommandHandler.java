@@ -134,6 +134,15 @@ public class BotCommandHandler implements CommandHandler {
         ReloadConfigCommand reloadCmd = new ReloadConfigCommand(this.configReader);
         ExecCommand execCmd = new ExecCommand(this.scriptCommandHandler);
         QuitCommand quitCmd = new QuitCommand(this.omemoController, this.commandQueue);
+        QueueCommand queueCmd = new QueueCommand(this.commandQueue);
+        CacheCommand cacheCmd = new CacheCommand();
+        JobsCommand jobsCmd = new JobsCommand(this.commandQueue);
+        CancelCommand cancelCmd = new CancelCommand(this.commandQueue);
+        AttachCommand attachCmd = new AttachCommand(this.commandQueue);
+        WatchCommand watchCmd = new WatchCommand();
+        UnwatchCommand unwatchCmd = new UnwatchCommand();
+        MoreCommand moreCmd = new MoreCommand();
+        StatsCommand statsCmd = new StatsCommand();
 
         botCommands.put(helpCmd.getCommand(), helpCmd);
         botCommands.put(sendCmd.getCommand(), sendCmd);
@@ -149,5 +158,14 @@ public class BotCommandHandler implements CommandHandler {
         botCommands.put(reloadCmd.getCommand(), reloadCmd);
         botCommands.put(execCmd.getCommand(), execCmd);
         botCommands.put(quitCmd.getCommand(), quitCmd);
+        botCommands.put(queueCmd.getCommand(), queueCmd);
+        botCommands.put(cacheCmd.getCommand(), cacheCmd);
+        botCommands.put(jobsCmd.getCommand(), jobsCmd);
+        botCommands.put(cancelCmd.getCommand(), cancelCmd);
+        botCommands.put(attachCmd.getCommand(), attachCmd);
+        botCommands.put(watchCmd.getCommand(), watchCmd);
+        botCommands.put(unwatchCmd.getCommand(), unwatchCmd);
+        botCommands.put(moreCmd.getCommand(), moreCmd);
+        botCommands.put(statsCmd.getCommand(), statsCmd);
     }
 }
@@ -17,11 +17,26 @@
 package de.dkwr.bompp.cmd.handler;
 
 import de.dkwr.bompp.cmd.exec.CommandQueue;
-import de.dkwr.bompp.cmd.exec.ExecuteScriptThread;
+import de.dkwr.bompp.cmd.exec.AbstractScriptThread;
+import de.dkwr.bompp.cmd.exec.Job;
+import de.dkwr.bompp.cmd.exec.OutputStore;
+import de.dkwr.bompp.cmd.exec.ResultCache;
+import de.dkwr.bompp.cmd.schedule.WatchManager;
+import de.dkwr.bompp.cmd.workflow.Workflow;
+import de.dkwr.bompp.cmd.workflow.WorkflowRun;
 import de.dkwr.bompp.xmpp.OmemoController;
+import de.dkwr.bompp.util.BotConfiguration;
 import de.dkwr.bompp.util.BotLogger;
 import de.dkwr.bompp.util.Command;
 import de.dkwr.bompp.util.CommandList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This CommandHandler is responsible for the execution of scripts after getting
@@ -37,6 +52,18 @@ public class ScriptCommandHandler implements CommandHandler {
     private final CommandList commandList;
     private final CommandQueue commandQueue;
     private final String COMMANDS_AVAILABLE_STR = "These commands are available:\n";
+    private final String JOB_COMMANDS_STR = "\nTo control your jobs:\njobs\ncancel <job id>\nattach <job id>\nmore <job id>"
+            + "\nTo pipe the output of a command into the next command:\n<command> | <command>"
+            + "\nTo execute several commands at once and get one answer:\nbatch <command> <command> ..."
+            + "\nTo get only the changes of a command:\nwatch <command> <interval>\nwatch\nunwatch <watch id>";
+    private final String JOBS_CMD = "jobs";
+    private final String CANCEL_CMD = "cancel";
+    private final String ATTACH_CMD = "attach";
+    private final String MORE_CMD = "more";
+    private final String WATCH_CMD = "watch";
+    private final String UNWATCH_CMD = "unwatch";
+    private final String BATCH_CMD = "batch";
+    private final String PIPE = "|";
 
     /**
      * Creates a new ScriptCommandHandler object
@@ -56,10 +83,25 @@ public class ScriptCommandHandler implements CommandHandler {
     public void handleCommand(String cmd) {
         try {
             cmd = cmd.toLowerCase();
-            if (this.commandList.cmdExists(cmd)) {
-                Command command = this.commandList.getCommand(cmd);
-                ExecuteScriptThread executeScriptThread = new ExecuteScriptThread(command, null, true, this.omemoController);
-                this.commandQueue.addToQueue(cmd, executeScriptThread);
+            Command command = this.getCommand(cmd);
+            if (command != null && command.isWorkflow()) {
+                WorkflowRun.create(command, null, this.commandQueue, this.omemoController).start();
+            } else if (command == null && this.isBatch(cmd)) {
+                String error = this.startBatch(cmd, null);
+                if (error != null) {
+                    System.out.println(error);
+                }
+            } else if (command != null) {
+                String cachedResult = this.getCachedResult(command);
+                if (cachedResult != null) {
+                    System.out.print(cachedResult);
+                    return;
+                }
+                AbstractScriptThread scriptThread = AbstractScriptThread.create(command, null, true, this.omemoController);
+                CommandQueue.Result result = this.commandQueue.addToQueue(command.getCommandName(), scriptThread);
+                if (result != CommandQueue.Result.ADDED) {
+                    System.out.println(this.getRejectionMessage(result));
+                }
             } else if(cmd.equalsIgnoreCase("help")) {
                 System.out.println(this.COMMANDS_AVAILABLE_STR + this.getAllCommandsAsString());
             } else {
@@ -75,15 +117,31 @@ public class ScriptCommandHandler implements CommandHandler {
     public void handleCommand(String cmd, String clientJID) {
         try {
             cmd = cmd.toLowerCase();
-            if (this.commandList.cmdExists(cmd)) {
-                Command command = this.commandList.getCommand(cmd);
-                ExecuteScriptThread executeScriptThread = new ExecuteScriptThread(command, clientJID, true, this.omemoController);
-                boolean add = this.commandQueue.addToQueue(cmd, executeScriptThread);
-                if(!add) {
-                    this.omemoController.sendMessage(this.omemoController.getJid(clientJID), "Already running this command");
+            Command command = this.getCommand(cmd);
+            if (command != null && command.isWorkflow()) {
+                WorkflowRun.create(command, clientJID, this.commandQueue, this.omemoController).start();
+            } else if (command == null && this.isBatch(cmd)) {
+                String error = this.startBatch(cmd, clientJID);
+                if (error != null) {
+                    this.omemoController.sendMessage(this.omemoController.getJid(clientJID), error);
+                }
+            } else if (command != null) {
+                String cachedResult = this.getCachedResult(command);
+                if (cachedResult != null) {
+                    this.omemoController.sendMessage(this.omemoController.getJid(clientJID), cachedResult);
+                    return;
+                }
+                AbstractScriptThread scriptThread = AbstractScriptThread.create(command, clientJID, true, this.omemoController);
+                CommandQueue.Result result = this.commandQueue.addToQueue(command.getCommandName(), scriptThread);
+                if (result != CommandQueue.Result.ADDED) {
+                    this.omemoController.sendMessage(this.omemoController.getJid(clientJID), this.getRejectionMessage(result));
                 }
             } else if(cmd.equalsIgnoreCase("help")) {
-                this.omemoController.sendMessage(this.omemoController.getJid(clientJID),  this.COMMANDS_AVAILABLE_STR + this.getAllCommandsAsString());
+                this.omemoController.sendMessage(this.omemoController.getJid(clientJID),  this.COMMANDS_AVAILABLE_STR + this.getAllCommandsAsString() + this.JOB_COMMANDS_STR);
+            } else if (this.isJobCommand(cmd)) {
+                this.omemoController.sendMessage(this.omemoController.getJid(clientJID), this.handleJobCommand(cmd, clientJID));
+            } else if (this.isWatchCommand(cmd)) {
+                this.omemoController.sendMessage(this.omemoController.getJid(clientJID), this.handleWatchCommand(cmd, clientJID));
             } else {
                 this.omemoController.sendMessage(this.omemoController.getJid(clientJID), "This command doesn't exist.");
                 this.omemoController.sendMessage(this.omemoController.getJid(clientJID), this.COMMANDS_AVAILABLE_STR + this.getAllCommandsAsString());
@@ -93,6 +151,213 @@ public class ScriptCommandHandler implements CommandHandler {
         }
     }
 
+    /**
+     * Returns the command for a message. A message like "a | b" is executed as
+     * a pipeline of the commands a and b.
+     * @param cmd the message
+     * @return the command or null if the command or one of the stages doesn't exist
+     */
+    private Command getCommand(String cmd) {
+        if (!cmd.contains(this.PIPE)) {
+            return this.commandList.getCommand(cmd);
+        }
+        List<Command> stages = new ArrayList<>();
+        List<String> stageNames = new ArrayList<>();
+        for (String stageName : cmd.split("\\" + this.PIPE, -1)) {
+            Command stage = this.commandList.getCommand(stageName.trim());
+            if (stage == null || stage.isPipeline() || stage.isWorkflow()) {
+                return null;
+            }
+            stages.add(stage);
+            stageNames.add(stage.getCommandName());
+        }
+        return Command.createPipeline(String.join(" " + this.PIPE + " ", stageNames), null, stages);
+    }
+
+    private boolean isBatch(String cmd) {
+        String trimmedCmd = cmd.trim();
+        return trimmedCmd.contains("\n") || trimmedCmd.split("\\s+")[0].equals(this.BATCH_CMD);
+    }
+
+    /**
+     * Executes the commands of a batch in parallel. The client gets one answer
+     * with all results when they are finished or the batch deadline has passed.
+     * The commands are given as "batch a b c" or one command per line. A
+     * command which is given more than once runs only once, the answer names
+     * the merged duplicates.
+     * @param cmd the message
+     * @param clientJID the JID of the client or null for the bot CLI
+     * @return an error message or null if the batch has been started
+     */
+    private String startBatch(String cmd, String clientJID) {
+        List<String> cmdNames = new ArrayList<>(Arrays.asList(cmd.trim().split("\\s+")));
+        if (cmdNames.get(0).equals(this.BATCH_CMD)) {
+            cmdNames.remove(0);
+        }
+        if (cmdNames.isEmpty()) {
+            return "Usage: " + this.BATCH_CMD + " <command> <command> ...";
+        }
+        Map<String, List<String>> steps = new LinkedHashMap<>();
+        List<String> unknownCmds = new ArrayList<>();
+        Set<String> duplicateCmds = new LinkedHashSet<>();
+        for (String cmdName : cmdNames) {
+            Command command = this.commandList.getCommand(cmdName);
+            if (command == null || command.isWorkflow()) {
+                unknownCmds.add(cmdName);
+            } else if (steps.put(cmdName, Collections.emptyList()) != null) {
+                duplicateCmds.add(cmdName);
+            }
+        }
+        if (!unknownCmds.isEmpty()) {
+            return "These commands don't exist: " + String.join(", ", unknownCmds);
+        }
+        String name = "Batch " + String.join(", ", steps.keySet());
+        if (!duplicateCmds.isEmpty()) {
+            name += " (duplicates merged: " + String.join(", ", duplicateCmds) + ")";
+        }
+        WorkflowRun batch = new WorkflowRun(name, new Workflow(steps), clientJID, this.commandQueue, this.omemoController);
+        batch.setDeadline(BotConfiguration.getInstance().getBatchDeadline());
+        batch.start();
+        return null;
+    }
+
+    private boolean isJobCommand(String cmd) {
+        String name = cmd.trim().split("\\s+")[0];
+        return name.equals(this.JOBS_CMD) || name.equals(this.CANCEL_CMD) || name.equals(this.ATTACH_CMD) || name.equals(this.MORE_CMD);
+    }
+
+    /**
+     * Executes jobs, cancel, attach or more for a client. Clients can only see and
+     * control their own jobs, the administrator can control all jobs.
+     * @param cmd the command with its arguments
+     * @param clientJID the JID of the client
+     * @return the answer for the client
+     */
+    private String handleJobCommand(String cmd, String clientJID) {
+        String[] args = cmd.trim().split("\\s+");
+        if (args[0].equals(this.JOBS_CMD)) {
+            List<Job> jobs = new ArrayList<>(this.commandQueue.getJobRegistry().getFinishedJobs());
+            jobs.addAll(this.commandQueue.getJobRegistry().getAllJobs());
+            StringBuilder jobList = new StringBuilder();
+            for (Job job : jobs) {
+                if (this.isJobOfClient(job, clientJID)) {
+                    jobList.append(job.getStatusLine()).append("\n");
+                }
+            }
+            return jobList.length() == 0 ? "There are no jobs." : jobList.toString().trim();
+        }
+
+        if (args.length < 2) {
+            return "Usage: " + args[0] + " <job id>";
+        }
+        if (args[0].equals(this.MORE_CMD)) {
+            String page;
+            try {
+                page = OutputStore.getInstance().more(Integer.parseInt(args[1].replace("#", "")), clientJID);
+            } catch (NumberFormatException ex) {
+                return "Invalid job id: " + args[1];
+            }
+            return page == null ? "There is no stored output of job " + args[1] : page;
+        }
+        Job job;
+        try {
+            job = this.commandQueue.getJobRegistry().getJob(Integer.parseInt(args[1].replace("#", "")));
+        } catch (NumberFormatException ex) {
+            return "Invalid job id: " + args[1];
+        }
+        if (job == null || !this.isJobOfClient(job, clientJID)) {
+            return "There is no job " + args[1];
+        }
+        if (args[0].equals(this.CANCEL_CMD)) {
+            return this.commandQueue.cancel(job.getId()) ? "Cancelled job #" + job.getId() : "Job #" + job.getId() + " is already finished.";
+        }
+        if (!job.getScriptThread().attachClient(clientJID, true)) {
+            return "Job #" + job.getId() + " is already finished.";
+        }
+        return "Attached to job #" + job.getId() + ". You will get its output.";
+    }
+
+    private boolean isWatchCommand(String cmd) {
+        String name = cmd.trim().split("\\s+")[0];
+        return name.equals(this.WATCH_CMD) || name.equals(this.UNWATCH_CMD);
+    }
+
+    /**
+     * Executes watch or unwatch for a client. Clients can only stop their own
+     * watches, the administrator can stop all watches.
+     * @param cmd the command with its arguments
+     * @param clientJID the JID of the client
+     * @return the answer for the client
+     */
+    private String handleWatchCommand(String cmd, String clientJID) {
+        String[] args = cmd.trim().split("\\s+");
+        WatchManager watchManager = WatchManager.getInstance();
+        if (args[0].equals(this.UNWATCH_CMD)) {
+            if (args.length < 2) {
+                return "Usage: unwatch <watch id>";
+            }
+            WatchManager.Watch watch;
+            try {
+                watch = watchManager.getWatch(Integer.parseInt(args[1].replace("#", "")));
+            } catch (NumberFormatException ex) {
+                return "Invalid watch id: " + args[1];
+            }
+            if (watch == null || !(clientJID.equalsIgnoreCase(watch.getClientJID()) || this.isAdmin(clientJID))) {
+                return "There is no watch " + args[1];
+            }
+            watchManager.removeWatch(watch.getId());
+            return "Stopped watch " + watch;
+        }
+
+        if (args.length == 1) {
+            StringBuilder watchList = new StringBuilder();
+            watchManager.getWatches(clientJID).forEach(watch -> watchList.append(watch).append("\n"));
+            return watchList.length() == 0 ? "There are no watches." : watchList.toString().trim();
+        }
+        if (args.length != 3) {
+            return "Usage: watch <command> <interval>";
+        }
+        try {
+            return "Started watch " + watchManager.addWatch(args[1], clientJID, WatchManager.parseInterval(args[2]));
+        } catch (IllegalArgumentException ex) {
+            return ex.getMessage();
+        }
+    }
+
+    private boolean isAdmin(String clientJID) {
+        String adminJID = BotConfiguration.getInstance().getAdminJID();
+        return adminJID != null && adminJID.equalsIgnoreCase(clientJID);
+    }
+
+    private boolean isJobOfClient(Job job, String clientJID) {
+        return clientJID.equalsIgnoreCase(job.getRequester()) || this.isAdmin(clientJID);
+    }
+
+    /**
+     * Returns the cached output of a command, so it doesn't have to be executed again.
+     * @param command the command
+     * @return the output or null if the command isn't cached or the cached output has expired
+     */
+    private String getCachedResult(Command command) {
+        if (command.getCacheTtl() <= 0) {
+            return null;
+        }
+        return ResultCache.getInstance().get(command.getCacheKey());
+    }
+
+    private String getRejectionMessage(CommandQueue.Result result) {
+        if (result == CommandQueue.Result.QUEUE_FULL) {
+            return "Too many commands are waiting for execution. Please try it again later.";
+        }
+        if (result == CommandQueue.Result.CLIENT_LIMIT) {
+            return "You have too many unfinished commands. Please wait until one of them has finished.";
+        }
+        if (result == CommandQueue.Result.ATTACHED) {
+            return "This command is already running. You will get the output of the running execution.";
+        }
+        return "Already running this command";
+    }
+
     @Override
     public String getAllCommandsAsString() {
         return this.commandList.toString();
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.cmd.exec.Job;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class AttachCommand extends AbstractBotCommand {
+
+    private final CommandQueue commandQueue;
+
+    public AttachCommand(CommandQueue commandQueue) {
+        super("/attach", Optional.of("[job id] [JID]"), "Sends the output of a running job to a [JID] or prints its last output");
+        this.commandQueue = commandQueue;
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) throws IllegalArgumentException {
+        if (!params.isPresent()) {
+            throw new IllegalArgumentException("Error: To attach to a job you need to call.\n" + this.usage());
+        }
+        String[] args = params.get().trim().split("\\s+");
+        Job job;
+        try {
+            job = this.commandQueue.getJobRegistry().getJob(Integer.parseInt(args[0].replace("#", "")));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Error: Invalid job id.\n" + this.usage());
+        }
+        String jid = args.length > 1 ? args[1] : null;
+        if (job == null || !job.getScriptThread().attachClient(jid, true)) {
+            System.out.println("There is no running job #" + args[0]);
+        } else if (jid != null) {
+            System.out.println("Attached " + jid + " to job #" + job.getId());
+        }
+        return true;
+    }
+
+}
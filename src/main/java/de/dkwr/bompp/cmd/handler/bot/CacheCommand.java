@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.exec.ResultCache;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class CacheCommand extends AbstractBotCommand {
+
+    private static final String CLEAR_PARAM = "clear";
+
+    public CacheCommand() {
+        super("/cache", Optional.of("[clear]"), "Prints the state of the result cache or clears it");
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) throws IllegalArgumentException {
+        ResultCache cache = ResultCache.getInstance();
+        if (params.isPresent()) {
+            if (!params.get().equalsIgnoreCase(CLEAR_PARAM)) {
+                throw new IllegalArgumentException("Error: Unknown parameter.\n" + this.usage());
+            }
+            cache.clear();
+            System.out.println("Cache cleared.");
+            return true;
+        }
+        System.out.println("Cached results: " + cache.getSize()
+                + "\nHits: " + cache.getHits()
+                + "\nMisses: " + cache.getMisses());
+        return true;
+    }
+
+}
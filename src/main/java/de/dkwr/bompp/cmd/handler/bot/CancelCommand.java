@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.exec.CommandQueue;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class CancelCommand extends AbstractBotCommand {
+
+    private final CommandQueue commandQueue;
+
+    public CancelCommand(CommandQueue commandQueue) {
+        super("/cancel", Optional.of("[job id]"), "Cancels a job and terminates its processes", 1);
+        this.commandQueue = commandQueue;
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) throws IllegalArgumentException {
+        if (!this.paramsNumberValid(params)) {
+            throw new IllegalArgumentException("Error: To cancel a job you need to call.\n" + this.usage());
+        }
+        int jobId;
+        try {
+            jobId = Integer.parseInt(params.get().replace("#", ""));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Error: Invalid job id.\n" + this.usage());
+        }
+        if (this.commandQueue.cancel(jobId)) {
+            System.out.println("Cancelled job #" + jobId);
+        } else {
+            System.out.println("There is no unfinished job #" + jobId);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.cmd.exec.Job;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class JobsCommand extends AbstractBotCommand {
+
+    private final CommandQueue commandQueue;
+
+    public JobsCommand(CommandQueue commandQueue) {
+        super("/jobs", Optional.empty(), "Lists the unfinished and the last finished jobs");
+        this.commandQueue = commandQueue;
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) {
+        List<Job> jobs = this.commandQueue.getJobRegistry().getFinishedJobs();
+        jobs.addAll(this.commandQueue.getJobRegistry().getAllJobs());
+        if (jobs.isEmpty()) {
+            System.out.println("There are no jobs.");
+            return true;
+        }
+        jobs.forEach(job -> System.out.println(job.getStatusLine()));
+        return true;
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.exec.OutputStore;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class MoreCommand extends AbstractBotCommand {
+
+    public MoreCommand() {
+        super("/more", Optional.of("[job id]"), "Prints the next page of the stored output of a job", 1);
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) throws IllegalArgumentException {
+        if (!this.paramsNumberValid(params)) {
+            throw new IllegalArgumentException("Error: To read a stored output you need to call.\n" + this.usage());
+        }
+        String page;
+        try {
+            page = OutputStore.getInstance().more(Integer.parseInt(params.get().replace("#", "")), null);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Error: Invalid job id.\n" + this.usage());
+        }
+        System.out.println(page == null ? "There is no stored output of job " + params.get() : page);
+        return true;
+    }
+
+}
@@ -16,7 +16,9 @@
  */
 package de.dkwr.bompp.cmd.handler.bot;
 
+import de.dkwr.bompp.cmd.exec.DurationEstimator;
 import de.dkwr.bompp.util.BotLogger;
+import de.dkwr.bompp.util.Command;
 import de.dkwr.bompp.util.CommandList;
 import java.util.Optional;
 
@@ -33,7 +35,12 @@ public class PrintCommandsCommand extends AbstractBotCommand {
     @Override
     public boolean exec(String cmd, Optional<String> params) {
         try {
-            System.out.println(CommandList.getInstance().toString());
+            DurationEstimator estimator = DurationEstimator.getInstance();
+            for (Command command : CommandList.getInstance().getCommands()) {
+                long estimate = estimator.getEstimate(command.getCommandName());
+                System.out.println(command.toString() + (estimate < 0 ? " (no duration measured)"
+                        : " (expected duration: " + estimate + " ms, " + estimator.getRuns(command.getCommandName()) + " runs)"));
+            }
         } catch (Exception ex) {
             BotLogger.getInstance().logException(ex);
             return false;
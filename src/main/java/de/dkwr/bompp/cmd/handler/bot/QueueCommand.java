@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.cmd.exec.JobQueue;
+import de.dkwr.bompp.cmd.exec.Priority;
+import de.dkwr.bompp.cmd.exec.ThreadBackend;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class QueueCommand extends AbstractBotCommand {
+
+    private final CommandQueue commandQueue;
+
+    public QueueCommand(CommandQueue commandQueue) {
+        super("/queue", Optional.empty(), "Prints the state of the command queue");
+        this.commandQueue = commandQueue;
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) {
+        System.out.println("Backend: " + ThreadBackend.getInstance().getBackend()
+                + "\nRunning: " + this.commandQueue.getActiveCount()
+                + "\nWaiting: " + this.commandQueue.getQueueDepth()
+                + "\nRejected: " + this.commandQueue.getRejectedCount()
+                + "\nDropped: " + this.commandQueue.getDroppedCount());
+        JobQueue jobQueue = this.commandQueue.getJobQueue();
+        for (Priority priority : Priority.values()) {
+            long[] waitStats = jobQueue.getWaitStats(priority);
+            System.out.println(priority + ": " + jobQueue.getWaitingCount(priority) + " waiting, "
+                    + waitStats[0] + " started, wait avg " + waitStats[1] + " ms max " + waitStats[2] + " ms");
+        }
+        return true;
+    }
+
+}
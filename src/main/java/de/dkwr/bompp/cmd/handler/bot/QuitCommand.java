@@ -17,6 +17,12 @@
 package de.dkwr.bompp.cmd.handler.bot;
 
 import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.cmd.exec.OutputMultiplexer;
+import de.dkwr.bompp.cmd.exec.OutputStore;
+import de.dkwr.bompp.cmd.exec.WorkerPoolManager;
+import de.dkwr.bompp.cmd.schedule.ScheduleManager;
+import de.dkwr.bompp.cmd.schedule.WatchManager;
+import de.dkwr.bompp.xmpp.upload.ResultUploader;
 import de.dkwr.bompp.util.BotLogger;
 import de.dkwr.bompp.util.ConfigFileWatcher;
 import de.dkwr.bompp.util.StaticScanner;
@@ -44,6 +50,12 @@ public class QuitCommand extends AbstractBotCommand {
                 this.omemoController.closeConnection();
                 StaticScanner.close();
                 this.commandQueue.quitCommandExecution();
+                WorkerPoolManager.getInstance().shutdown();
+                WatchManager.getInstance().shutdown();
+                ScheduleManager.getInstance().shutdown();
+                OutputMultiplexer.getInstance().shutdown();
+                OutputStore.getInstance().clear();
+                ResultUploader.getInstance().shutdown();
                 ConfigFileWatcher.getInstance().stopWatching();
             } catch (Exception ex) {
                 BotLogger.getInstance().logException(ex);
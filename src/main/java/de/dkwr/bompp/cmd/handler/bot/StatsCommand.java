@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.exec.DurationEstimator;
+import de.dkwr.bompp.cmd.exec.ResourceStats;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class StatsCommand extends AbstractBotCommand {
+
+    public StatsCommand() {
+        super("/stats", Optional.empty(), "Prints the resources the executions of each command have used");
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) {
+        List<ResourceStats.CommandStats> stats = ResourceStats.getInstance().getStats();
+        if (stats.isEmpty()) {
+            System.out.println("No command has been executed yet.");
+            return true;
+        }
+        for (ResourceStats.CommandStats commandStats : stats) {
+            long estimate = DurationEstimator.getInstance().getEstimate(commandStats.getCommandName());
+            System.out.println(commandStats + (estimate >= 0 ? ", duration ~" + estimate + " ms" : ""));
+        }
+        return true;
+    }
+
+}
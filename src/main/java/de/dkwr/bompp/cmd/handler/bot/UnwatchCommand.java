@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.schedule.WatchManager;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class UnwatchCommand extends AbstractBotCommand {
+
+    public UnwatchCommand() {
+        super("/unwatch", Optional.of("[watch id]"), "Stops a watch", 1);
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) throws IllegalArgumentException {
+        if (!this.paramsNumberValid(params)) {
+            throw new IllegalArgumentException("Error: To stop a watch you need to call.\n" + this.usage());
+        }
+        WatchManager.Watch watch;
+        try {
+            watch = WatchManager.getInstance().removeWatch(Integer.parseInt(params.get().replace("#", "")));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Error: Invalid watch id.\n" + this.usage());
+        }
+        if (watch == null) {
+            System.out.println("There is no watch " + params.get());
+        } else {
+            System.out.println("Stopped watch " + watch);
+        }
+        return true;
+    }
+
+}
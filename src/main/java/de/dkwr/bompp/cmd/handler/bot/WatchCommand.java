@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.handler.bot;
+
+import de.dkwr.bompp.cmd.schedule.WatchManager;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ *
+ * @author Dennis Kawurek
+ */
+public class WatchCommand extends AbstractBotCommand {
+
+    public WatchCommand() {
+        super("/watch", Optional.of("[command] [interval]"), "Executes a command every interval (e.g. 30s) and prints changed lines, lists the watches without params");
+    }
+
+    @Override
+    public boolean exec(String cmd, Optional<String> params) throws IllegalArgumentException {
+        WatchManager watchManager = WatchManager.getInstance();
+        if (!params.isPresent()) {
+            List<WatchManager.Watch> watches = watchManager.getWatches(null);
+            if (watches.isEmpty()) {
+                System.out.println("There are no watches.");
+            }
+            watches.forEach(System.out::println);
+            return true;
+        }
+        String[] args = params.get().trim().split("\\s+");
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Error: To watch a command you need to call.\n" + this.usage());
+        }
+        WatchManager.Watch watch = watchManager.addWatch(args[0].toLowerCase(), null, WatchManager.parseInterval(args[1]));
+        System.out.println("Started watch " + watch);
+        return true;
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.schedule;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A CronExpression describes when a scheduled command is executed. It is either
+ * a cron expression with the five fields "minute hour day-of-month month day-of-week",
+ * e.g. "*&#47;15 8-18 * * 1-5", or a fixed interval like "@every 30s".<br/>
+ * The fields support *, single values, ranges (a-b), lists (a,b) and steps (*&#47;n, a-b/n).
+ * Day of week 0 and 7 are Sunday. If both day fields are restricted, a day matches
+ * if one of them matches, like in cron. A day field which starts with * (e.g. *&#47;2)
+ * isn't restricted. The shortcuts @hourly, @daily, @weekly,
+ * @monthly and @yearly are supported as well.
+ *
+ * @author Dennis Kawurek
+ */
+public class CronExpression {
+
+    private static final String EVERY_PREFIX = "@every ";
+    private static final int MAX_SEARCH_DAYS = 366 * 5; // e.g. February 29th on a Monday
+
+    private final String expression;
+    private final long interval; // > 0 for fixed intervals
+    private BitSet minutes;
+    private BitSet hours;
+    private BitSet daysOfMonth;
+    private BitSet months;
+    private BitSet daysOfWeek;
+    private boolean dayOfMonthRestricted;
+    private boolean dayOfWeekRestricted;
+
+    /**
+     * Parses a cron expression or a fixed interval.
+     *
+     * @param expression the expression
+     * @throws IllegalArgumentException if the expression is invalid or never matches
+     */
+    public CronExpression(String expression) {
+        this.expression = expression.trim();
+        String cron = this.replaceShortcut(this.expression.toLowerCase(Locale.ROOT));
+        if (cron.startsWith(EVERY_PREFIX)) {
+            this.interval = parseInterval(cron.substring(EVERY_PREFIX.length()).trim());
+            return;
+        }
+        this.interval = 0;
+        String[] fields = cron.split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("A cron expression needs 5 fields: " + expression);
+        }
+        this.minutes = parseField(fields[0], 0, 59);
+        this.hours = parseField(fields[1], 0, 23);
+        this.daysOfMonth = parseField(fields[2], 1, 31);
+        this.months = parseField(fields[3], 1, 12);
+        this.daysOfWeek = parseField(fields[4], 0, 7);
+        if (this.daysOfWeek.get(7)) {
+            this.daysOfWeek.set(0);
+        }
+        // like in cron, a field which starts with * counts as unrestricted, even with a step
+        this.dayOfMonthRestricted = !fields[2].startsWith("*");
+        this.dayOfWeekRestricted = !fields[4].startsWith("*");
+        try {
+            // e.g. 0 0 30 2 * is valid field by field, but there is no February 30th
+            this.next(System.currentTimeMillis());
+        } catch (IllegalStateException ex) {
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the next time after the given time at which the command is due.
+     *
+     * @param after time in ms since the epoch
+     * @return the next time in ms since the epoch
+     */
+    public long next(long after) {
+        if (this.interval > 0) {
+            return after + this.interval;
+        }
+        ZonedDateTime time = Instant.ofEpochMilli(after).atZone(ZoneId.systemDefault())
+                .truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        ZonedDateTime limit = time.plusDays(MAX_SEARCH_DAYS);
+        while (time.isBefore(limit)) {
+            if (!this.months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!this.dayMatches(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!this.hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!this.minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+            } else {
+                return time.toInstant().toEpochMilli();
+            }
+        }
+        throw new IllegalStateException("The cron expression never matches: " + this.expression);
+    }
+
+    /**
+     * Returns the interval of a fixed interval expression.
+     *
+     * @return the interval in ms or 0 for a cron expression
+     */
+    public long getInterval() {
+        return this.interval;
+    }
+
+    @Override
+    public String toString() {
+        return this.expression;
+    }
+
+    private boolean dayMatches(ZonedDateTime time) {
+        boolean dayOfMonth = this.daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeek = this.daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (this.dayOfMonthRestricted && this.dayOfWeekRestricted) {
+            return dayOfMonth || dayOfWeek;
+        }
+        return dayOfMonth && dayOfWeek;
+    }
+
+    private String replaceShortcut(String cron) {
+        switch (cron) {
+            case "@hourly":
+                return "0 * * * *";
+            case "@daily":
+                return "0 0 * * *";
+            case "@weekly":
+                return "0 0 * * 0";
+            case "@monthly":
+                return "0 0 1 * *";
+            case "@yearly":
+                return "0 0 1 1 *";
+            default:
+                return cron;
+        }
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseNumber(part.substring(slash + 1), 1, max);
+                part = part.substring(0, slash);
+            }
+            int start;
+            int end;
+            if (part.equals("*")) {
+                start = min;
+                end = max;
+            } else if (part.contains("-")) {
+                String[] range = part.split("-", 2);
+                start = parseNumber(range[0], min, max);
+                end = parseNumber(range[1], start, max);
+            } else {
+                start = parseNumber(part, min, max);
+                end = slash >= 0 ? max : start;
+            }
+            for (int i = start; i <= end; i += step) {
+                values.set(i);
+            }
+        }
+        return values;
+    }
+
+    private static int parseNumber(String number, int min, int max) {
+        try {
+            int value = Integer.parseInt(number);
+            if (value < min || value > max) {
+                throw new IllegalArgumentException("Value " + value + " is not between " + min + " and " + max);
+            }
+            return value;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid number in cron expression: " + number);
+        }
+    }
+
+    /**
+     * Parses an interval like 90s, 5m, 2h or 1d.
+     *
+     * @param interval the interval
+     * @return the interval in ms
+     * @throws IllegalArgumentException if the interval is invalid
+     */
+    static long parseInterval(String interval) {
+        if (interval.length() < 2) {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        long unit;
+        switch (interval.charAt(interval.length() - 1)) {
+            case 's':
+                unit = TimeUnit.SECONDS.toMillis(1);
+                break;
+            case 'm':
+                unit = TimeUnit.MINUTES.toMillis(1);
+                break;
+            case 'h':
+                unit = TimeUnit.HOURS.toMillis(1);
+                break;
+            case 'd':
+                unit = TimeUnit.DAYS.toMillis(1);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid unit of interval: " + interval);
+        }
+        long value = parseNumber(interval.substring(0, interval.length() - 1), 1, Integer.MAX_VALUE);
+        return value * unit;
+    }
+}
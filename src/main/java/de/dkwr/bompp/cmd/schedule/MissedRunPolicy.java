@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.schedule;
+
+/**
+ * Defines what happens when a scheduled command couldn't be executed at its time,
+ * e.g. because the bot was suspended, the command was still running or the
+ * queue was full.
+ *
+ * @author Dennis Kawurek
+ */
+public enum MissedRunPolicy {
+    SKIP, // the missed run is dropped, the command is executed again at its next time
+    RUN_ONCE // all missed runs are caught up with one execution as soon as possible
+}
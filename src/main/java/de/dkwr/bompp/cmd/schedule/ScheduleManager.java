@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.schedule;
+
+import de.dkwr.bompp.cmd.exec.AbstractScriptThread;
+import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.cmd.workflow.WorkflowRun;
+import de.dkwr.bompp.util.BotConfiguration;
+import de.dkwr.bompp.util.BotLogger;
+import de.dkwr.bompp.util.Command;
+import de.dkwr.bompp.xmpp.OmemoController;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The ScheduleManager executes the commands which have a schedule in the config
+ * file. All schedules share one {@link TimingWheel}. The due commands are added
+ * to the {@link CommandQueue} by one submitter thread, so a full queue with the
+ * policy BLOCK doesn't stop the wheel. While the submitter is blocked the due
+ * commands wait, a run which starts too late counts as missed. The output is
+ * sent to the schedule_jid of the command, or to the administrator.<br/>
+ * When the config file is reloaded, unchanged schedules keep their timers and
+ * changed or removed ones are cancelled, so there are no duplicate timers.
+ * ScheduleManager is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class ScheduleManager {
+
+    private static final ScheduleManager INSTANCE = new ScheduleManager();
+    private static final long TICK_DURATION = 1000;
+    private static final int BUCKET_COUNT = 512;
+    private static final long MISFIRE_TOLERANCE = 60000; // a run which starts later than this is missed
+    private static final long RETRY_DELAY = 30000; // time in ms until a missed run is tried again with RUN_ONCE
+
+    private final TimingWheel timingWheel = new TimingWheel("schedule", TICK_DURATION, BUCKET_COUNT);
+    private final ExecutorService submitter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "schedule submitter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, ScheduledCommand> schedules = new HashMap<>();
+    private CommandQueue commandQueue;
+    private OmemoController omemoController;
+    private boolean started = false;
+
+    /**
+     * The schedule of one command.
+     */
+    private class ScheduledCommand {
+
+        private volatile Command command;
+        private volatile boolean active = true;
+        private TimingWheel.Timeout timeout;
+
+        private ScheduledCommand(Command command) {
+            this.command = command;
+        }
+
+        /**
+         * Plans the next run after the given time.
+         */
+        private void planNext(long after) {
+            this.plan(this.command.getSchedule().next(after));
+        }
+
+        /**
+         * Plans a run at the given time plus a random jitter.
+         */
+        private void plan(long planned) {
+            long jitter = this.command.getScheduleJitter() > 0 ? ThreadLocalRandom.current().nextLong(this.command.getScheduleJitter() + 1) : 0;
+            this.planAt(planned, planned + jitter);
+        }
+
+        private synchronized void planAt(long planned, long due) {
+            if (this.active) {
+                this.timeout = timingWheel.schedule(() -> submit(() -> this.fire(planned, due)), due - System.currentTimeMillis());
+            }
+        }
+
+        private void fire(long planned, long due) {
+            if (!this.active) {
+                return;
+            }
+            Command cmd = this.command;
+            long now = System.currentTimeMillis();
+            boolean executed = false;
+            if (now - due > MISFIRE_TOLERANCE && cmd.getMissedRunPolicy() == MissedRunPolicy.SKIP) {
+                BotLogger.getInstance().logMsg("Skipped the scheduled run of " + cmd.getCommandName() + ", it is " + (now - due) / 1000 + " s late.");
+            } else {
+                executed = this.execute(cmd);
+            }
+
+            long next = cmd.getSchedule().next(planned);
+            if (next <= now) {
+                // the runs between the planned time and now have been missed as well, they are caught up by this run or skipped
+                next = cmd.getSchedule().next(now);
+            }
+            if (!executed && cmd.getMissedRunPolicy() == MissedRunPolicy.RUN_ONCE && now + RETRY_DELAY < next) {
+                this.planAt(planned, now + RETRY_DELAY);
+            } else {
+                this.plan(next);
+            }
+        }
+
+        private boolean execute(Command cmd) {
+            String target = cmd.getScheduleJID() != null ? cmd.getScheduleJID() : BotConfiguration.getInstance().getAdminJID();
+            if (cmd.isWorkflow()) {
+                WorkflowRun.create(cmd, target, commandQueue, omemoController).start();
+                return true;
+            }
+            AbstractScriptThread scriptThread = AbstractScriptThread.create(cmd, target, true, omemoController);
+            CommandQueue.Result result = commandQueue.addToQueue(cmd.getCommandName(), scriptThread);
+            if (result != CommandQueue.Result.ADDED) {
+                BotLogger.getInstance().logMsg("The scheduled run of " + cmd.getCommandName() + " couldn't be executed: " + result);
+                return false;
+            }
+            return true;
+        }
+
+        private synchronized void cancel() {
+            this.active = false;
+            if (this.timeout != null) {
+                this.timeout.cancel();
+            }
+        }
+    }
+
+    private ScheduleManager() {
+    }
+
+    public static ScheduleManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the execution of the scheduled commands.
+     *
+     * @param commandQueue the queue to add the commands to
+     * @param omemoController the OmemoController to send the output
+     */
+    public synchronized void start(CommandQueue commandQueue, OmemoController omemoController) {
+        this.commandQueue = commandQueue;
+        this.omemoController = omemoController;
+        this.started = true;
+        long now = System.currentTimeMillis();
+        this.schedules.values().forEach(scheduledCommand -> scheduledCommand.planNext(now));
+    }
+
+    /**
+     * Sets the commands after the config file has been (re)loaded. Commands
+     * without a schedule are ignored.
+     *
+     * @param commands all commands of the config file
+     */
+    public synchronized void setCommands(List<Command> commands) {
+        Map<String, Command> scheduledCommands = new HashMap<>();
+        for (Command command : commands) {
+            if (command.getSchedule() != null) {
+                scheduledCommands.put(command.getCommandName(), command);
+            }
+        }
+
+        this.schedules.entrySet().removeIf(entry -> {
+            Command command = scheduledCommands.get(entry.getKey());
+            if (command != null && this.hasSameSchedule(entry.getValue().command, command)) {
+                entry.getValue().command = command;
+                return false;
+            }
+            entry.getValue().cancel();
+            return true;
+        });
+
+        long now = System.currentTimeMillis();
+        for (Command command : scheduledCommands.values()) {
+            if (!this.schedules.containsKey(command.getCommandName())) {
+                ScheduledCommand scheduledCommand = new ScheduledCommand(command);
+                this.schedules.put(command.getCommandName(), scheduledCommand);
+                if (this.started) {
+                    scheduledCommand.planNext(now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the wheel which runs the timers of the schedules. It can be used
+     * for other timers with a precision of one second.
+     *
+     * @return the TimingWheel
+     */
+    public TimingWheel getTimingWheel() {
+        return this.timingWheel;
+    }
+
+    /**
+     * Runs a task of a timer in the submitter thread instead of the wheel
+     * thread. Timers which add commands to the {@link CommandQueue} have to
+     * use it, because adding may block until there is a free place. The tasks
+     * run one after the other, so blocked tasks don't cost a thread each.
+     *
+     * @param task the task
+     */
+    void submit(Runnable task) {
+        if (!this.submitter.isShutdown()) {
+            this.submitter.execute(task);
+        }
+    }
+
+    /**
+     * Returns the number of scheduled commands.
+     *
+     * @return number of commands
+     */
+    public synchronized int getSize() {
+        return this.schedules.size();
+    }
+
+    /**
+     * Stops all schedules.
+     */
+    public synchronized void shutdown() {
+        this.schedules.values().forEach(ScheduledCommand::cancel);
+        this.schedules.clear();
+        this.timingWheel.stop();
+        this.submitter.shutdown();
+    }
+
+    private boolean hasSameSchedule(Command oldCommand, Command newCommand) {
+        return oldCommand.getSchedule().toString().equals(newCommand.getSchedule().toString())
+                && oldCommand.getScheduleJitter() == newCommand.getScheduleJitter()
+                && Objects.equals(oldCommand.getScheduleJID(), newCommand.getScheduleJID())
+                && oldCommand.getMissedRunPolicy() == newCommand.getMissedRunPolicy();
+    }
+}
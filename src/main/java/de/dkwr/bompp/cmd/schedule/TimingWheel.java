@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.schedule;
+
+import de.dkwr.bompp.util.BotLogger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The TimingWheel is a hashed timing wheel which runs delayed tasks in a single
+ * Thread.<br/>
+ * The wheel has a fixed number of buckets and advances one bucket per tick. A
+ * task is put into the bucket of its due tick and remembers how many turns of
+ * the wheel it has to wait. So adding and cancelling a task is O(1), and one
+ * tick only looks at the tasks of one bucket, no matter how many tasks there are.
+ * Tasks are executed in the wheel thread and have to return fast.
+ *
+ * @author Dennis Kawurek
+ */
+public class TimingWheel {
+
+    /**
+     * A task which has been added to the wheel.
+     */
+    public static class Timeout {
+
+        private final Runnable task;
+        private final long deadline; // tick at which the task is due
+        private long remainingRounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task, if it hasn't been executed yet.
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+    }
+
+    private final long tickDuration;
+    private final List<List<Timeout>> buckets;
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final String name;
+    private final long startTime = System.nanoTime();
+    private long tick = 0; // only used by the wheel thread
+    private Thread wheelThread;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a new TimingWheel. The Thread is started with the first task.
+     *
+     * @param name the name of the wheel thread
+     * @param tickDuration duration of a tick in ms, this is the precision of the wheel
+     * @param bucketCount number of buckets, one turn of the wheel takes tickDuration * bucketCount ms
+     */
+    public TimingWheel(String name, long tickDuration, int bucketCount) {
+        this.name = name;
+        this.tickDuration = tickDuration;
+        this.buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            this.buckets.add(new LinkedList<>());
+        }
+    }
+
+    /**
+     * Adds a task, which is executed after the delay.
+     *
+     * @param task the task
+     * @param delay the delay in ms, the task is executed in the first tick after it
+     * @return the Timeout to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startTime);
+        long deadline = (elapsed + Math.max(0, delay) + this.tickDuration - 1) / this.tickDuration;
+        Timeout timeout = new Timeout(task, deadline);
+        this.newTimeouts.add(timeout);
+        this.startIfNecessary();
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel thread. Tasks which haven't been executed are dropped.
+     */
+    public synchronized void stop() {
+        this.stopped = true;
+        if (this.wheelThread != null) {
+            this.wheelThread.interrupt();
+        }
+    }
+
+    private synchronized void startIfNecessary() {
+        if (this.wheelThread == null && !this.stopped) {
+            this.wheelThread = new Thread(this::runWheel, this.name);
+            this.wheelThread.setDaemon(true);
+            this.wheelThread.start();
+        }
+    }
+
+    private void runWheel() {
+        while (!this.stopped) {
+            long nextTickTime = (this.tick + 1) * this.tickDuration;
+            long sleepTime = nextTickTime - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startTime);
+            if (sleepTime > 0) {
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            this.tick++;
+            this.transferNewTimeouts();
+            this.expireTimeouts(this.buckets.get((int) (this.tick % this.buckets.size())));
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = this.newTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long deadline = Math.max(timeout.deadline, this.tick); // timeouts which are already due run in this tick
+            timeout.remainingRounds = (deadline - this.tick) / this.buckets.size();
+            this.buckets.get((int) (deadline % this.buckets.size())).add(timeout);
+        }
+    }
+
+    private void expireTimeouts(List<Timeout> bucket) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (Exception ex) {
+                    BotLogger.getInstance().logException(ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.schedule;
+
+import de.dkwr.bompp.cmd.exec.AbstractScriptThread;
+import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.util.BotLogger;
+import de.dkwr.bompp.util.Command;
+import de.dkwr.bompp.util.CommandList;
+import de.dkwr.bompp.util.LineDiff;
+import de.dkwr.bompp.xmpp.OmemoController;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The WatchManager executes watched commands periodically and sends only the
+ * lines which have changed since the last execution to the client. If nothing
+ * has changed, nothing is sent.<br/>
+ * The watches use the {@link TimingWheel} of the {@link ScheduleManager} and
+ * add the executions to the {@link CommandQueue}. A watch doesn't start a new
+ * execution while the last one is still waiting or running.
+ * WatchManager is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class WatchManager {
+
+    private static final WatchManager INSTANCE = new WatchManager();
+    private static final long MIN_INTERVAL = 5000;
+    private static final int MAX_WATCHES_PER_CLIENT = 10;
+    private static final int MAX_DIFF_LINES = 500; // if more lines have changed, the whole output is sent
+
+    private final Map<Integer, Watch> watches = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private CommandQueue commandQueue;
+    private OmemoController omemoController;
+
+    /**
+     * A watched command of a client.
+     */
+    public class Watch {
+
+        private final int id;
+        private final String cmd;
+        private final String clientJID;
+        private final long interval;
+        private volatile boolean active = true;
+        private TimingWheel.Timeout timeout;
+        private volatile AbstractScriptThread currentExecution;
+        private String lastOutput = null; // guarded by this
+        private int lastExitCode = 0;
+
+        private Watch(int id, String cmd, String clientJID, long interval) {
+            this.id = id;
+            this.cmd = cmd;
+            this.clientJID = clientJID;
+            this.interval = interval;
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public String getCommandName() {
+            return this.cmd;
+        }
+
+        /**
+         * Returns the JID of the client which gets the changes.
+         * @return the JID or null for the bot CLI
+         */
+        public String getClientJID() {
+            return this.clientJID;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + this.id + " " + this.cmd + " every " + TimeUnit.MILLISECONDS.toSeconds(this.interval) + " s"
+                    + (this.clientJID != null ? " for " + this.clientJID : "");
+        }
+
+        private void tick() {
+            if (!this.active) {
+                return;
+            }
+            Command command = CommandList.getInstance().getCommand(this.cmd);
+            if (command == null || command.isWorkflow()) {
+                removeWatch(this.id);
+                send(this.clientJID, "Stopped watch #" + this.id + ", the command " + this.cmd + " doesn't exist anymore.");
+                return;
+            }
+            if (!this.isExecutionPending()) {
+                AbstractScriptThread scriptThread = AbstractScriptThread.create(command, this.clientJID, true, omemoController);
+                scriptThread.setExecutionListener(this::executionFinished);
+                if (commandQueue.addToQueue(this.cmd, scriptThread) == CommandQueue.Result.ADDED) {
+                    this.currentExecution = scriptThread;
+                }
+            }
+            this.schedule(this.interval);
+        }
+
+        private synchronized void schedule(long delay) {
+            if (this.active) {
+                this.timeout = ScheduleManager.getInstance().getTimingWheel().schedule(
+                        () -> ScheduleManager.getInstance().submit(this::tick), delay);
+            }
+        }
+
+        private boolean isExecutionPending() {
+            AbstractScriptThread execution = this.currentExecution;
+            return execution != null && commandQueue.getJobRegistry().getJobs(this.cmd).stream()
+                    .anyMatch(job -> job.getScriptThread() == execution);
+        }
+
+        private synchronized void executionFinished(int exitCode, String output) {
+            if (!this.active) {
+                return;
+            }
+            StringBuilder message = new StringBuilder();
+            if (this.lastOutput == null) {
+                message.append("Watching ").append(this).append(":\n").append(output);
+            } else {
+                List<String> changes = LineDiff.diff(this.lastOutput, output, MAX_DIFF_LINES);
+                if (changes != null && changes.isEmpty() && exitCode == this.lastExitCode) {
+                    return;
+                }
+                message.append("Changes of ").append(this.cmd).append(" (watch #").append(this.id).append("):");
+                if (exitCode != this.lastExitCode) {
+                    message.append("\nExit code: ").append(exitCode);
+                }
+                if (changes == null) {
+                    message.append("\n").append(output);
+                } else if (!changes.isEmpty()) {
+                    message.append("\n").append(String.join("\n", changes));
+                }
+            }
+            this.lastOutput = output;
+            this.lastExitCode = exitCode;
+            send(this.clientJID, message.toString().trim());
+        }
+
+        private synchronized void cancel() {
+            this.active = false;
+            if (this.timeout != null) {
+                this.timeout.cancel();
+            }
+        }
+    }
+
+    private WatchManager() {
+    }
+
+    public static WatchManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the queue for the executions and the controller to send the changes.
+     *
+     * @param commandQueue the queue to add the commands to
+     * @param omemoController the OmemoController to send the output
+     */
+    public synchronized void start(CommandQueue commandQueue, OmemoController omemoController) {
+        this.commandQueue = commandQueue;
+        this.omemoController = omemoController;
+    }
+
+    /**
+     * Watches a command. It is executed at once and then every interval.
+     *
+     * @param cmd the command name
+     * @param clientJID the JID of the client or null for the bot CLI
+     * @param interval the interval in ms
+     * @return the new watch
+     * @throws IllegalArgumentException if the command doesn't exist, the interval is too short or the client has too many watches
+     */
+    public Watch addWatch(String cmd, String clientJID, long interval) {
+        if (this.commandQueue == null) {
+            throw new IllegalStateException("The WatchManager hasn't been started.");
+        }
+        if (!CommandList.getInstance().cmdExists(cmd)) {
+            throw new IllegalArgumentException("This command doesn't exist.");
+        }
+        if (CommandList.getInstance().getCommand(cmd).isWorkflow()) {
+            throw new IllegalArgumentException("Workflows can't be watched.");
+        }
+        if (interval < MIN_INTERVAL) {
+            throw new IllegalArgumentException("The interval must be at least " + TimeUnit.MILLISECONDS.toSeconds(MIN_INTERVAL) + " s.");
+        }
+        if (clientJID != null && this.getWatches(clientJID).size() >= MAX_WATCHES_PER_CLIENT) {
+            throw new IllegalArgumentException("You can't watch more than " + MAX_WATCHES_PER_CLIENT + " commands.");
+        }
+        Watch watch = new Watch(this.nextId.getAndIncrement(), cmd, clientJID, interval);
+        this.watches.put(watch.id, watch);
+        watch.schedule(0);
+        return watch;
+    }
+
+    /**
+     * Stops a watch.
+     *
+     * @param id the ID of the watch
+     * @return the stopped watch or null if there is no watch with this ID
+     */
+    public Watch removeWatch(int id) {
+        Watch watch = this.watches.remove(id);
+        if (watch != null) {
+            watch.cancel();
+        }
+        return watch;
+    }
+
+    /**
+     * Returns a watch.
+     *
+     * @param id the ID of the watch
+     * @return the watch or null if there is no watch with this ID
+     */
+    public Watch getWatch(int id) {
+        return this.watches.get(id);
+    }
+
+    /**
+     * Returns the watches of a client.
+     *
+     * @param clientJID the JID of the client or null for all watches
+     * @return list of watches
+     */
+    public List<Watch> getWatches(String clientJID) {
+        List<Watch> clientWatches = new ArrayList<>();
+        for (Watch watch : this.watches.values()) {
+            if (clientJID == null || clientJID.equalsIgnoreCase(watch.clientJID)) {
+                clientWatches.add(watch);
+            }
+        }
+        clientWatches.sort((a, b) -> Integer.compare(a.id, b.id));
+        return clientWatches;
+    }
+
+    /**
+     * Stops all watches.
+     */
+    public void shutdown() {
+        this.watches.values().forEach(Watch::cancel);
+        this.watches.clear();
+    }
+
+    /**
+     * Parses the interval of a watch.
+     *
+     * @param interval number of seconds or an interval like 30s, 5m or 1h
+     * @return the interval in ms
+     * @throws IllegalArgumentException if the interval is invalid
+     */
+    public static long parseInterval(String interval) {
+        if (interval.matches("\\d+")) {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(interval));
+        }
+        return CronExpression.parseInterval(interval.toLowerCase());
+    }
+
+    private void send(String clientJID, String message) {
+        if (clientJID == null) {
+            System.out.println(message);
+            return;
+        }
+        try {
+            this.omemoController.sendMessage(this.omemoController.getJid(clientJID), message);
+        } catch (Exception ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+}
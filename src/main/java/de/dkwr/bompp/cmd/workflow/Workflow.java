@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.workflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Workflow is a dependency graph of commands. A step is started when all
+ * steps it depends on have succeeded, independent steps run in parallel.
+ * The graph must not contain cycles.
+ *
+ * @author Dennis Kawurek
+ */
+public class Workflow {
+
+    private final Map<String, List<String>> dependencies = new LinkedHashMap<>(); // in topological order
+    private final Map<String, List<String>> dependents = new HashMap<>();
+
+    /**
+     * Creates a workflow.
+     *
+     * @param dependencies maps the command name of each step to the command names of the steps it depends on.
+     * Steps which don't depend on each other keep the order of this map.
+     * @throws IllegalArgumentException if a step depends on an unknown step or the steps depend on each other in a cycle
+     */
+    public Workflow(Map<String, List<String>> dependencies) {
+        if (dependencies.isEmpty()) {
+            throw new IllegalArgumentException("The workflow has no steps.");
+        }
+        Map<String, Integer> missingDependencies = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> step : dependencies.entrySet()) {
+            this.dependents.put(step.getKey(), new ArrayList<>());
+            missingDependencies.put(step.getKey(), step.getValue().size());
+        }
+        for (Map.Entry<String, List<String>> step : dependencies.entrySet()) {
+            for (String dependency : step.getValue()) {
+                if (!this.dependents.containsKey(dependency)) {
+                    throw new IllegalArgumentException("The step " + step.getKey() + " depends on the unknown step " + dependency + ".");
+                }
+                this.dependents.get(dependency).add(step.getKey());
+            }
+        }
+
+        // Kahn's algorithm, independent steps keep the order of the given map
+        Deque<String> ready = new ArrayDeque<>();
+        missingDependencies.forEach((step, missing) -> {
+            if (missing == 0) {
+                ready.add(step);
+            }
+        });
+        while (!ready.isEmpty()) {
+            String step = ready.poll();
+            this.dependencies.put(step, Collections.unmodifiableList(new ArrayList<>(dependencies.get(step))));
+            for (String dependent : this.dependents.get(step)) {
+                if (missingDependencies.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (this.dependencies.size() < dependencies.size()) {
+            List<String> cycle = new ArrayList<>(dependencies.keySet());
+            cycle.removeAll(this.dependencies.keySet());
+            throw new IllegalArgumentException("The steps " + String.join(", ", cycle) + " depend on each other in a cycle.");
+        }
+    }
+
+    /**
+     * Returns the command names of the steps, each step after the steps it depends on.
+     * @return the steps
+     */
+    public List<String> getSteps() {
+        return new ArrayList<>(this.dependencies.keySet());
+    }
+
+    public List<String> getDependencies(String step) {
+        return this.dependencies.get(step);
+    }
+
+    public List<String> getDependents(String step) {
+        return Collections.unmodifiableList(this.dependents.get(step));
+    }
+
+    @Override
+    public String toString() {
+        List<String> steps = new ArrayList<>();
+        this.dependencies.forEach((step, stepDependencies) -> steps.add(stepDependencies.isEmpty()
+                ? step : step + " after " + String.join(", ", stepDependencies)));
+        return String.join("; ", steps);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.workflow;
+
+import de.dkwr.bompp.cmd.exec.AbstractScriptThread;
+import de.dkwr.bompp.cmd.exec.CommandQueue;
+import de.dkwr.bompp.cmd.exec.ExecutionListener;
+import de.dkwr.bompp.cmd.exec.Job;
+import de.dkwr.bompp.cmd.schedule.ScheduleManager;
+import de.dkwr.bompp.cmd.schedule.TimingWheel;
+import de.dkwr.bompp.util.BotLogger;
+import de.dkwr.bompp.util.Command;
+import de.dkwr.bompp.util.CommandList;
+import de.dkwr.bompp.xmpp.OmemoController;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A WorkflowRun executes the steps of a {@link Workflow} on the
+ * {@link CommandQueue}. All steps whose dependencies have succeeded are added
+ * to the queue at once, so they run in parallel. If a step fails, the steps
+ * which depend on it are skipped.<br/>
+ * When all steps are done or the deadline has passed, the client gets one
+ * summary with the results of all steps. At the deadline all unfinished steps
+ * are cancelled, including the ones which haven't been started yet.
+ *
+ * @author Dennis Kawurek
+ */
+public class WorkflowRun {
+
+    private static final int MAX_STEP_OUTPUT = 2000; // only the end of a longer output is part of the summary
+
+    private enum StepState {
+        WAITING, RUNNING, SUCCEEDED, FAILED, SKIPPED, CANCELLED
+    }
+
+    private final String name;
+    private final Workflow workflow;
+    private final String clientJID;
+    private final CommandQueue commandQueue;
+    private final OmemoController omemoController;
+    private final Map<String, StepState> states = new HashMap<>();
+    private final Map<String, String> results = new HashMap<>();
+    private final Map<String, Long> startTimes = new HashMap<>();
+    private final Map<String, Long> durations = new HashMap<>();
+    private final Map<String, AbstractScriptThread> scriptThreads = new HashMap<>();
+    private long startTime;
+    private int unfinishedSteps;
+    private long deadline = 0;
+    private TimingWheel.Timeout deadlineTimeout;
+
+    /**
+     * Creates a new run.
+     *
+     * @param name the name of the run in the summary, e.g. "Workflow backup"
+     * @param workflow the steps
+     * @param clientJID the JID of the client or null for the bot CLI
+     * @param commandQueue the queue which executes the steps
+     * @param omemoController the OmemoController to send the summary
+     */
+    public WorkflowRun(String name, Workflow workflow, String clientJID, CommandQueue commandQueue, OmemoController omemoController) {
+        this.name = name;
+        this.workflow = workflow;
+        this.clientJID = clientJID;
+        this.commandQueue = commandQueue;
+        this.omemoController = omemoController;
+    }
+
+    /**
+     * Creates a new run of a workflow command. The timeout of the command is
+     * the deadline of the run.
+     *
+     * @param command the command of the workflow
+     * @param clientJID the JID of the client or null for the bot CLI
+     * @param commandQueue the queue which executes the steps
+     * @param omemoController the OmemoController to send the summary
+     * @return the run
+     */
+    public static WorkflowRun create(Command command, String clientJID, CommandQueue commandQueue, OmemoController omemoController) {
+        WorkflowRun run = new WorkflowRun("Workflow " + command.getCommandName(), command.getWorkflow(), clientJID, commandQueue, omemoController);
+        run.setDeadline(command.getTimeout());
+        return run;
+    }
+
+    /**
+     * Sets the time after which the unfinished steps are cancelled and the
+     * summary is sent. Has to be called before the run is started.
+     * @param deadline the time in ms, 0 for no deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Starts all steps which don't depend on other steps.
+     */
+    public void start() {
+        List<String> readySteps = new ArrayList<>();
+        synchronized (this) {
+            this.startTime = System.nanoTime();
+            for (String step : this.workflow.getSteps()) {
+                if (this.workflow.getDependencies(step).isEmpty()) {
+                    this.states.put(step, StepState.RUNNING);
+                    readySteps.add(step);
+                } else {
+                    this.states.put(step, StepState.WAITING);
+                }
+            }
+            this.unfinishedSteps = this.states.size();
+            if (this.deadline > 0) {
+                this.deadlineTimeout = ScheduleManager.getInstance().getTimingWheel().schedule(this::deadlinePassed, this.deadline);
+            }
+        }
+        this.log("Starting " + this.name + ": " + this.workflow);
+        // the steps are added outside of the lock, because a blocking queue must not block finishing steps
+        readySteps.forEach(this::startStep);
+    }
+
+    private void startStep(String step) {
+        Command command = CommandList.getInstance().getCommand(step);
+        if (command == null || command.isWorkflow()) {
+            this.stepFinished(step, false, "The command " + step + " doesn't exist anymore.");
+            return;
+        }
+        AbstractScriptThread scriptThread = AbstractScriptThread.create(command, this.clientJID, true, this.omemoController);
+        synchronized (this) {
+            if (this.states.get(step) != StepState.RUNNING) {
+                return; // cancelled by the deadline
+            }
+            this.startTimes.put(step, System.nanoTime());
+            this.scriptThreads.put(step, scriptThread);
+        }
+        scriptThread.setExecutionListener(new ExecutionListener() {
+            @Override
+            public void executionFinished(int exitCode, String output) {
+                stepFinished(step, exitCode == 0, exitCode == 0 ? output : "Exit code: " + exitCode + "\n" + output);
+            }
+
+            @Override
+            public void executionFailed(String reason) {
+                stepFinished(step, false, reason);
+            }
+        });
+        CommandQueue.Result result = this.commandQueue.addToQueue(step, scriptThread);
+        if (result != CommandQueue.Result.ADDED) {
+            this.stepFinished(step, false, "The step couldn't be added to the queue: " + result);
+            return;
+        }
+        synchronized (this) {
+            if (this.states.get(step) != StepState.CANCELLED) {
+                return;
+            }
+        }
+        // the deadline has passed while the step was added, so it wasn't in the queue yet when the steps were cancelled
+        this.cancelJob(scriptThread);
+    }
+
+    private void stepFinished(String step, boolean succeeded, String result) {
+        List<String> readySteps = new ArrayList<>();
+        String summary = null;
+        synchronized (this) {
+            if (this.states.get(step) != StepState.RUNNING) {
+                return;
+            }
+            this.states.put(step, succeeded ? StepState.SUCCEEDED : StepState.FAILED);
+            this.results.put(step, result);
+            Long stepStart = this.startTimes.get(step);
+            this.durations.put(step, stepStart == null ? 0 : System.nanoTime() - stepStart);
+            this.unfinishedSteps--;
+            if (succeeded) {
+                for (String dependent : this.workflow.getDependents(step)) {
+                    if (this.workflow.getDependencies(dependent).stream().allMatch(d -> this.states.get(d) == StepState.SUCCEEDED)) {
+                        this.states.put(dependent, StepState.RUNNING);
+                        readySteps.add(dependent);
+                    }
+                }
+            } else {
+                this.skipDependents(step);
+            }
+            if (this.unfinishedSteps == 0) {
+                summary = this.finish();
+            }
+        }
+        readySteps.forEach(this::startStep);
+        if (summary != null) {
+            this.send(summary);
+        }
+    }
+
+    /**
+     * Cancels the unfinished steps and sends the summary.
+     */
+    private void deadlinePassed() {
+        List<AbstractScriptThread> cancelledThreads = new ArrayList<>();
+        String summary;
+        synchronized (this) {
+            if (this.unfinishedSteps == 0) {
+                return;
+            }
+            for (String step : this.workflow.getSteps()) {
+                if (this.states.get(step) == StepState.RUNNING) {
+                    this.states.put(step, StepState.CANCELLED);
+                    this.durations.put(step, System.nanoTime() - this.startTimes.getOrDefault(step, System.nanoTime()));
+                    this.results.put(step, "Cancelled, because the deadline of " + TimeUnit.MILLISECONDS.toSeconds(this.deadline) + " s has passed.");
+                    if (this.scriptThreads.containsKey(step)) {
+                        cancelledThreads.add(this.scriptThreads.get(step));
+                    }
+                } else if (this.states.get(step) == StepState.WAITING) {
+                    this.states.put(step, StepState.CANCELLED);
+                    this.results.put(step, "Cancelled before it was started, because the deadline of "
+                            + TimeUnit.MILLISECONDS.toSeconds(this.deadline) + " s has passed.");
+                }
+            }
+            this.unfinishedSteps = 0;
+            summary = this.finish();
+        }
+        cancelledThreads.forEach(this::cancelJob);
+        this.send(summary);
+    }
+
+    private void cancelJob(AbstractScriptThread scriptThread) {
+        for (Job job : this.commandQueue.getJobRegistry().getJobs(scriptThread.getCommand().getCommandName())) {
+            if (job.getScriptThread() == scriptThread) {
+                this.commandQueue.cancel(job.getId());
+            }
+        }
+    }
+
+    private String finish() {
+        if (this.deadlineTimeout != null) {
+            this.deadlineTimeout.cancel();
+        }
+        return this.getSummary();
+    }
+
+    private void skipDependents(String failedStep) {
+        for (String dependent : this.workflow.getDependents(failedStep)) {
+            if (this.states.get(dependent) == StepState.WAITING) {
+                this.states.put(dependent, StepState.SKIPPED);
+                this.results.put(dependent, "Skipped, because " + failedStep + " has failed.");
+                this.unfinishedSteps--;
+                this.skipDependents(dependent);
+            }
+        }
+    }
+
+    private String getSummary() {
+        Map<StepState, Integer> counts = new HashMap<>();
+        StringBuilder stepResults = new StringBuilder();
+        for (String step : this.workflow.getSteps()) {
+            StepState state = this.states.get(step);
+            counts.merge(state, 1, Integer::sum);
+            stepResults.append("\n[").append(state).append("] ").append(step);
+            if (this.durations.containsKey(step)) {
+                stepResults.append(" (").append(TimeUnit.NANOSECONDS.toSeconds(this.durations.get(step))).append(" s)");
+            }
+            String result = this.results.get(step).trim();
+            if (result.length() > MAX_STEP_OUTPUT) {
+                result = "..." + result.substring(result.length() - MAX_STEP_OUTPUT);
+            }
+            if (!result.isEmpty()) {
+                stepResults.append("\n").append(result);
+            }
+        }
+        return this.name + " finished in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.startTime) + " s: "
+                + counts.getOrDefault(StepState.SUCCEEDED, 0) + " succeeded, "
+                + counts.getOrDefault(StepState.FAILED, 0) + " failed, "
+                + counts.getOrDefault(StepState.SKIPPED, 0) + " skipped"
+                + (counts.containsKey(StepState.CANCELLED) ? ", " + counts.get(StepState.CANCELLED) + " cancelled" : "") + stepResults;
+    }
+
+    private void log(String message) {
+        System.out.println(message + (this.clientJID != null ? " for " + this.clientJID : ""));
+    }
+
+    private void send(String message) {
+        if (this.clientJID == null) {
+            System.out.println(message);
+            return;
+        }
+        try {
+            this.omemoController.sendMessage(this.omemoController.getJid(this.clientJID), message);
+        } catch (Exception ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+}
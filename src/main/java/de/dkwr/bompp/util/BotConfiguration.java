@@ -16,7 +16,14 @@
  */
 package de.dkwr.bompp.util;
 
+import de.dkwr.bompp.cmd.exec.ExecutorBackend;
+import de.dkwr.bompp.cmd.exec.Priority;
+import de.dkwr.bompp.cmd.exec.RejectionPolicy;
+import de.dkwr.bompp.xmpp.upload.UploadService;
+import de.dkwr.bompp.cmd.exec.SchedulingPolicy;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import org.jxmpp.jid.BareJid;
 
 /**
@@ -32,6 +39,22 @@ public class BotConfiguration {
     private char[] pwd;
     private int maxThreads;
     private int queueSize;
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.REJECT;
+    private long queueBlockTimeout = 5000;
+    private long killGracePeriod = 5000; // time in ms a terminated script gets before it is killed
+    private long priorityAging = 30000; // time in ms after which a waiting job gains one priority level
+    private Map<String, Priority> senderPriorities = new HashMap<>();
+    private int maxJobsPerUser = 0; // maximum number of unfinished jobs of a client, 0 for no limit
+    private Map<String, Integer> userWeights = new HashMap<>();
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.FAIR_SHARE;
+    private long starvationLimit = 300000; // time in ms after which a job is started before shorter ones
+    private long batchDeadline = 60000; // time in ms after which a batch is answered with the results which are finished
+    private long spillTtl = 3600000; // time in ms the spilled output of a job is kept, see OutputStore
+    private UploadService uploadService = UploadService.NONE;
+    private long uploadThreshold = 65536; // results with more bytes are uploaded instead of sent as a message
+    private int uploadPort = 0; // port of the LocalUploadServer, 0 for any free port
+    private ExecutorBackend executorBackend = ExecutorBackend.PLATFORM;
+    private int outputReaders = 0; // threads of the OutputMultiplexer, 0 for a StreamPump per output stream
     private String configFilePath;
     private String storePath;
     private boolean enableXMPPDebugMode = false;
@@ -69,6 +92,70 @@ public class BotConfiguration {
         this.queueSize = queue_size;
     }
 
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    public void setQueueBlockTimeout(long queueBlockTimeout) {
+        this.queueBlockTimeout = queueBlockTimeout;
+    }
+
+    public void setKillGracePeriod(long killGracePeriod) {
+        this.killGracePeriod = killGracePeriod;
+    }
+
+    public void setPriorityAging(long priorityAging) {
+        this.priorityAging = priorityAging;
+    }
+
+    public void setSenderPriorities(Map<String, Priority> senderPriorities) {
+        this.senderPriorities = senderPriorities;
+    }
+
+    public void setMaxJobsPerUser(int maxJobsPerUser) {
+        this.maxJobsPerUser = maxJobsPerUser;
+    }
+
+    public void setUserWeights(Map<String, Integer> userWeights) {
+        this.userWeights = userWeights;
+    }
+
+    public void setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+        this.schedulingPolicy = schedulingPolicy;
+    }
+
+    public void setStarvationLimit(long starvationLimit) {
+        this.starvationLimit = starvationLimit;
+    }
+
+    public void setBatchDeadline(long batchDeadline) {
+        this.batchDeadline = batchDeadline;
+    }
+
+    public void setSpillTtl(long spillTtl) {
+        this.spillTtl = spillTtl;
+    }
+
+    public void setUploadService(UploadService uploadService) {
+        this.uploadService = uploadService;
+    }
+
+    public void setUploadThreshold(long uploadThreshold) {
+        this.uploadThreshold = uploadThreshold;
+    }
+
+    public void setUploadPort(int uploadPort) {
+        this.uploadPort = uploadPort;
+    }
+
+    public void setExecutorBackend(ExecutorBackend executorBackend) {
+        this.executorBackend = executorBackend;
+    }
+
+    public void setOutputReaders(int outputReaders) {
+        this.outputReaders = outputReaders;
+    }
+
     public void setStorePath(String storePath) {
         this.storePath = storePath;
     }
@@ -113,6 +200,93 @@ public class BotConfiguration {
         return this.queueSize;
     }
 
+    public RejectionPolicy getRejectionPolicy() {
+        return this.rejectionPolicy;
+    }
+
+    public long getQueueBlockTimeout() {
+        return this.queueBlockTimeout;
+    }
+
+    public long getKillGracePeriod() {
+        return this.killGracePeriod;
+    }
+
+    public long getPriorityAging() {
+        return this.priorityAging;
+    }
+
+    /**
+     * Returns the minimum priority of the jobs a client requests.
+     * The bot CLI and the administrator get {@link Priority#HIGH}, if it isn't configured otherwise.
+     * @param jid the JID of the client or null for the bot CLI
+     * @return the priority of the client or null if the client has no own priority
+     */
+    public Priority getSenderPriority(String jid) {
+        if (jid == null) {
+            return Priority.HIGH;
+        }
+        Priority priority = this.senderPriorities.get(jid.toLowerCase());
+        if (priority != null) {
+            return priority;
+        }
+        return jid.equalsIgnoreCase(this.adminJID) ? Priority.HIGH : null;
+    }
+
+    public int getMaxJobsPerUser() {
+        return this.maxJobsPerUser;
+    }
+
+    /**
+     * Returns how many waiting jobs of a client are started in a row, before
+     * the next client gets its turn.
+     * @param jid the JID of the client or null for the bot CLI
+     * @return the weight of the client, at least 1
+     */
+    public int getUserWeight(String jid) {
+        if (jid == null) {
+            return 1;
+        }
+        Integer weight = this.userWeights.get(jid.toLowerCase());
+        return weight == null ? 1 : Math.max(1, weight);
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return this.schedulingPolicy;
+    }
+
+    public long getStarvationLimit() {
+        return this.starvationLimit;
+    }
+
+    public long getBatchDeadline() {
+        return this.batchDeadline;
+    }
+
+    public long getSpillTtl() {
+        return this.spillTtl;
+    }
+
+    public UploadService getUploadService() {
+        return this.uploadService;
+    }
+
+    public long getUploadThreshold() {
+        return this.uploadThreshold;
+    }
+
+    public int getUploadPort() {
+        return this.uploadPort;
+    }
+
+    public ExecutorBackend getExecutorBackend() {
+        return this.executorBackend;
+    }
+
+    public int getOutputReaders() {
+        return this.outputReaders;
+    }
+
     public String getStorePath() {
         return this.storePath;
     }
@@ -16,8 +16,17 @@
  */
 package de.dkwr.bompp.util;
 
+import de.dkwr.bompp.cmd.exec.Priority;
+import de.dkwr.bompp.cmd.schedule.CronExpression;
+import de.dkwr.bompp.cmd.schedule.MissedRunPolicy;
+import de.dkwr.bompp.cmd.workflow.Workflow;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents the script command which can be executed by a client.
@@ -25,11 +34,43 @@ import java.util.List;
  */
 public class Command {
 
+    /**
+     * Defines how the error output of a script is shown to the client.
+     */
+    public enum StderrMode {
+        INLINE, // stderr lines are sent together with stdout, marked with a prefix
+        ON_FAILURE // stderr lines are only sent if the script exits with an error
+    }
+
     private final String cmd;
     private final String scriptPath;
     private final String execType;
     private final String description;
     private final boolean collectOutput;
+    private StderrMode stderrMode = StderrMode.ON_FAILURE;
+    private int maxConcurrent = 1; // number of executions of this command which may run at the same time
+    private boolean singleFlight = false; // if true, requests for a running command get the output of the running execution
+    private long cacheTtl = 0; // time in ms the output of a successful execution is cached, 0 disables the cache
+    private long timeout = 0; // time in ms after which the execution is terminated, 0 disables the timeout
+    private Priority priority = Priority.NORMAL;
+    // commands with a schedule are executed periodically, see ScheduleManager
+    private CronExpression schedule = null;
+    private long scheduleJitter = 0; // maximum random delay in ms of a scheduled run
+    private String scheduleJID = null; // gets the output of scheduled runs, the administrator if it is null
+    private MissedRunPolicy missedRunPolicy = MissedRunPolicy.SKIP;
+    // streamed output is sent in batches, see OutputCoalescer
+    private int batchLines = 100;
+    private int batchBytes = 4096;
+    private long batchDelay = 250;
+    // collected output keeps only the first captureHead and the last captureTail bytes, see OutputCapture
+    private int captureHead = 32768;
+    private int captureTail = 32768;
+    private boolean spill = false; // if true, a collected output which doesn't fit into the head is stored for "more", see OutputStore
+    private Charset encoding = StandardCharsets.UTF_8; // the encoding of the output of the script
+    // the stages of a pipeline, null if this command is a single script
+    private List<Command> pipeline = null;
+    // the steps of a workflow, null if this command isn't a workflow
+    private Workflow workflow = null;
     
     public Command(String cmd, String scriptPath, String execType, String description, boolean collectOutput) {
         this.cmd = cmd;
@@ -54,7 +95,237 @@ public class Command {
     public String getExecType() {
         return this.execType;
     }
+
+    public StderrMode getStderrMode() {
+        return this.stderrMode;
+    }
+
+    public void setStderrMode(StderrMode stderrMode) {
+        this.stderrMode = stderrMode;
+    }
+
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public boolean isSingleFlight() {
+        return this.singleFlight;
+    }
+
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    public long getCacheTtl() {
+        return this.cacheTtl;
+    }
+
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public Priority getPriority() {
+        return this.priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public CronExpression getSchedule() {
+        return this.schedule;
+    }
+
+    public void setSchedule(CronExpression schedule) {
+        this.schedule = schedule;
+    }
+
+    public long getScheduleJitter() {
+        return this.scheduleJitter;
+    }
+
+    public void setScheduleJitter(long scheduleJitter) {
+        this.scheduleJitter = scheduleJitter;
+    }
+
+    public String getScheduleJID() {
+        return this.scheduleJID;
+    }
+
+    public void setScheduleJID(String scheduleJID) {
+        this.scheduleJID = scheduleJID;
+    }
+
+    public MissedRunPolicy getMissedRunPolicy() {
+        return this.missedRunPolicy;
+    }
+
+    public void setMissedRunPolicy(MissedRunPolicy missedRunPolicy) {
+        this.missedRunPolicy = missedRunPolicy;
+    }
+
+    /**
+     * Returns the key under which the output of this command is cached.
+     * @return the cache key
+     */
+    public String getCacheKey() {
+        return this.cmd;
+    }
+
+    public int getBatchLines() {
+        return this.batchLines;
+    }
+
+    public void setBatchLines(int batchLines) {
+        this.batchLines = batchLines;
+    }
+
+    public int getBatchBytes() {
+        return this.batchBytes;
+    }
+
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    public long getBatchDelay() {
+        return this.batchDelay;
+    }
+
+    public void setBatchDelay(long batchDelay) {
+        this.batchDelay = batchDelay;
+    }
     
+    public int getCaptureHead() {
+        return this.captureHead;
+    }
+
+    public void setCaptureHead(int captureHead) {
+        this.captureHead = captureHead;
+    }
+
+    public int getCaptureTail() {
+        return this.captureTail;
+    }
+
+    public void setCaptureTail(int captureTail) {
+        this.captureTail = captureTail;
+    }
+
+    public boolean isSpill() {
+        return this.spill;
+    }
+
+    public void setSpill(boolean spill) {
+        this.spill = spill;
+    }
+
+    public Charset getEncoding() {
+        return this.encoding;
+    }
+
+    public void setEncoding(Charset encoding) {
+        this.encoding = encoding;
+    }
+
+    public List<Command> getPipeline() {
+        return this.pipeline;
+    }
+
+    public boolean isPipeline() {
+        return this.pipeline != null;
+    }
+
+    public Workflow getWorkflow() {
+        return this.workflow;
+    }
+
+    public void setWorkflow(Workflow workflow) {
+        this.workflow = workflow;
+    }
+
+    public boolean isWorkflow() {
+        return this.workflow != null;
+    }
+
+    /**
+     * Returns the limits of unfinished executions which apply to this command.
+     * A pipeline executes the scripts of its stages, so the limit of every
+     * stage applies to it as well.
+     * @return the max_concurrent per command name
+     */
+    public Map<String, Integer> getConcurrencyLimits() {
+        Map<String, Integer> limits = new LinkedHashMap<>();
+        limits.put(this.cmd, this.maxConcurrent);
+        if (this.pipeline != null) {
+            for (Command stage : this.pipeline) {
+                limits.merge(stage.getCommandName(), stage.getMaxConcurrent(), Math::min);
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * Creates a command which connects the stdout of each stage to the stdin
+     * of the next stage. The output settings are taken from the last stage,
+     * because only its output is sent to the client. The pipeline is single
+     * flight if a stage is, and the max_concurrent of the stages limit it too,
+     * see {@link #getConcurrencyLimits()}.
+     * @param cmd the name of the pipeline
+     * @param description the description or null
+     * @param stages the stages, which must not be pipelines
+     * @return the pipeline command
+     */
+    public static Command createPipeline(String cmd, String description, List<Command> stages) {
+        Command tail = stages.get(stages.size() - 1);
+        String pipelineDescription = description;
+        if (pipelineDescription == null) {
+            List<String> stageNames = new ArrayList<>();
+            stages.forEach(stage -> stageNames.add(stage.getCommandName()));
+            pipelineDescription = "Pipeline " + String.join(" | ", stageNames);
+        }
+        Command pipelineCmd = new Command(cmd, null, null, pipelineDescription, tail.getCollectOutput());
+        pipelineCmd.pipeline = new ArrayList<>(stages);
+        pipelineCmd.setStderrMode(tail.getStderrMode());
+        pipelineCmd.setBatchLines(tail.getBatchLines());
+        pipelineCmd.setBatchBytes(tail.getBatchBytes());
+        pipelineCmd.setBatchDelay(tail.getBatchDelay());
+        pipelineCmd.setCaptureHead(tail.getCaptureHead());
+        pipelineCmd.setCaptureTail(tail.getCaptureTail());
+        pipelineCmd.setSpill(tail.isSpill());
+        pipelineCmd.setEncoding(tail.getEncoding());
+        long timeout = 0;
+        Priority pipelinePriority = Priority.HIGH;
+        for (Command stage : stages) {
+            if (stage.isSingleFlight()) {
+                pipelineCmd.setSingleFlight(true); // requests attach to a running execution of the same pipeline
+            }
+            if (stage.getTimeout() <= 0) {
+                timeout = -1;
+            } else if (timeout >= 0) {
+                timeout = Math.max(timeout, stage.getTimeout());
+            }
+            if (stage.getPriority().compareTo(pipelinePriority) > 0) {
+                pipelinePriority = stage.getPriority();
+            }
+        }
+        pipelineCmd.setTimeout(Math.max(timeout, 0));
+        pipelineCmd.setPriority(pipelinePriority);
+        return pipelineCmd;
+    }
+
     @Override
     public String toString() {
         return this.cmd + " " + this.description + " " + this.collectOutput;
@@ -62,10 +333,24 @@ public class Command {
     
     /**
      * Returns command execution list
-     * @return execution list {exec type, script path} or {script path}
+     * @return execution list {exec type, script path}, {script path} or
+     * {/bin/sh, -c, pipeline} for a pipeline
      */
     public List<String> getCmdExecutionList() {
         List<String> l = new LinkedList<>();
+        if (this.pipeline != null) {
+            // the shell connects the stages with OS pipes, so the data doesn't pass the JVM
+            List<String> stages = new ArrayList<>();
+            for (Command stage : this.pipeline) {
+                List<String> quotedParams = new ArrayList<>();
+                stage.getCmdExecutionList().forEach(param -> quotedParams.add("'" + param.replace("'", "'\\''") + "'"));
+                stages.add(String.join(" ", quotedParams));
+            }
+            l.add("/bin/sh");
+            l.add("-c");
+            l.add(String.join(" | ", stages));
+            return l;
+        }
         if(this.execType != null) {
             l.add(execType);
             l.add(scriptPath);
@@ -16,7 +16,9 @@
  */
 package de.dkwr.bompp.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -75,6 +77,14 @@ public class CommandList {
         return this.cmdMap.get(cmd);
     }
 
+    /**
+     * Returns all loaded commands.
+     * @return list of the commands
+     */
+    public List<Command> getCommands() {
+        return new ArrayList<>(this.cmdMap.values());
+    }
+
     public int getSize() {
         return this.cmdMap.size();
     }
@@ -16,9 +16,31 @@
  */
 package de.dkwr.bompp.util;
 
+import de.dkwr.bompp.cmd.exec.ExecutorBackend;
+import de.dkwr.bompp.cmd.exec.Priority;
+import de.dkwr.bompp.cmd.exec.RejectionPolicy;
+import de.dkwr.bompp.cmd.exec.ResultCache;
+import de.dkwr.bompp.cmd.exec.SchedulingPolicy;
+import de.dkwr.bompp.cmd.exec.WorkerPool;
+import de.dkwr.bompp.cmd.exec.WorkerPoolManager;
+import de.dkwr.bompp.cmd.schedule.CronExpression;
+import de.dkwr.bompp.cmd.schedule.MissedRunPolicy;
+import de.dkwr.bompp.cmd.schedule.ScheduleManager;
+import de.dkwr.bompp.cmd.workflow.Workflow;
+import de.dkwr.bompp.xmpp.upload.UploadService;
 import java.io.Console;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -45,6 +67,27 @@ public class ConfigReader {
     private final String PWD_KEY = "pwd";
     private final String MAX_THREADS_KEY = "max_threads";
     private final String QUEUE_SIZE_KEY = "queue_size";
+    private final String QUEUE_POLICY_KEY = "queue_policy";
+    private final String QUEUE_BLOCK_TIMEOUT_KEY = "queue_block_timeout";
+    private final String CACHE_SIZE_KEY = "cache_size";
+    private final String KILL_GRACE_KEY = "kill_grace";
+    private final String PRIORITY_AGING_KEY = "priority_aging";
+    private final String PRIORITIES_KEY = "priorities";
+    private final String MAX_JOBS_PER_USER_KEY = "max_jobs_per_user";
+    private final String USER_WEIGHTS_KEY = "user_weights";
+    private final String SCHEDULING_KEY = "scheduling";
+    private final String STARVATION_LIMIT_KEY = "starvation_limit";
+    private final String BATCH_DEADLINE_KEY = "batch_deadline";
+    private final String SPILL_TTL_KEY = "spill_ttl";
+    private final String UPLOAD_KEY = "upload";
+    private final String UPLOAD_THRESHOLD_KEY = "upload_threshold";
+    private final String UPLOAD_PORT_KEY = "upload_port";
+    private final String OUTPUT_READERS_KEY = "output_readers";
+    private final String EXECUTOR_KEY = "executor";
+    private final String WORKER_POOLS_KEY = "worker_pools";
+    private final String WORKER_KEY = "worker";
+    private final String POOL_SIZE_KEY = "size";
+    private final String MAX_JOBS_KEY = "max_jobs";
     private final String ADMIN_JID_KEY = "admin_jid";
     private final String LISTEN_ONLY_ADMIN_KEY = "listen_only_admin";
     private final String CMD_KEY = "cmd";
@@ -54,6 +97,25 @@ public class ConfigReader {
     private final String ENABLE_XMPP_DEBUG = "enable_xmpp_debug";
     private final String NOTIFY_ADMIN_ON_STARTUP = "notify_admin_on_startup";
     private final String COLLECT_OUTPUT_KEY = "collect_output";
+    private final String STDERR_KEY = "stderr";
+    private final String MAX_CONCURRENT_KEY = "max_concurrent";
+    private final String SINGLE_FLIGHT_KEY = "single_flight";
+    private final String CACHE_TTL_KEY = "cache_ttl";
+    private final String TIMEOUT_KEY = "timeout";
+    private final String PRIORITY_KEY = "priority";
+    private final String SCHEDULE_KEY = "schedule";
+    private final String SCHEDULE_JITTER_KEY = "schedule_jitter";
+    private final String SCHEDULE_JID_KEY = "schedule_jid";
+    private final String SCHEDULE_MISSED_KEY = "schedule_missed";
+    private final String BATCH_LINES_KEY = "batch_lines";
+    private final String BATCH_BYTES_KEY = "batch_bytes";
+    private final String BATCH_DELAY_KEY = "batch_delay";
+    private final String CAPTURE_HEAD_KEY = "capture_head";
+    private final String CAPTURE_TAIL_KEY = "capture_tail";
+    private final String SPILL_KEY = "spill";
+    private final String ENCODING_KEY = "encoding";
+    private final String PIPELINE_KEY = "pipeline";
+    private final String WORKFLOW_KEY = "workflow";
 
     /**
      * Creates an object of the ConfigReader and reads the config file.
@@ -91,6 +153,33 @@ public class ConfigReader {
             
             cfg.setMaxThreads(Integer.parseInt((String) botConfig.get(this.MAX_THREADS_KEY)));
             cfg.setQueueSize(Integer.parseInt((String) botConfig.get(this.QUEUE_SIZE_KEY)));
+            if (botConfig.get(this.QUEUE_POLICY_KEY) != null) {
+                cfg.setRejectionPolicy(RejectionPolicy.valueOf(((String) botConfig.get(this.QUEUE_POLICY_KEY)).toUpperCase()));
+            }
+            cfg.setQueueBlockTimeout(this.getLong(botConfig, this.QUEUE_BLOCK_TIMEOUT_KEY, cfg.getQueueBlockTimeout()));
+            cfg.setKillGracePeriod(this.getLong(botConfig, this.KILL_GRACE_KEY, cfg.getKillGracePeriod() / 1000) * 1000);
+            cfg.setPriorityAging(this.getLong(botConfig, this.PRIORITY_AGING_KEY, cfg.getPriorityAging() / 1000) * 1000);
+            cfg.setSenderPriorities(this.loadSenderPriorities((JSONObject) botConfig.get(this.PRIORITIES_KEY)));
+            cfg.setMaxJobsPerUser((int) this.getLong(botConfig, this.MAX_JOBS_PER_USER_KEY, cfg.getMaxJobsPerUser()));
+            cfg.setUserWeights(this.loadUserWeights((JSONObject) botConfig.get(this.USER_WEIGHTS_KEY)));
+            if (botConfig.get(this.SCHEDULING_KEY) != null) {
+                cfg.setSchedulingPolicy(SchedulingPolicy.valueOf(((String) botConfig.get(this.SCHEDULING_KEY)).toUpperCase()));
+            }
+            cfg.setStarvationLimit(this.getLong(botConfig, this.STARVATION_LIMIT_KEY, cfg.getStarvationLimit() / 1000) * 1000);
+            cfg.setBatchDeadline(this.getLong(botConfig, this.BATCH_DEADLINE_KEY, cfg.getBatchDeadline() / 1000) * 1000);
+            cfg.setSpillTtl(this.getLong(botConfig, this.SPILL_TTL_KEY, cfg.getSpillTtl() / 1000) * 1000);
+            if (botConfig.get(this.UPLOAD_KEY) != null) {
+                cfg.setUploadService(UploadService.valueOf(((String) botConfig.get(this.UPLOAD_KEY)).toUpperCase()));
+            }
+            cfg.setUploadThreshold(this.getLong(botConfig, this.UPLOAD_THRESHOLD_KEY, cfg.getUploadThreshold()));
+            cfg.setUploadPort((int) this.getLong(botConfig, this.UPLOAD_PORT_KEY, cfg.getUploadPort()));
+            if (botConfig.get(this.EXECUTOR_KEY) != null) {
+                cfg.setExecutorBackend(ExecutorBackend.valueOf(((String) botConfig.get(this.EXECUTOR_KEY)).toUpperCase()));
+            }
+            cfg.setOutputReaders((int) this.getLong(botConfig, this.OUTPUT_READERS_KEY, cfg.getOutputReaders()));
+            if (botConfig.get(this.CACHE_SIZE_KEY) != null) {
+                ResultCache.getInstance().setMaxSize((int) this.getLong(botConfig, this.CACHE_SIZE_KEY, 0));
+            }
             cfg.setAdminJID((String) botConfig.get(this.ADMIN_JID_KEY));
             cfg.setListenOnlyAdmin((Boolean) botConfig.get(this.LISTEN_ONLY_ADMIN_KEY));
             cfg.setNotifyAdminOnStartup((Boolean) botConfig.get(this.NOTIFY_ADMIN_ON_STARTUP));
@@ -106,6 +195,11 @@ public class ConfigReader {
                 cfg.setEnableXMPPDebugMode((Boolean) botConfig.get(this.ENABLE_XMPP_DEBUG));
             }
 
+            this.loadWorkerPools((JSONArray) botConfig.get(this.WORKER_POOLS_KEY));
+
+            List<JSONObject> pipelineObjs = new ArrayList<>();
+            List<JSONObject> workflowObjs = new ArrayList<>();
+            Set<String> cmdNames = new HashSet<>(); // pipelines and workflows are added later, but their names are taken
             for (int i = 0; i < cmdArr.size(); i++) {
                 JSONObject cmdObj = (JSONObject) cmdArr.get(i);
 
@@ -115,15 +209,35 @@ public class ConfigReader {
                 String script = (String) cmdObj.get(this.SCRIPT_KEY);
                 Boolean collectOutputStream = (Boolean) cmdObj.get(this.COLLECT_OUTPUT_KEY);
 
-                if (this.cmdList.cmdExists(cmdKey)) {
+                if (this.cmdList.cmdExists(cmdKey) || !cmdNames.add(cmdKey)) {
                     System.out.println("Error: Found multiple command " + cmdKey + "!\n"
                             + "Added the first occurence. Please check your config file.");
+                } else if (cmdObj.get(this.PIPELINE_KEY) != null) {
+                    // pipelines can reference commands which are defined later
+                    pipelineObjs.add(cmdObj);
+                } else if (cmdObj.get(this.WORKFLOW_KEY) != null) {
+                    workflowObjs.add(cmdObj);
                 } else {
                     Command cmd = new Command(cmdKey, script, exec_type, description, collectOutputStream);
+                    if (this.loadCommandSettings(cmd, cmdObj)) {
+                        this.cmdList.addCommand(cmd);
+                    }
+                }
+            }
+            for (JSONObject pipelineObj : pipelineObjs) {
+                Command cmd = this.loadPipeline(pipelineObj);
+                if (cmd != null && this.loadCommandSettings(cmd, pipelineObj)) {
+                    this.cmdList.addCommand(cmd);
+                }
+            }
+            for (JSONObject workflowObj : workflowObjs) {
+                Command cmd = this.loadWorkflow(workflowObj);
+                if (cmd != null && this.loadCommandSettings(cmd, workflowObj)) {
                     this.cmdList.addCommand(cmd);
                 }
             }
 
+            ScheduleManager.getInstance().setCommands(this.cmdList.getCommands());
             System.out.println("Loaded config file with " + this.cmdList.getSize() + " commands");
             cfg.setConfigLoaded(true);
         } catch (Exception ex) {
@@ -134,15 +248,187 @@ public class ConfigReader {
         }
     }
 
+    /**
+     * Sets the optional settings of a command. A command with an invalid
+     * setting is skipped, the other commands are loaded anyway.
+     *
+     * @param cmd the command
+     * @param cmdObj the JSON object of the command
+     * @return false if a setting is invalid
+     */
+    private boolean loadCommandSettings(Command cmd, JSONObject cmdObj) {
+        try {
+            if (cmdObj.get(this.STDERR_KEY) != null) {
+                cmd.setStderrMode(Command.StderrMode.valueOf(((String) cmdObj.get(this.STDERR_KEY)).toUpperCase()));
+            }
+            cmd.setMaxConcurrent((int) this.getLong(cmdObj, this.MAX_CONCURRENT_KEY, cmd.getMaxConcurrent()));
+            if (cmdObj.get(this.SINGLE_FLIGHT_KEY) != null) {
+                cmd.setSingleFlight((Boolean) cmdObj.get(this.SINGLE_FLIGHT_KEY));
+            }
+            cmd.setCacheTtl(this.getLong(cmdObj, this.CACHE_TTL_KEY, cmd.getCacheTtl() / 1000) * 1000);
+            if (cmdObj.get(this.PRIORITY_KEY) != null) {
+                cmd.setPriority(Priority.valueOf(((String) cmdObj.get(this.PRIORITY_KEY)).toUpperCase()));
+            }
+            if (cmdObj.get(this.SCHEDULE_KEY) != null) {
+                cmd.setSchedule(new CronExpression((String) cmdObj.get(this.SCHEDULE_KEY)));
+                cmd.setScheduleJitter(this.getLong(cmdObj, this.SCHEDULE_JITTER_KEY, 0) * 1000);
+                cmd.setScheduleJID((String) cmdObj.get(this.SCHEDULE_JID_KEY));
+                if (cmdObj.get(this.SCHEDULE_MISSED_KEY) != null) {
+                    cmd.setMissedRunPolicy(MissedRunPolicy.valueOf(((String) cmdObj.get(this.SCHEDULE_MISSED_KEY)).toUpperCase()));
+                }
+            }
+            cmd.setTimeout(this.getLong(cmdObj, this.TIMEOUT_KEY, cmd.getTimeout() / 1000) * 1000);
+            cmd.setBatchLines((int) this.getLong(cmdObj, this.BATCH_LINES_KEY, cmd.getBatchLines()));
+            cmd.setBatchBytes((int) this.getLong(cmdObj, this.BATCH_BYTES_KEY, cmd.getBatchBytes()));
+            cmd.setBatchDelay(this.getLong(cmdObj, this.BATCH_DELAY_KEY, cmd.getBatchDelay()));
+            cmd.setCaptureHead((int) this.getLong(cmdObj, this.CAPTURE_HEAD_KEY, cmd.getCaptureHead()));
+            cmd.setCaptureTail((int) this.getLong(cmdObj, this.CAPTURE_TAIL_KEY, cmd.getCaptureTail()));
+            if (cmdObj.get(this.SPILL_KEY) != null) {
+                cmd.setSpill((Boolean) cmdObj.get(this.SPILL_KEY));
+            }
+            if (cmdObj.get(this.ENCODING_KEY) != null) {
+                cmd.setEncoding(Charset.forName((String) cmdObj.get(this.ENCODING_KEY)));
+            }
+            return true;
+        } catch (IllegalArgumentException | ClassCastException ex) {
+            System.out.println("Error: The command " + cmd.getCommandName() + " has an invalid setting! " + ex.getMessage() + "\n"
+                    + "Skipped the command. Please check your config file.");
+            return false;
+        }
+    }
+
+    /**
+     * Creates a workflow of the config file. The workflow object maps the
+     * command name of each step to the array of steps it depends on, e.g.
+     * {"backup": [], "cleanup": [], "upload": ["backup"]}.
+     *
+     * @param workflowObj the JSON object of the workflow
+     * @return the workflow or null if it is invalid
+     */
+    private Command loadWorkflow(JSONObject workflowObj) {
+        String cmdKey = (String) workflowObj.get(this.CMD_KEY);
+        JSONObject stepObj = (JSONObject) workflowObj.get(this.WORKFLOW_KEY);
+        Map<String, List<String>> dependencies = new TreeMap<>(); // JSON objects are unordered, so the steps are sorted by name
+        try {
+            for (Object step : stepObj.keySet()) {
+                Command stepCmd = this.cmdList.getCommand((String) step);
+                if (stepCmd == null) {
+                    throw new IllegalArgumentException("The step " + step + " is an unknown command.");
+                }
+                if (stepCmd.isWorkflow()) {
+                    throw new IllegalArgumentException("The step " + step + " is a workflow, workflows can't be steps.");
+                }
+                List<String> stepDependencies = new ArrayList<>();
+                JSONArray dependencyArr = (JSONArray) stepObj.get(step);
+                if (dependencyArr != null) {
+                    dependencyArr.forEach(dependency -> stepDependencies.add((String) dependency));
+                }
+                dependencies.put((String) step, stepDependencies);
+            }
+            Command cmd = new Command(cmdKey, null, null, (String) workflowObj.get(this.DESCRIPTION_KEY), false);
+            cmd.setWorkflow(new Workflow(dependencies));
+            return cmd;
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Error: The workflow " + cmdKey + " is invalid! " + ex.getMessage() + "\n"
+                    + "Skipped the workflow. Please check your config file.");
+            return null;
+        }
+    }
+
+    /**
+     * Creates a pipeline of the config file. The stages are the names of
+     * commands which are no pipelines.
+     *
+     * @param pipelineObj the JSON object of the pipeline
+     * @return the pipeline or null if a stage doesn't exist
+     */
+    private Command loadPipeline(JSONObject pipelineObj) {
+        String cmdKey = (String) pipelineObj.get(this.CMD_KEY);
+        JSONArray stageArr = (JSONArray) pipelineObj.get(this.PIPELINE_KEY);
+        List<Command> stages = new ArrayList<>();
+        for (Object stageName : stageArr) {
+            Command stage = this.cmdList.getCommand((String) stageName);
+            if (stage == null || stage.isPipeline()) {
+                System.out.println("Error: The pipeline " + cmdKey + " references the unknown command " + stageName + "!\n"
+                        + "Skipped the pipeline. Please check your config file.");
+                return null;
+            }
+            stages.add(stage);
+        }
+        if (stages.isEmpty()) {
+            System.out.println("Error: The pipeline " + cmdKey + " has no stages!\n"
+                    + "Skipped the pipeline. Please check your config file.");
+            return null;
+        }
+        return Command.createPipeline(cmdKey, (String) pipelineObj.get(this.DESCRIPTION_KEY), stages);
+    }
+
     /**
      * Reloads the config file, so the user doesn't have to restart the bot
-     * after changing it.
+     * after changing it. Cached results are dropped.
      */
     public void reloadConfigFile() throws Exception {
         this.cmdList.clear();
+        ResultCache.getInstance().clear();
         this.loadConfigFile();
     }
 
+    /**
+     * Starts the worker pools, which execute the scripts of an exec type in pre-started interpreters.
+     *
+     * @param poolArr the worker_pools array of the config file or null if there are no pools
+     * @throws IOException when the bundled worker script can't be installed
+     */
+    private void loadWorkerPools(JSONArray poolArr) throws IOException {
+        List<WorkerPool> pools = new ArrayList<>();
+        if (poolArr != null) {
+            for (int i = 0; i < poolArr.size(); i++) {
+                JSONObject poolObj = (JSONObject) poolArr.get(i);
+                String execType = (String) poolObj.get(this.EXEC_TYPE_KEY);
+                String worker = (String) poolObj.get(this.WORKER_KEY);
+                if (worker == null) {
+                    worker = WorkerPoolManager.installBundledWorker(execType, this.storePath);
+                }
+                int size = (int) this.getLong(poolObj, this.POOL_SIZE_KEY, 1);
+                int maxJobs = (int) this.getLong(poolObj, this.MAX_JOBS_KEY, 100);
+                pools.add(new WorkerPool(execType, Arrays.asList(execType, worker), size, maxJobs));
+            }
+        }
+        WorkerPoolManager.getInstance().setPools(pools);
+    }
+
+    /**
+     * Reads the priorities of the clients.
+     *
+     * @param priorityObj the priorities object of the config file, which maps JIDs to priorities, or null
+     * @return map with the lower case JIDs as keys
+     */
+    private Map<String, Priority> loadSenderPriorities(JSONObject priorityObj) {
+        Map<String, Priority> priorities = new HashMap<>();
+        if (priorityObj != null) {
+            for (Object jid : priorityObj.keySet()) {
+                priorities.put(((String) jid).toLowerCase(), Priority.valueOf(((String) priorityObj.get(jid)).toUpperCase()));
+            }
+        }
+        return priorities;
+    }
+
+    /**
+     * Reads the weights of the clients for the fair share scheduling.
+     *
+     * @param weightObj the user_weights object of the config file, which maps JIDs to weights, or null
+     * @return map with the lower case JIDs as keys
+     */
+    private Map<String, Integer> loadUserWeights(JSONObject weightObj) {
+        Map<String, Integer> weights = new HashMap<>();
+        if (weightObj != null) {
+            for (Object jid : weightObj.keySet()) {
+                weights.put(((String) jid).toLowerCase(), (int) this.getLong(weightObj, (String) jid, 1));
+            }
+        }
+        return weights;
+    }
+
     private void checkConfigFile(JSONObject botConfig) {
         // checks if the config file has all required fields
         if(botConfig.get(this.JID_KEY) == null
@@ -162,6 +448,25 @@ public class ConfigReader {
         }
     }
 
+    /**
+     * Reads an optional number, which can be given as JSON number or as String.
+     *
+     * @param obj the JSON object which contains the key
+     * @param key the key of the number
+     * @param defaultValue value which is returned if the key doesn't exist
+     * @return the number
+     */
+    private long getLong(JSONObject obj, String key, long defaultValue) {
+        Object value = obj.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong((String) value);
+    }
+
     private boolean pathExists() {
         File f = new File(this.storePath);
         if (f.isDirectory()) {
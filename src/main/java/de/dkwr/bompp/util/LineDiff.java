@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LineDiff compares two texts line by line with the algorithm of Myers ("An
+ * O(ND) Difference Algorithm and Its Variations"). Lines which are equal at the
+ * start and the end of both texts are skipped before, so the runtime depends
+ * mainly on the number of changed lines.
+ *
+ * @author Dennis Kawurek
+ */
+public class LineDiff {
+
+    public static final String ADDED_PREFIX = "+ ";
+    public static final String REMOVED_PREFIX = "- ";
+
+    private LineDiff() {
+    }
+
+    /**
+     * Returns the changed lines. Removed lines start with "- ", added lines with "+ ".
+     *
+     * @param oldText the old text
+     * @param newText the new text
+     * @param maxChanges maximum number of changed lines to look for
+     * @return the changed lines in the order of the texts, empty if the texts are equal,
+     * or null if more than maxChanges lines have changed
+     */
+    public static List<String> diff(String oldText, String newText, int maxChanges) {
+        List<String> a = splitLines(oldText);
+        List<String> b = splitLines(newText);
+
+        int prefix = 0;
+        while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < a.size() - prefix && suffix < b.size() - prefix
+                && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) {
+            suffix++;
+        }
+        return diff(a.subList(prefix, a.size() - suffix), b.subList(prefix, b.size() - suffix), maxChanges);
+    }
+
+    private static List<String> diff(List<String> a, List<String> b, int maxChanges) {
+        int n = a.size();
+        int m = b.size();
+        int max = Math.min(n + m, maxChanges);
+        int offset = n + m + 1;
+        int[] v = new int[2 * offset + 1];
+        List<int[]> trace = new ArrayList<>(); // the diagonals -d-1 to d+1 of v before every round d
+
+        for (int d = 0; d <= max; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1]; // down: a line of b is added
+                } else {
+                    x = v[offset + k - 1] + 1; // right: a line of a is removed
+                }
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(a, b, trace, d);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> backtrack(List<String> a, List<String> b, List<int[]> trace, int edits) {
+        String[] changes = new String[edits];
+        int x = a.size();
+        int y = b.size();
+        for (int d = edits; d > 0; d--) {
+            int[] v = trace.get(d);
+            int offset = d + 1;
+            int k = x - y;
+            int prevK = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) ? k + 1 : k - 1;
+            int prevX = v[offset + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+            }
+            if (x == prevX) {
+                changes[d - 1] = ADDED_PREFIX + b.get(prevY);
+            } else {
+                changes[d - 1] = REMOVED_PREFIX + a.get(prevX);
+            }
+            x = prevX;
+            y = prevY;
+        }
+        return Arrays.asList(changes);
+    }
+
+    private static List<String> splitLines(String text) {
+        if (text == null || text.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(text.split("\r?\n", -1));
+    }
+}
@@ -16,6 +16,7 @@
  */
 package de.dkwr.bompp.xmpp;
 
+import de.dkwr.bompp.cmd.exec.ThreadBackend;
 import de.dkwr.bompp.cmd.handler.CommandHandler;
 import de.dkwr.bompp.util.BotConfiguration;
 import de.dkwr.bompp.util.BotLogger;
@@ -58,7 +59,7 @@ public class MessageListener {
                     if ((cfg.getListenOnlyAdmin() && cfg.getAdminJID().equalsIgnoreCase(sender))
                             || !cfg.getListenOnlyAdmin()) {
                         System.out.println("\033[34m" + sender + ": " + decryptedBody + "\033[0m ");
-                        commandHandler.handleCommand(decryptedBody, sender);
+                        ThreadBackend.getInstance().handleMessage(sender, () -> commandHandler.handleCommand(decryptedBody, sender));
                     } else {
                         BotLogger.getInstance().logMsg("Got message by other user than administrator:\n"
                                 + "" + sender + ": " + decryptedBody);
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.xmpp.upload;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smackx.httpfileupload.HttpFileUploadManager;
+
+/**
+ * The HttpFileUploader requests the upload slots from the HTTP File Upload
+ * service (XEP-0363) of the XMPP server of the bot.
+ *
+ * @author Dennis Kawurek
+ */
+public class HttpFileUploader extends HttpUploader {
+
+    private final HttpFileUploadManager uploadManager;
+
+    public HttpFileUploader(XMPPConnection connection) {
+        this.uploadManager = HttpFileUploadManager.getInstanceFor(connection);
+    }
+
+    @Override
+    protected Slot requestSlot(String fileName, long size, String contentType) throws Exception {
+        if (!this.uploadManager.isUploadServiceDiscovered() && !this.uploadManager.discoverUploadService()) {
+            throw new IllegalStateException("The XMPP server doesn't provide HTTP File Upload.");
+        }
+        org.jivesoftware.smackx.httpfileupload.element.Slot slot = this.uploadManager.requestSlot(fileName, size, contentType);
+        return new Slot(slot.getPutUrl(), slot.getGetUrl(), slot.getHeaders());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.xmpp.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * The HttpUploader uploads a file with HTTP PUT to a slot, as described in
+ * XEP-0363: HTTP File Upload. The subclasses define how the slot is requested.
+ *
+ * @author Dennis Kawurek
+ */
+public abstract class HttpUploader implements Uploader {
+
+    private static final int TIMEOUT = 30000;
+
+    /**
+     * An upload slot: the URL for the upload, the URL for the download and the
+     * headers which have to be sent with the upload.
+     */
+    public static class Slot {
+
+        private final URL putUrl;
+        private final URL getUrl;
+        private final Map<String, String> headers;
+
+        public Slot(URL putUrl, URL getUrl, Map<String, String> headers) {
+            this.putUrl = putUrl;
+            this.getUrl = getUrl;
+            this.headers = headers;
+        }
+
+        public URL getPutUrl() {
+            return this.putUrl;
+        }
+
+        public URL getGetUrl() {
+            return this.getUrl;
+        }
+
+        public Map<String, String> getHeaders() {
+            return this.headers;
+        }
+    }
+
+    /**
+     * Requests a slot for a file.
+     *
+     * @param fileName the name of the file
+     * @param size the size of the file in bytes
+     * @param contentType the MIME type of the file
+     * @return the slot
+     * @throws Exception when the server doesn't provide a slot
+     */
+    protected abstract Slot requestSlot(String fileName, long size, String contentType) throws Exception;
+
+    @Override
+    public URL upload(Path file, String fileName, String contentType) throws Exception {
+        long size = Files.size(file);
+        Slot slot = this.requestSlot(fileName, size, contentType);
+
+        HttpURLConnection connection = (HttpURLConnection) slot.getPutUrl().openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setFixedLengthStreamingMode(size);
+        connection.setRequestProperty("Content-Type", contentType);
+        if (slot.getHeaders() != null) {
+            slot.getHeaders().forEach(connection::setRequestProperty);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            Files.copy(file, out);
+        }
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_CREATED) {
+            throw new IOException("The upload to " + slot.getPutUrl().getHost() + " failed with HTTP status " + status);
+        }
+        return slot.getGetUrl();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.xmpp.upload;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.dkwr.bompp.cmd.schedule.ScheduleManager;
+import de.dkwr.bompp.util.BotLogger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The LocalUploadServer is an in-process stand-in for an HTTP File Upload
+ * service. It hands out slots, accepts the uploads with HTTP PUT and serves
+ * the files with HTTP GET, so the upload of results can be tested and
+ * measured without an XMPP server which supports XEP-0363.<br/>
+ * The uploaded files are deleted after the given TTL.
+ *
+ * @author Dennis Kawurek
+ */
+public class LocalUploadServer extends HttpUploader {
+
+    private static final String CONTEXT_PATH = "/upload/";
+    private static final int TOKEN_LENGTH = 16;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String baseUrl;
+    private final Path dir;
+    private final long ttl;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Long> pendingSlots = new ConcurrentHashMap<>(); // token -> announced size
+    private final Map<String, Path> files = new ConcurrentHashMap<>(); // token -> uploaded file
+
+    /**
+     * Starts the server.
+     *
+     * @param host the address the server listens on
+     * @param port the port or 0 for any free port
+     * @param dir the folder for the uploaded files
+     * @param ttl the time in ms an uploaded file is kept
+     * @throws IOException when the server can't be started
+     */
+    public LocalUploadServer(String host, int port, Path dir, long ttl) throws IOException {
+        this.dir = dir;
+        this.ttl = ttl;
+        Files.createDirectories(dir);
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.server.createContext(CONTEXT_PATH, this::handle);
+        this.executor = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "local upload server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.executor);
+        this.server.start();
+        this.baseUrl = "http://" + host + ":" + this.server.getAddress().getPort() + CONTEXT_PATH;
+        System.out.println("Local upload server listens on " + this.baseUrl);
+    }
+
+    @Override
+    protected Slot requestSlot(String fileName, long size, String contentType) throws Exception {
+        byte[] tokenBytes = new byte[TOKEN_LENGTH];
+        this.random.nextBytes(tokenBytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : tokenBytes) {
+            token.append(String.format("%02x", b));
+        }
+        this.pendingSlots.put(token.toString(), size);
+        URL url = new URL(this.baseUrl + token + "/" + URLEncoder.encode(fileName, "UTF-8"));
+        return new Slot(url, url, Collections.emptyMap());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().substring(CONTEXT_PATH.length()).split("/");
+            String token = path[0];
+            if ("PUT".equals(exchange.getRequestMethod())) {
+                this.handlePut(exchange, token);
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                this.handleGet(exchange, token);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } catch (IOException | RuntimeException ex) {
+            BotLogger.getInstance().logException(ex);
+            if (exchange.getResponseCode() == -1) {
+                exchange.sendResponseHeaders(500, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handlePut(HttpExchange exchange, String token) throws IOException {
+        Long size = this.pendingSlots.remove(token);
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (size == null) {
+            exchange.sendResponseHeaders(403, -1);
+            return;
+        }
+        if (contentLength == null || Long.parseLong(contentLength) != size) {
+            exchange.sendResponseHeaders(413, -1);
+            return;
+        }
+        Path file = this.dir.resolve(token);
+        try (InputStream in = exchange.getRequestBody()) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.files.put(token, file);
+        ScheduleManager.getInstance().getTimingWheel().schedule(() -> this.delete(token), this.ttl);
+        exchange.sendResponseHeaders(201, -1);
+    }
+
+    private void handleGet(HttpExchange exchange, String token) throws IOException {
+        Path file = this.files.get(token);
+        if (file == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, Files.size(file));
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(file, out);
+        }
+    }
+
+    private void delete(String token) {
+        Path file = this.files.remove(token);
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                BotLogger.getInstance().logException(ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdown();
+        this.files.keySet().forEach(this::delete);
+    }
+}
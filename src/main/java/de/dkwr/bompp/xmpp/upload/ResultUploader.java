@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.xmpp.upload;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import de.dkwr.bompp.util.BotLogger;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.zip.GZIPOutputStream;
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.jivesoftware.smack.XMPPConnection;
+
+/**
+ * The ResultUploader delivers results which are too large for a chat message.
+ * A result is compressed with gzip, encrypted with AES-256-GCM and a one-time
+ * key and uploaded with the configured {@link Uploader}. Only the aesgcm://
+ * link, which contains the IV and the key in its fragment, is sent over OMEMO,
+ * so the upload server can't read the result.<br/>
+ * ResultUploader is a Singleton.
+ *
+ * @author Dennis Kawurek
+ */
+public class ResultUploader {
+
+    private static final ResultUploader INSTANCE = new ResultUploader();
+    private static final String UPLOAD_DIR = "upload";
+    private static final String CONTENT_TYPE = "application/gzip";
+    private static final int KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final String LOCAL_HOST = "127.0.0.1";
+    private final SecureRandom random = new SecureRandom();
+    private volatile Uploader uploader;
+
+    private ResultUploader() {
+    }
+
+    public static ResultUploader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the uploader of the configured upload service.
+     *
+     * @param connection the XMPP connection of the bot
+     */
+    public synchronized void start(XMPPConnection connection) {
+        BotConfiguration cfg = BotConfiguration.getInstance();
+        try {
+            if (cfg.getUploadService() == UploadService.XEP0363) {
+                this.setUploader(new HttpFileUploader(connection));
+            } else if (cfg.getUploadService() == UploadService.LOCAL) {
+                this.setUploader(new LocalUploadServer(LOCAL_HOST, cfg.getUploadPort(), this.getUploadDir().resolve("local"), cfg.getSpillTtl()));
+            }
+        } catch (Exception ex) {
+            BotLogger.getInstance().logException(ex);
+        }
+    }
+
+    /**
+     * Sets the uploader. The old uploader is closed.
+     *
+     * @param uploader the uploader or null to send all results as messages
+     */
+    public synchronized void setUploader(Uploader uploader) {
+        if (this.uploader != null) {
+            this.uploader.close();
+        }
+        this.uploader = uploader;
+    }
+
+    /**
+     * Checks whether large results are uploaded.
+     *
+     * @return true if there is an uploader and an upload threshold
+     */
+    public boolean isEnabled() {
+        return this.uploader != null && BotConfiguration.getInstance().getUploadThreshold() > 0;
+    }
+
+    /**
+     * Checks whether a result is uploaded instead of sent as a message.
+     *
+     * @param size the size of the result in bytes
+     * @return true if there is an uploader and the result is larger than the upload threshold
+     */
+    public boolean shouldUpload(long size) {
+        return this.isEnabled() && size > BotConfiguration.getInstance().getUploadThreshold();
+    }
+
+    /**
+     * Compresses, encrypts and uploads a result.
+     *
+     * @param data the result
+     * @param fileName the name of the file, ".gz" is appended
+     * @return the aesgcm:// link of the file
+     * @throws Exception when the upload fails
+     */
+    public String upload(InputStream data, String fileName) throws Exception {
+        Uploader currentUploader = this.uploader;
+        if (currentUploader == null) {
+            throw new IllegalStateException("There is no upload service.");
+        }
+        byte[] key = new byte[KEY_LENGTH];
+        byte[] iv = new byte[IV_LENGTH];
+        this.random.nextBytes(key);
+        this.random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_LENGTH, iv));
+
+        Path dir = this.getUploadDir();
+        Files.createDirectories(dir);
+        Path file = Files.createTempFile(dir, "result-", ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(new CipherOutputStream(Files.newOutputStream(file), cipher))) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = data.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            URL url = currentUploader.upload(file, fileName + ".gz", CONTENT_TYPE);
+            String location = url.toString().replaceFirst("^[a-zA-Z]+://", "");
+            return "aesgcm://" + location + "#" + toHex(iv) + toHex(key);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Closes the uploader.
+     */
+    public void shutdown() {
+        this.setUploader(null);
+    }
+
+    private Path getUploadDir() {
+        return Paths.get(BotConfiguration.getInstance().getStorePath(), UPLOAD_DIR);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.xmpp.upload;
+
+import java.net.URL;
+import java.nio.file.Path;
+
+/**
+ * An Uploader stores a file on a server and returns the URL from which it can
+ * be downloaded, see {@link ResultUploader}.
+ *
+ * @author Dennis Kawurek
+ */
+public interface Uploader {
+
+    /**
+     * Uploads a file.
+     *
+     * @param file the file
+     * @param fileName the name of the file on the server
+     * @param contentType the MIME type of the file
+     * @return the download URL
+     * @throws Exception when the upload fails
+     */
+    URL upload(Path file, String fileName, String contentType) throws Exception;
+
+    /**
+     * Frees the resources of the uploader.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,84 @@
+<?php
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Worker for the BoMPP worker pools (see de.dkwr.bompp.cmd.exec.Worker).
+ * It executes PHP scripts on request inside of this interpreter and sends
+ * their output as OUT/ERR frames followed by an EXIT frame.
+ * If a script calls exit(), the worker sends QUIT instead of EXIT and
+ * terminates with the exit status of the script. The pool replaces it.
+ */
+
+$bomppIn = fopen('php://stdin', 'rb');
+$bomppOut = fopen('php://stdout', 'wb');
+$bomppRunning = false;
+
+function bompp_send($header, $body = '') {
+    global $bomppOut;
+    fwrite($bomppOut, $header . "\n" . $body);
+    fflush($bomppOut);
+}
+
+function bompp_output($buffer) {
+    if ($buffer !== '') {
+        bompp_send('OUT ' . strlen($buffer), $buffer);
+    }
+    return '';
+}
+
+function bompp_run($bomppPath) {
+    include $bomppPath;
+}
+
+register_shutdown_function(function () {
+    global $bomppRunning;
+    if ($bomppRunning) {
+        while (ob_get_level() > 0) {
+            ob_end_flush();
+        }
+        // PHP doesn't tell the status of exit() here, it becomes the exit status of this process
+        bompp_send('QUIT');
+    }
+});
+
+bompp_send('READY');
+while (($header = fgets($bomppIn)) !== false) {
+    $header = trim($header);
+    if ($header === 'PING') {
+        bompp_send('PONG');
+    } elseif (strncmp($header, 'RUN ', 4) === 0) {
+        $length = (int) substr($header, 4);
+        $path = '';
+        while (strlen($path) < $length && !feof($bomppIn)) {
+            $path .= fread($bomppIn, $length - strlen($path));
+        }
+        $code = 0;
+        $bomppRunning = true;
+        ob_start('bompp_output', 4096);
+        try {
+            bompp_run($path);
+        } catch (Throwable $e) {
+            $error = (string) $e . "\n";
+            bompp_send('ERR ' . strlen($error), $error);
+            $code = 1;
+        }
+        ob_end_flush();
+        $bomppRunning = false;
+        bompp_send('EXIT ' . $code);
+    }
+}
@@ -0,0 +1,153 @@
+# Copyright (C) 2018 Dennis Kawurek
+#
+# This program is free software: you can redistribute it and/or modify
+# it under the terms of the GNU General Public License as published by
+# the Free Software Foundation, either version 3 of the License, or
+# (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU General Public License for more details.
+#
+# You should have received a copy of the GNU General Public License
+# along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+# Worker for the BoMPP worker pools (see de.dkwr.bompp.cmd.exec.Worker).
+# It executes Python scripts on request inside of this interpreter and
+# sends their output as OUT/ERR frames followed by an EXIT frame.
+# The stdout of child processes of a script (os.system, subprocess) is read
+# from a pipe and sent as OUT frames as well.
+
+import io
+import os
+import runpy
+import sys
+import threading
+import traceback
+
+# The protocol uses copies of stdin/stdout. The original file descriptors are
+# replaced, so child processes of a script can't read or corrupt the frames.
+_proto_in = os.fdopen(os.dup(0), 'rb')
+_proto_out = os.fdopen(os.dup(1), 'wb')
+_devnull = os.open(os.devnull, os.O_RDONLY)
+os.dup2(_devnull, 0)
+_child_out, _child_out_writer = os.pipe()
+os.dup2(_child_out_writer, 1)
+os.close(_child_out_writer)
+
+_send_lock = threading.Lock()
+_run_lock = threading.Lock()
+_run_marker = None  # written into the pipe at the end of a run, set while a script runs
+_run_drained = threading.Event()
+_DRAIN_TIMEOUT = 5
+
+
+def _send(header, body=b''):
+    with _send_lock:
+        _proto_out.write(header.encode('ascii') + b'\n' + body)
+        _proto_out.flush()
+
+
+def _forward_child_output():
+    # Sends the output of child processes while a script runs. The output of
+    # processes which are still running after the end of their script goes
+    # to stderr, where it is logged by the bot.
+    pending = b''
+    while True:
+        data = os.read(_child_out, 65536)
+        if not data:
+            return
+        with _run_lock:
+            marker = _run_marker
+        data = pending + data
+        pending = b''
+        if marker is None:
+            os.write(2, data)
+            continue
+        end = data.find(marker)
+        if end != -1:
+            if end > 0:
+                _send('OUT %d' % end, data[:end])
+            rest = data[end + len(marker):]
+            if rest:
+                os.write(2, rest)
+            _run_drained.set()
+            continue
+        # the marker could start at the end of the data, so these bytes wait for the next read
+        keep = 0
+        for length in range(min(len(marker) - 1, len(data)), 0, -1):
+            if data.endswith(marker[:length]):
+                keep = length
+                break
+        if keep:
+            pending = data[-keep:]
+            data = data[:-keep]
+        if data:
+            _send('OUT %d' % len(data), data)
+
+
+class _FrameWriter(io.TextIOBase):
+
+    def __init__(self, kind):
+        self.kind = kind
+
+    def writable(self):
+        return True
+
+    def write(self, text):
+        data = text.encode('utf-8', 'replace')
+        if data:
+            _send('%s %d' % (self.kind, len(data)), data)
+        return len(text)
+
+
+def _run(path):
+    global _run_marker
+    with _run_lock:
+        _run_marker = b'\0BOMPP-END-' + os.urandom(16).hex().encode('ascii') + b'\0'
+    _run_drained.clear()
+    stdout, stderr, argv = sys.stdout, sys.stderr, sys.argv
+    sys.stdout, sys.stderr = _FrameWriter('OUT'), _FrameWriter('ERR')
+    sys.argv = [path]
+    code = 0
+    try:
+        runpy.run_path(path, run_name='__main__')
+    except SystemExit as e:
+        if e.code is None:
+            code = 0
+        elif isinstance(e.code, int):
+            code = e.code
+        else:
+            sys.stderr.write(str(e.code) + '\n')
+            code = 1
+    except BaseException:
+        traceback.print_exc()
+        code = 1
+    finally:
+        sys.stdout, sys.stderr, sys.argv = stdout, stderr, argv
+    # the output of the child processes which is still in the pipe is sent before EXIT
+    os.write(1, _run_marker)
+    _run_drained.wait(_DRAIN_TIMEOUT)
+    with _run_lock:
+        _run_marker = None
+    return code
+
+
+def main():
+    threading.Thread(target=_forward_child_output, name='child output', daemon=True).start()
+    _send('READY')
+    while True:
+        header = _proto_in.readline()
+        if not header:
+            return
+        header = header.decode('ascii').strip()
+        if header == 'PING':
+            _send('PONG')
+        elif header.startswith('RUN '):
+            path = _proto_in.read(int(header[4:])).decode('utf-8')
+            _send('EXIT %d' % _run(path))
+
+
+if __name__ == '__main__':
+    main()
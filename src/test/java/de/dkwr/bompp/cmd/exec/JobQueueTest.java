@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import de.dkwr.bompp.util.Command;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the order in which the {@link JobQueue} returns the waiting jobs.
+ *
+ * @author Dennis Kawurek
+ */
+public class JobQueueTest {
+
+    private JobQueue queue;
+
+    @Before
+    public void setUp() {
+        this.queue = new JobQueue(100, 0);
+        BotConfiguration.getInstance().setSchedulingPolicy(SchedulingPolicy.FAIR_SHARE);
+        BotConfiguration.getInstance().setUserWeights(new HashMap<>());
+    }
+
+    @After
+    public void tearDown() {
+        BotConfiguration.getInstance().setUserWeights(new HashMap<>());
+    }
+
+    @Test
+    public void testClientsTakeTurns() {
+        this.add("a@bot", "a1", Priority.NORMAL);
+        this.add("a@bot", "a2", Priority.NORMAL);
+        this.add("a@bot", "a3", Priority.NORMAL);
+        this.add("b@bot", "b1", Priority.NORMAL);
+        this.add("b@bot", "b2", Priority.NORMAL);
+        assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3"), this.drain());
+    }
+
+    @Test
+    public void testWeightedClientGetsMoreJobsPerTurn() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a@bot", 3);
+        BotConfiguration.getInstance().setUserWeights(weights);
+        for (int i = 1; i <= 5; i++) {
+            this.add("a@bot", "a" + i, Priority.NORMAL);
+        }
+        this.add("b@bot", "b1", Priority.NORMAL);
+        this.add("b@bot", "b2", Priority.NORMAL);
+        assertEquals(Arrays.asList("a1", "a2", "a3", "b1", "a4", "a5", "b2"), this.drain());
+    }
+
+    @Test
+    public void testWeightIsIgnoringCaseOfJid() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a@bot", 2);
+        BotConfiguration.getInstance().setUserWeights(weights);
+        this.add("A@Bot", "a1", Priority.NORMAL);
+        this.add("a@bot", "a2", Priority.NORMAL);
+        this.add("b@bot", "b1", Priority.NORMAL);
+        assertEquals(Arrays.asList("a1", "a2", "b1"), this.drain());
+    }
+
+    @Test
+    public void testClientWhichBecomesIdleLosesItsTurn() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a@bot", 2);
+        BotConfiguration.getInstance().setUserWeights(weights);
+        this.add("a@bot", "a1", Priority.NORMAL);
+        this.add("b@bot", "b1", Priority.NORMAL);
+        assertEquals("a1", this.name(this.queue.poll()));
+        // a has no more jobs, so it gets a new turn behind b
+        this.add("a@bot", "a2", Priority.NORMAL);
+        assertEquals(Arrays.asList("b1", "a2"), this.drain());
+    }
+
+    @Test
+    public void testHigherPriorityComesBeforeWeight() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a@bot", 5);
+        BotConfiguration.getInstance().setUserWeights(weights);
+        this.add("a@bot", "a1", Priority.NORMAL);
+        this.add("a@bot", "a2", Priority.NORMAL);
+        this.add("b@bot", "b1", Priority.HIGH);
+        this.add(null, "cli", Priority.LOW);
+        assertEquals(Arrays.asList("b1", "a1", "a2", "cli"), this.drain());
+    }
+
+    @Test
+    public void testPollOldestRemovesOldestOfLowestPriority() throws InterruptedException {
+        this.add("a@bot", "a1", Priority.HIGH);
+        this.add("a@bot", "a2", Priority.LOW);
+        Thread.sleep(5); // the age is measured in ms
+        this.add("b@bot", "b1", Priority.LOW);
+        assertEquals("a2", this.name(this.queue.pollOldest()));
+        assertEquals(Arrays.asList("a1", "b1"), this.drain());
+        assertNull(this.queue.pollOldest());
+    }
+
+    private void add(String jid, String name, Priority priority) {
+        Command command = new Command(name, "/bin/true", "", "", false);
+        Job job = new Job(name, new ExecuteScriptThread(command, jid, true, null));
+        job.setPriority(priority);
+        assertEquals(true, this.queue.offer(job));
+    }
+
+    private List<String> drain() {
+        List<String> names = new ArrayList<>();
+        Runnable task;
+        while ((task = this.queue.poll()) != null) {
+            names.add(this.name(task));
+        }
+        return names;
+    }
+
+    private String name(Runnable task) {
+        return ((Job) task).getCommandName();
+    }
+}
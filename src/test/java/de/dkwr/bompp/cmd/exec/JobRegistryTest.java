@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.Command;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the limits of the {@link JobRegistry}.
+ *
+ * @author Dennis Kawurek
+ */
+public class JobRegistryTest {
+
+    private final JobRegistry registry = new JobRegistry();
+
+    @Test
+    public void testMaxConcurrent() {
+        Command a = command("a", 2);
+        assertEquals(JobRegistry.Registration.REGISTERED, this.register(a, null));
+        assertEquals(JobRegistry.Registration.REGISTERED, this.register(a, null));
+        assertEquals(JobRegistry.Registration.COMMAND_LIMIT, this.register(a, null));
+    }
+
+    @Test
+    public void testClientLimit() {
+        Command a = command("a", 5);
+        assertEquals(JobRegistry.Registration.REGISTERED, this.register(a, "x@bot"));
+        assertEquals(JobRegistry.Registration.CLIENT_LIMIT, this.register(a, "X@bot"));
+        assertEquals(JobRegistry.Registration.REGISTERED, this.register(a, "y@bot"));
+    }
+
+    @Test
+    public void testPipelineIsLimitedByItsStages() {
+        Command a = command("a", 1);
+        Command b = command("b", 3);
+        Command pipeline = Command.createPipeline("a | b", null, Arrays.asList(a, b));
+        pipeline.setMaxConcurrent(5);
+
+        Job first = this.job(pipeline, null);
+        assertEquals(JobRegistry.Registration.REGISTERED, this.registry.register(first, pipeline.getConcurrencyLimits(), 0));
+        // a is running in the pipeline, so neither a nor another pipeline with a may start
+        assertEquals(JobRegistry.Registration.COMMAND_LIMIT, this.register(a, null));
+        assertEquals(JobRegistry.Registration.COMMAND_LIMIT, this.register(pipeline, null));
+        assertEquals(JobRegistry.Registration.REGISTERED, this.register(b, null));
+
+        // the pipeline is no job of its stages
+        assertEquals(Collections.singletonList(first), this.registry.getJobs("a | b"));
+        assertEquals(0, this.registry.getJobs("a").size());
+
+        this.registry.unregister(first);
+        assertEquals(JobRegistry.Registration.REGISTERED, this.register(a, null));
+    }
+
+    @Test
+    public void testSingleFlightStageMakesPipelineSingleFlight() {
+        Command a = command("a", 1);
+        a.setSingleFlight(true);
+        assertEquals(true, Command.createPipeline("a | b", null, Arrays.asList(a, command("b", 1))).isSingleFlight());
+        assertEquals(false, Command.createPipeline("b | c", null, Arrays.asList(command("b", 1), command("c", 1))).isSingleFlight());
+    }
+
+    private JobRegistry.Registration register(Command command, String jid) {
+        return this.registry.register(this.job(command, jid), command.getConcurrencyLimits(), 1);
+    }
+
+    private Job job(Command command, String jid) {
+        return new Job(command.getCommandName(), new ExecuteScriptThread(command, jid, true, null));
+    }
+
+    private static Command command(String name, int maxConcurrent) {
+        Command command = new Command(name, "/bin/true", "", "", false);
+        command.setMaxConcurrent(maxConcurrent);
+        return command;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests the {@link LineDecoder} with the bytes of a stream in small chunks,
+ * like a {@link StreamPump} reads them.
+ *
+ * @author Dennis Kawurek
+ */
+public class LineDecoderTest {
+
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    @Test
+    public void testCharactersSplitOverChunks() {
+        String text = "a\u00e4\u20ac\uD83D\uDE00\nb";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+            assertEquals(text + "\n", decode(bytes, chunkSize));
+        }
+    }
+
+    @Test
+    public void testCarriageReturnBeforeLineBreakIsDropped() {
+        byte[] bytes = "a\r\nb\rc\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals("a\nb\rc\n\n", decode(bytes, bytes.length));
+        assertEquals("a\nb\rc\n\n", decode(bytes, 1));
+    }
+
+    @Test
+    public void testLastLineWithoutLineBreak() {
+        assertEquals("a\nb\n", decode("a\nb".getBytes(StandardCharsets.UTF_8), 2));
+        assertEquals("", decode(new byte[0], 1));
+    }
+
+    @Test
+    public void testLongLinesAreSplit() {
+        char[] line = new char[2 * MAX_LINE_LENGTH + 5];
+        Arrays.fill(line, 'x');
+        String[] lines = decode(new String(line).getBytes(StandardCharsets.UTF_8), 8192).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals(MAX_LINE_LENGTH, lines[0].length());
+        assertEquals(MAX_LINE_LENGTH, lines[1].length());
+        assertEquals(5, lines[2].length());
+    }
+
+    @Test
+    public void testLongLinesAreNotSplitInsideASurrogatePair() {
+        StringBuilder line = new StringBuilder("x");
+        for (int i = 0; i < MAX_LINE_LENGTH; i++) {
+            line.append("\uD83D\uDE00");
+        }
+        String decoded = decode(line.toString().getBytes(StandardCharsets.UTF_8), 8192);
+        for (String part : decoded.split("\n")) {
+            assertFalse(Character.isHighSurrogate(part.charAt(part.length() - 1)));
+            assertFalse(Character.isLowSurrogate(part.charAt(0)));
+        }
+        assertEquals(line.toString(), decoded.replace("\n", ""));
+    }
+
+    @Test
+    public void testInvalidBytesAreReplaced() {
+        assertEquals("a\uFFFDb\n", decode(new byte[] {'a', (byte) 0xFF, 'b', '\n'}, 1));
+        // the stream ends in the middle of a character
+        assertEquals("a\uFFFD\n", decode(new byte[] {'a', (byte) 0xC3}, 1));
+    }
+
+    @Test
+    public void testControlCharactersAreReplaced() {
+        assertEquals("a\uFFFDb\tc\n", decode("a\u0000b\tc".getBytes(StandardCharsets.UTF_8), 3));
+    }
+
+    /**
+     * Decodes the bytes in chunks of the given size with small buffers.
+     */
+    private static String decode(byte[] bytes, int chunkSize) {
+        LineDecoder decoder = new LineDecoder(StandardCharsets.UTF_8);
+        ByteBuffer in = ByteBuffer.allocate(chunkSize + 4); // room for an incomplete character
+        CharBuffer out = CharBuffer.allocate(7);
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            in.put(bytes, i, Math.min(chunkSize, bytes.length - i));
+            in.flip();
+            decoder.decode(in, out, lines, false);
+            in.compact();
+        }
+        in.flip();
+        decoder.decode(in, out, lines, true);
+        return lines.toString();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the head and the tail which {@link OutputCapture} keeps and the
+ * marker for the omitted output.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputCaptureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private OutputCapture capture;
+
+    @After
+    public void release() {
+        if (this.capture != null) {
+            this.capture.release();
+        }
+    }
+
+    @Test
+    public void testOutputWhichFitsIsComplete() {
+        this.capture = new OutputCapture(100, 100);
+        this.capture.append("a\nb");
+        this.capture.append("\u00e4");
+        assertEquals("a\nb\n\u00e4\n", this.capture.toString());
+        assertEquals(3, this.capture.getTotalLines());
+        assertEquals(7, this.capture.getTotalBytes());
+    }
+
+    @Test
+    public void testEmptyCapture() {
+        this.capture = new OutputCapture(4, 4);
+        assertTrue(this.capture.isEmpty());
+        assertEquals("", this.capture.toString());
+    }
+
+    @Test
+    public void testFirstLineFillsTheHead() {
+        this.capture = new OutputCapture(4, 8);
+        this.capture.append("abcd");
+        assertEquals("abcd\n", this.capture.toString());
+        this.capture.append("ef");
+        assertEquals("abcd\nef\n", this.capture.toString());
+    }
+
+    @Test
+    public void testLongFirstLineIsCutBeforeACharacter() {
+        this.capture = new OutputCapture(4, 0);
+        this.capture.append("abc\u00e4x"); // the umlaut is encoded in the bytes 3 and 4
+        assertEquals("abc\n[... 4 bytes (1 lines) omitted, the output has 1 lines and 7 bytes ...]\n",
+                this.capture.toString());
+
+        this.capture.release();
+        this.capture.append("a\uD83D\uDE00"); // the emoji has 4 bytes
+        assertEquals("a\n[... 5 bytes (1 lines) omitted, the output has 1 lines and 6 bytes ...]\n",
+                this.capture.toString());
+    }
+
+    @Test
+    public void testTailStartsAfterACharacter() {
+        this.capture = new OutputCapture(0, 4);
+        this.capture.append("x\u00e4\u00e4"); // the last 4 bytes start in the middle of the first umlaut
+        assertEquals("[... 3 bytes (0 lines) omitted, the output has 1 lines and 6 bytes ...]\n\u00e4\n",
+                this.capture.toString());
+    }
+
+    @Test
+    public void testMarkerBetweenHeadAndTail() {
+        this.capture = new OutputCapture(4, 4);
+        this.capture.append("ab\ncd\nef\ngh\nij");
+        assertEquals("ab\n[... 8 bytes (2 lines) omitted, the output has 5 lines and 15 bytes ...]\n\nij\n",
+                this.capture.toString());
+    }
+
+    @Test
+    public void testUnpairedSurrogateIsReplaced() {
+        this.capture = new OutputCapture(100, 0);
+        this.capture.append("a\uD83Db");
+        assertEquals("a?b\n", this.capture.toString());
+    }
+
+    @Test
+    public void testSpillFileHasTheWholeOutput() throws Exception {
+        Path spillFile = this.folder.getRoot().toPath().resolve("output");
+        this.capture = new OutputCapture(4, 4);
+        this.capture.setSpillFile(spillFile, 1000);
+        this.capture.append("ab\ncd\nef\ngh\nij");
+        assertTrue(this.capture.finishSpill());
+        assertFalse(this.capture.isSpillTruncated());
+        assertEquals(3, this.capture.getHeadBytes());
+        assertEquals(15, this.capture.getSpillBytes());
+        assertArrayEquals("ab\ncd\nef\ngh\nij\n".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(spillFile));
+    }
+
+    @Test
+    public void testSpillFileIsTruncated() throws Exception {
+        Path spillFile = this.folder.getRoot().toPath().resolve("output");
+        this.capture = new OutputCapture(4, 4);
+        this.capture.setSpillFile(spillFile, 8);
+        this.capture.append("ab\ncd\nef\ngh");
+        assertTrue(this.capture.finishSpill());
+        assertTrue(this.capture.isSpillTruncated());
+        assertArrayEquals("ab\ncd\n".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(spillFile));
+    }
+
+    @Test
+    public void testCaptureWhichFitsIsNotSpilled() {
+        this.capture = new OutputCapture(100, 4);
+        this.capture.setSpillFile(this.folder.getRoot().toPath().resolve("output"), 1000);
+        this.capture.append("ab");
+        assertFalse(this.capture.finishSpill());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the batches of the {@link OutputCoalescer}.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputCoalescerTest {
+
+    private static final long DELAY = 60000;
+
+    @Test
+    public void testOneBatchPerLine() {
+        OutputCoalescer coalescer = new OutputCoalescer(1, 1000, DELAY);
+        assertEquals(Arrays.asList("a", "b", "c"), coalescer.add("a\nb\nc"));
+        assertFalse(coalescer.hasPending());
+    }
+
+    @Test
+    public void testChunkIsSplitAtMaxLines() {
+        OutputCoalescer coalescer = new OutputCoalescer(2, 1000, DELAY);
+        assertEquals(Collections.singletonList("a\nb"), coalescer.add("a\nb\nc"));
+        assertTrue(coalescer.hasPending());
+        assertEquals(Collections.singletonList("c\nd"), coalescer.add("d"));
+        assertEquals(Collections.emptyList(), coalescer.add("e"));
+        assertEquals("e", coalescer.flush());
+        assertFalse(coalescer.hasPending());
+    }
+
+    @Test
+    public void testBatchesDoNotExceedMaxBytes() {
+        OutputCoalescer coalescer = new OutputCoalescer(100, 5, DELAY);
+        assertEquals(Collections.singletonList("aa\nbb"), coalescer.add("aa\nbb\ncc"));
+        // a line which is larger than the maximum size is a batch of its own
+        assertEquals(Arrays.asList("cc", "dddddd"), coalescer.add("dddddd"));
+        assertFalse(coalescer.hasPending());
+    }
+
+    @Test
+    public void testBytesAreCountedInUtf8() {
+        OutputCoalescer coalescer = new OutputCoalescer(100, 4, DELAY);
+        assertEquals(Collections.singletonList("\u00e4\u00e4"), coalescer.add("\u00e4\u00e4"));
+        assertEquals(Collections.emptyList(), coalescer.add("abc"));
+    }
+
+    @Test
+    public void testBatchWaitsForTheDelay() {
+        OutputCoalescer coalescer = new OutputCoalescer(100, 1000, DELAY);
+        assertEquals(Collections.emptyList(), coalescer.add("a"));
+        assertTrue(coalescer.getRemainingDelay() > 0);
+
+        OutputCoalescer withoutDelay = new OutputCoalescer(100, 1000, 0);
+        assertEquals(Collections.singletonList("a\nb"), withoutDelay.add("a\nb"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Reads the output of short-lived processes with the {@link OutputMultiplexer}.
+ * The processes exit right after their last output, so it has to be read
+ * after the exit.
+ *
+ * @author Dennis Kawurek
+ */
+public class OutputMultiplexerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        BotConfiguration.getInstance().setStorePath(new File(this.folder.getRoot(), "bot").getPath());
+        OutputMultiplexer.getInstance().start(1);
+    }
+
+    @After
+    public void tearDown() {
+        OutputMultiplexer.getInstance().shutdown();
+    }
+
+    @Test
+    public void testLastLineIsDelivered() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            assertEquals("last\n", this.read("echo last"));
+        }
+    }
+
+    @Test
+    public void testOutputWrittenRightBeforeTheExitIsDelivered() throws Exception {
+        assertEquals("last\n", this.read(new ExitingProcess("last\n")));
+    }
+
+    @Test
+    public void testStdoutAndStderrAreDelivered() throws Exception {
+        assertEquals("out1\nout2\nerr\n", this.read("echo out1; echo err >&2; printf out2"));
+    }
+
+    /**
+     * Runs a shell command and returns its stdout followed by its stderr.
+     */
+    private String read(String command) throws Exception {
+        return this.read(new ProcessBuilder("/bin/sh", "-c", command).start());
+    }
+
+    private String read(Process process) throws Exception {
+        BlockingQueue<OutputLine> queue = new LinkedBlockingQueue<>();
+        OutputMultiplexer.getInstance().register(process, queue, StandardCharsets.UTF_8);
+        StringBuilder stdout = new StringBuilder();
+        StringBuilder stderr = new StringBuilder();
+        int openStreams = 2;
+        while (openStreams > 0) {
+            OutputLine line = queue.poll(10, TimeUnit.SECONDS);
+            assertNotNull("the end of the output is missing", line);
+            if (line.isEndOfStream()) {
+                openStreams--;
+            } else {
+                (line.isStderr() ? stderr : stdout).append(line.getText()).append('\n');
+            }
+        }
+        process.waitFor();
+        return stdout.append(stderr).toString();
+    }
+
+    /**
+     * A process which writes its output and exits at the moment its exit is
+     * checked, so the output wasn't available before.
+     */
+    private static class ExitingProcess extends Process {
+
+        private final LateInputStream stdout;
+
+        private ExitingProcess(String output) {
+            this.stdout = new LateInputStream(output.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean isAlive() {
+            this.stdout.written = true;
+            return false;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return this.stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            };
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    private static class LateInputStream extends ByteArrayInputStream {
+
+        private volatile boolean written = false;
+
+        private LateInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int available() {
+            return this.written ? super.available() : 0;
+        }
+    }
+}
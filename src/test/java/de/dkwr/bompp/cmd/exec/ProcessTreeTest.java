@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link ProcessTree} with the processes in /proc.
+ *
+ * @author Dennis Kawurek
+ */
+public class ProcessTreeTest {
+
+    @Test
+    public void testTreeContainsAllDescendants() {
+        Map<Long, List<Long>> children = new HashMap<>();
+        children.put(1L, Arrays.asList(2L, 3L));
+        children.put(3L, Arrays.asList(4L));
+        children.put(5L, Arrays.asList(6L));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), ProcessTree.getTree(1L, children));
+        assertEquals(Arrays.asList(3L, 4L), ProcessTree.getTree(3L, children));
+    }
+
+    @Test
+    public void testStartTimeIdentifiesAProcess() throws Exception {
+        Process process = new ProcessBuilder("sleep", "30").start();
+        long pid = ProcessTree.getPid(process);
+        long startTime = ProcessTree.getStartTime(pid);
+        assertTrue(startTime > 0);
+        assertEquals(startTime, ProcessTree.getStartTime(pid));
+
+        process.destroyForcibly();
+        assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+        assertEquals(-1, ProcessTree.getStartTime(pid));
+    }
+
+    @Test
+    public void testProcessWhichIgnoresSigtermIsKilled() throws Exception {
+        Process process = new ProcessBuilder("/bin/sh", "-c", "trap '' TERM; echo started; sleep 30").start();
+        assertEquals('s', process.getInputStream().read()); // the trap is set
+        long startTime = System.nanoTime();
+        ProcessTree.terminate(process, 200);
+        assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 200);
+    }
+}
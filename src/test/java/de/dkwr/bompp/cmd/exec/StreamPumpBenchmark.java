@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap allocation of reading a log-like output through a
+ * {@link StreamPump} into an {@link OutputCapture} with the old way, which
+ * read every line with BufferedReader.readLine() and collected the output
+ * in a StringBuilder.<br/>
+ * The allocated bytes are counted per thread by the JVM, so a garbage
+ * collection during a round doesn't change the result. It isn't run with
+ * the tests, start it with the number of lines as argument:<br/>
+ * java -cp ... de.dkwr.bompp.cmd.exec.StreamPumpBenchmark 1000000
+ *
+ * @author Dennis Kawurek
+ */
+public class StreamPumpBenchmark {
+
+    private static final int ROUNDS = 6;
+    private static final int QUEUE_SIZE = 256;
+    private static final int CAPTURE_SIZE = 32768;
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * The allocated bytes and the time of one round.
+     */
+    private static class Result {
+
+        private volatile long readerBytes;
+        private long consumerBytes;
+        private long time;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            output.append("2018-10-18 12:00:").append(i % 60).append(" INFO worker-").append(i % 7)
+                    .append(" processed item ").append(i).append('\n');
+        }
+        byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+        System.out.println(bytes.length / 1024 + " KB, " + lines + " lines");
+        for (int round = 0; round < ROUNDS; round++) {
+            Result readLine = runReadLine(bytes);
+            Result pump = runStreamPump(bytes);
+            System.out.println("Round " + round + ": readLine " + format(readLine, lines) + " | StreamPump " + format(pump, lines)
+                    + " | " + (100 - 100 * total(pump) / total(readLine)) + " % less allocated");
+        }
+    }
+
+    /**
+     * The old way: one queue element per line and a StringBuilder with the whole output.
+     */
+    private static Result runReadLine(byte[] bytes) throws InterruptedException {
+        Result result = new Result();
+        BlockingQueue<OutputLine> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        long startTime = System.nanoTime();
+        Thread reader = new Thread(() -> {
+            long allocated = allocatedBytes();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    queue.put(new OutputLine(OutputLine.Stream.STDOUT, line));
+                }
+                queue.put(OutputLine.endOfStream(OutputLine.Stream.STDOUT));
+            } catch (IOException | InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            result.readerBytes = allocatedBytes() - allocated;
+        }, "benchmark readLine");
+        reader.start();
+        long allocated = allocatedBytes();
+        StringBuilder collected = new StringBuilder();
+        OutputLine line;
+        while (!(line = queue.take()).isEndOfStream()) {
+            collected.append(line.getText()).append('\n');
+        }
+        result.consumerBytes = allocatedBytes() - allocated;
+        reader.join();
+        result.time = System.nanoTime() - startTime;
+        return result;
+    }
+
+    /**
+     * The new way: the lines of one read are one queue element and the output is captured with a bounded size.
+     */
+    private static Result runStreamPump(byte[] bytes) throws InterruptedException {
+        Result result = new Result();
+        BlockingQueue<OutputLine> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        StreamPump pump = new StreamPump(new ByteArrayInputStream(bytes), OutputLine.Stream.STDOUT, queue, StandardCharsets.UTF_8);
+        long startTime = System.nanoTime();
+        Thread reader = new Thread(() -> {
+            long allocated = allocatedBytes();
+            pump.run();
+            result.readerBytes = allocatedBytes() - allocated;
+        }, "benchmark pump");
+        reader.start();
+        long allocated = allocatedBytes();
+        OutputCapture capture = new OutputCapture(CAPTURE_SIZE, CAPTURE_SIZE);
+        OutputLine line;
+        while (!(line = queue.take()).isEndOfStream()) {
+            capture.append(line.getText());
+        }
+        result.consumerBytes = allocatedBytes() - allocated;
+        capture.release();
+        reader.join();
+        result.time = System.nanoTime() - startTime;
+        return result;
+    }
+
+    private static long allocatedBytes() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long total(Result result) {
+        return result.readerBytes + result.consumerBytes;
+    }
+
+    private static String format(Result result, int lines) {
+        return "reader " + result.readerBytes / lines + " B/line, consumer " + result.consumerBytes / lines + " B/line, "
+                + TimeUnit.NANOSECONDS.toMillis(result.time) + " ms";
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds a fixed output through a {@link StreamPump} into an
+ * {@link OutputCapture}, like a script thread does.
+ *
+ * @author Dennis Kawurek
+ */
+public class StreamPumpTest {
+
+    @Test
+    public void testOutputIsCapturedCompletely() throws InterruptedException {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            output.append("line ").append(i).append(i % 10 == 0 ? " \u00e4\u20ac\uD83D\uDE00\r\n" : "\n");
+        }
+        byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+        BlockingQueue<OutputLine> queue = new LinkedBlockingQueue<>();
+        StreamPump pump = new StreamPump(new ByteArrayInputStream(bytes), OutputLine.Stream.STDOUT, queue, StandardCharsets.UTF_8);
+        pump.run();
+        assertEquals(bytes.length, pump.getByteCount());
+
+        OutputCapture capture = new OutputCapture(bytes.length, 0);
+        try {
+            int elements = 0;
+            OutputLine line;
+            while (!(line = queue.take()).isEndOfStream()) {
+                assertEquals(OutputLine.Stream.STDOUT, line.getStream());
+                capture.append(line.getText());
+                elements++;
+            }
+            // the lines of one read are one element
+            assertTrue(elements < 5000);
+            assertEquals(5000, capture.getTotalLines());
+            assertEquals(output.toString().replace("\r\n", "\n"), capture.toString());
+            assertTrue(queue.isEmpty());
+        } finally {
+            capture.release();
+        }
+    }
+
+    @Test
+    public void testEmptyStreamOnlyHasTheEndOfStream() throws InterruptedException {
+        BlockingQueue<OutputLine> queue = new LinkedBlockingQueue<>();
+        new StreamPump(new ByteArrayInputStream(new byte[0]), OutputLine.Stream.STDERR, queue, StandardCharsets.UTF_8).run();
+        OutputLine line = queue.take();
+        assertTrue(line.isEndOfStream());
+        assertEquals(OutputLine.Stream.STDERR, line.getStream());
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the handling of the received messages by the {@link ThreadBackend}.
+ *
+ * @author Dennis Kawurek
+ */
+public class ThreadBackendTest {
+
+    @Test
+    public void testPlatformBackendUsesBoundedPoolInOrder() throws Exception {
+        ThreadBackend backend = ThreadBackend.getInstance();
+        backend.select(ExecutorBackend.PLATFORM);
+        int senders = 20;
+        int messages = 50;
+        CountDownLatch done = new CountDownLatch(senders * messages);
+        Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+        List<List<Integer>> received = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            received.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        for (int m = 0; m < messages; m++) {
+            for (int s = 0; s < senders; s++) {
+                List<Integer> list = received.get(s);
+                int number = m;
+                backend.handleMessage("user" + s + "@example.org", () -> {
+                    threadNames.add(Thread.currentThread().getName());
+                    list.add(number);
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(threadNames.size() <= 4);
+        for (List<Integer> list : received) {
+            assertEquals(messages, list.size());
+            for (int m = 0; m < messages; m++) {
+                assertEquals(Integer.valueOf(m), list.get(m));
+            }
+        }
+    }
+}
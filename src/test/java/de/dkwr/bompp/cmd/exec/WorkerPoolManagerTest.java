@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.exec;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Replaces the pools of the {@link WorkerPoolManager} like a reload of the
+ * config file. The pools start the bundled Python worker.
+ *
+ * @author Dennis Kawurek
+ */
+public class WorkerPoolManagerTest {
+
+    private static final String WORKER = new File("src/main/resources/workers/bompp_worker.py").getAbsolutePath();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        BotConfiguration.getInstance().setStorePath(new File(this.folder.getRoot(), "bot").getPath());
+        ThreadBackend.getInstance().select(ExecutorBackend.PLATFORM);
+    }
+
+    @After
+    public void tearDown() {
+        WorkerPoolManager.getInstance().shutdown();
+    }
+
+    @Test
+    public void testUnchangedPoolKeepsItsWorkers() {
+        WorkerPool pool = pool(1, 100);
+        WorkerPoolManager.getInstance().setPools(Collections.singletonList(pool));
+        WorkerPoolManager.getInstance().setPools(Collections.singletonList(pool(1, 100)));
+        assertSame(pool, WorkerPoolManager.getInstance().getPool("python3"));
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testChangedPoolIsReplaced() {
+        WorkerPool pool = pool(1, 100);
+        WorkerPoolManager.getInstance().setPools(Collections.singletonList(pool));
+        WorkerPool changedPool = pool(1, 10);
+        WorkerPoolManager.getInstance().setPools(Arrays.asList(changedPool));
+        assertSame(changedPool, WorkerPoolManager.getInstance().getPool("python3"));
+        assertNotSame(pool, changedPool);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, changedPool.getIdleCount());
+
+        WorkerPoolManager.getInstance().setPools(Collections.emptyList());
+        assertNull(WorkerPoolManager.getInstance().getPool("python3"));
+        assertEquals(0, changedPool.getIdleCount());
+    }
+
+    private static WorkerPool pool(int size, int maxJobs) {
+        return new WorkerPool("python3", Arrays.asList("python3", WORKER), size, maxJobs);
+    }
+}
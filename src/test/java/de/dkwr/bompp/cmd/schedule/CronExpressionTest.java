@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.schedule;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the calculation of the next run of a {@link CronExpression}.
+ *
+ * @author Dennis Kawurek
+ */
+public class CronExpressionTest {
+
+    @Test
+    public void testMinuteStep() {
+        CronExpression cron = new CronExpression("*/15 * * * *");
+        assertEquals(at(2026, 10, 1, 10, 15), cron.next(at(2026, 10, 1, 10, 7)));
+        assertEquals(at(2026, 10, 1, 10, 30), cron.next(at(2026, 10, 1, 10, 15)));
+        assertEquals(at(2026, 10, 1, 11, 0), cron.next(at(2026, 10, 1, 10, 59)));
+    }
+
+    @Test
+    public void testStepInRange() {
+        CronExpression cron = new CronExpression("10-20/5 * * * *");
+        assertEquals(at(2026, 10, 1, 10, 10), cron.next(at(2026, 10, 1, 10, 0)));
+        assertEquals(at(2026, 10, 1, 10, 20), cron.next(at(2026, 10, 1, 10, 15)));
+        assertEquals(at(2026, 10, 1, 11, 10), cron.next(at(2026, 10, 1, 10, 20)));
+    }
+
+    @Test
+    public void testNextIsAfterTheGivenTime() {
+        CronExpression cron = new CronExpression("30 10 * * *");
+        assertEquals(at(2026, 10, 2, 10, 30), cron.next(at(2026, 10, 1, 10, 30)));
+        assertEquals(at(2026, 10, 1, 10, 30), cron.next(at(2026, 10, 1, 10, 29) + 59999));
+    }
+
+    @Test
+    public void testWorkingHoursSkipWeekend() {
+        CronExpression cron = new CronExpression("0 8-18 * * 1-5");
+        // Friday 18:30 -> Monday 8:00
+        assertEquals(at(2026, 10, 19, 8, 0), cron.next(at(2026, 10, 16, 18, 30)));
+    }
+
+    @Test
+    public void testSundayIsZeroAndSeven() {
+        // October 1st 2026 is a Thursday
+        assertEquals(at(2026, 10, 4, 0, 0), new CronExpression("0 0 * * 7").next(at(2026, 10, 1, 0, 0)));
+        assertEquals(at(2026, 10, 4, 0, 0), new CronExpression("0 0 * * 0").next(at(2026, 10, 1, 0, 0)));
+    }
+
+    @Test
+    public void testRestrictedDayFieldsMatchEither() {
+        CronExpression cron = new CronExpression("0 0 13 * 5");
+        assertEquals(at(2026, 10, 2, 0, 0), cron.next(at(2026, 10, 1, 0, 0)));
+        assertEquals(at(2026, 10, 13, 0, 0), cron.next(at(2026, 10, 9, 0, 0)));
+    }
+
+    @Test
+    public void testStepInDayOfMonthIsUnrestricted() {
+        // like in cron, */2 doesn't restrict the day, so odd days which are Mondays match
+        CronExpression cron = new CronExpression("0 0 */2 * 1");
+        assertEquals(at(2026, 10, 5, 0, 0), cron.next(at(2026, 10, 1, 0, 0)));
+        assertEquals(at(2026, 10, 19, 0, 0), cron.next(at(2026, 10, 5, 0, 0)));
+    }
+
+    @Test
+    public void testStepInDayOfWeekIsUnrestricted() {
+        // */2 is Sunday, Tuesday, Thursday and Saturday, and only the first of a month matches
+        CronExpression cron = new CronExpression("0 0 1 * */2");
+        assertEquals(at(2026, 10, 1, 0, 0), cron.next(at(2026, 9, 30, 0, 0)));
+        assertEquals(at(2026, 11, 1, 0, 0), cron.next(at(2026, 10, 1, 0, 0)));
+    }
+
+    @Test
+    public void testLeapDay() {
+        assertEquals(at(2028, 2, 29, 0, 0), new CronExpression("0 0 29 2 *").next(at(2026, 3, 1, 0, 0)));
+    }
+
+    @Test
+    public void testShortcuts() {
+        assertEquals(at(2026, 10, 2, 0, 0), new CronExpression("@daily").next(at(2026, 10, 1, 12, 0)));
+        assertEquals(at(2026, 10, 1, 13, 0), new CronExpression("@hourly").next(at(2026, 10, 1, 12, 0)));
+        assertEquals(at(2026, 11, 1, 0, 0), new CronExpression("@monthly").next(at(2026, 10, 1, 12, 0)));
+        assertEquals(at(2027, 1, 1, 0, 0), new CronExpression("@yearly").next(at(2026, 10, 1, 12, 0)));
+    }
+
+    @Test
+    public void testFixedInterval() {
+        CronExpression every = new CronExpression("@every 90s");
+        assertEquals(90000, every.getInterval());
+        assertEquals(1090000, every.next(1000000));
+        assertEquals(7200000, new CronExpression("@every 2h").getInterval());
+        assertEquals(0, new CronExpression("* * * * *").getInterval());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueOutOfRange() {
+        new CronExpression("60 * * * *");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingField() {
+        new CronExpression("* * * *");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidIntervalUnit() {
+        new CronExpression("@every 5x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpressionWhichNeverMatches() {
+        new CronExpression("0 0 30 2 *");
+    }
+
+    @Test
+    public void testLeapDayMatches() {
+        assertEquals(at(2028, 2, 29, 0, 0), new CronExpression("0 0 29 2 *").next(at(2026, 10, 18, 12, 0)));
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.cmd.schedule;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link TimingWheel} with short ticks and few buckets, so tasks
+ * have to wait for more than one turn of the wheel.
+ *
+ * @author Dennis Kawurek
+ */
+public class TimingWheelTest {
+
+    private static final long TICK = 10;
+    private TimingWheel wheel;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        // the exception of a failing task is logged
+        BotConfiguration.getInstance().setStorePath(new File(this.folder.getRoot(), "bot").getPath());
+        this.wheel = new TimingWheel("test wheel", TICK, 4);
+    }
+
+    @After
+    public void tearDown() {
+        this.wheel.stop();
+    }
+
+    @Test
+    public void testTasksRunInOrderOfTheirDelay() throws InterruptedException {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        // 4 buckets of 10 ms, so 130 ms is more than three turns
+        this.wheel.schedule(() -> { order.add("130"); done.countDown(); }, 130);
+        this.wheel.schedule(() -> { order.add("20"); done.countDown(); }, 20);
+        this.wheel.schedule(() -> { order.add("60"); done.countDown(); }, 60);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("[20, 60, 130]", order.toString());
+    }
+
+    @Test
+    public void testTaskDoesNotRunBeforeItsDelay() throws InterruptedException {
+        long start = System.nanoTime();
+        long[] elapsed = new long[1];
+        CountDownLatch done = new CountDownLatch(1);
+        this.wheel.schedule(() -> {
+            elapsed[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            done.countDown();
+        }, 95);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue("ran after " + elapsed[0] + " ms", elapsed[0] >= 95);
+    }
+
+    @Test
+    public void testNegativeDelayRunsInNextTick() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        this.wheel.schedule(done::countDown, -1000);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelledTaskIsNotRun() throws InterruptedException {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch later = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = this.wheel.schedule(cancelled::countDown, 30);
+        this.wheel.schedule(later::countDown, 80);
+        timeout.cancel();
+        assertTrue(timeout.isCancelled());
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopTheWheel() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        this.wheel.schedule(() -> {
+            throw new IllegalStateException("test");
+        }, 10);
+        this.wheel.schedule(done::countDown, 40);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStopDropsWaitingTasks() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        this.wheel.schedule(done::countDown, 50);
+        this.wheel.stop();
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+    }
+}
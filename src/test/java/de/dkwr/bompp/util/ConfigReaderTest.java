@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads config files with invalid commands. Only these commands are
+ * skipped, the other commands are loaded.
+ *
+ * @author Dennis Kawurek
+ */
+public class ConfigReaderTest {
+
+    private static final String BOT = "{\"jid\": \"bot@localhost\", \"pwd\": \"secret\", \"max_threads\": \"2\", \"queue_size\": \"10\","
+            + " \"admin_jid\": \"admin@localhost\", \"listen_only_admin\": true, \"notify_admin_on_startup\": false}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        CommandList.getInstance().clear();
+    }
+
+    @Test
+    public void testCommandsWithInvalidSettingsAreSkipped() throws Exception {
+        this.load(command("ok", "")
+                + "," + command("stderr", ", \"stderr\": \"sometimes\"")
+                + "," + command("priority", ", \"priority\": \"urgent\"")
+                + "," + command("encoding", ", \"encoding\": \"no-such-charset\"")
+                + "," + command("schedule", ", \"schedule\": \"every minute\"")
+                + "," + command("missed", ", \"schedule\": \"* * * * *\", \"schedule_missed\": \"later\"")
+                + "," + command("timeout", ", \"timeout\": \"ten\"")
+                + "," + command("scheduled", ", \"schedule\": \"0 * * * *\"")
+                + ", {\"cmd\": \"pipe\", \"pipeline\": \"ok | scheduled\", \"priority\": \"urgent\"}");
+        CommandList cmdList = CommandList.getInstance();
+        assertEquals(2, cmdList.getSize());
+        assertTrue(cmdList.cmdExists("ok"));
+        assertTrue(cmdList.cmdExists("scheduled"));
+        assertFalse(cmdList.cmdExists("pipe"));
+    }
+
+    @Test
+    public void testReloadKeepsTheValidCommands() throws Exception {
+        ConfigReader configReader = this.load(command("ok", ""));
+        this.write(command("ok", "") + "," + command("bad", ", \"stderr\": \"sometimes\"") + "," + command("new", ""));
+        configReader.reloadConfigFile();
+        CommandList cmdList = CommandList.getInstance();
+        assertEquals(2, cmdList.getSize());
+        assertTrue(cmdList.cmdExists("ok"));
+        assertTrue(cmdList.cmdExists("new"));
+    }
+
+    private ConfigReader load(String cmds) throws Exception {
+        this.write(cmds);
+        ConfigReader configReader = new ConfigReader(this.folder.getRoot().getPath(), File.separator);
+        configReader.loadConfigFile();
+        return configReader;
+    }
+
+    private void write(String cmds) throws Exception {
+        String config = "{\"bot\": " + BOT + ", \"cmds\": [" + cmds + "]}";
+        Files.write(new File(this.folder.getRoot(), "config.json").toPath(), config.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String command(String name, String settings) {
+        return "{\"cmd\": \"" + name + "\", \"exec_type\": \"bash\", \"script\": \"/bin/true\", \"description\": \"\","
+                + " \"collect_output\": true" + settings + "}";
+    }
+}
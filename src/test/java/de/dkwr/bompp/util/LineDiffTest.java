@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the changed lines which {@link LineDiff} finds.
+ *
+ * @author Dennis Kawurek
+ */
+public class LineDiffTest {
+
+    @Test
+    public void testEqualTexts() {
+        assertEquals(Collections.emptyList(), LineDiff.diff("a\nb\nc", "a\nb\nc", 10));
+        assertEquals(Collections.emptyList(), LineDiff.diff("", null, 10));
+    }
+
+    @Test
+    public void testChangedLine() {
+        assertEquals(Arrays.asList("- b", "+ x"), LineDiff.diff("a\nb\nc", "a\nx\nc", 10));
+    }
+
+    @Test
+    public void testAddedAndRemovedLines() {
+        assertEquals(Arrays.asList("+ new"), LineDiff.diff("a\nb", "new\na\nb", 10));
+        assertEquals(Arrays.asList("- b"), LineDiff.diff("a\nb", "a", 10));
+        assertEquals(Arrays.asList("+ a", "+ b"), LineDiff.diff(null, "a\nb", 10));
+        assertEquals(Arrays.asList("- a", "- b"), LineDiff.diff("a\nb", "", 10));
+    }
+
+    @Test
+    public void testRepeatedLines() {
+        assertEquals(Arrays.asList("+ x"), LineDiff.diff("a\na\na", "a\nx\na\na", 10));
+        assertEquals(Arrays.asList("- b"), LineDiff.diff("a\nb\na\nb", "a\na\nb", 10));
+    }
+
+    @Test
+    public void testCrLfIsALineBreak() {
+        assertEquals(Collections.emptyList(), LineDiff.diff("a\r\nb", "a\nb", 10));
+    }
+
+    @Test
+    public void testMaxChanges() {
+        assertNotNull(LineDiff.diff("a\nb\nc", "x\ny\nz", 6));
+        assertNull(LineDiff.diff("a\nb\nc", "x\ny\nz", 5));
+        assertEquals(Collections.emptyList(), LineDiff.diff("a", "a", 0));
+    }
+
+    /**
+     * The number of changes has to be minimal, and the removed and added
+     * lines have to be in the order of the old and the new text.
+     */
+    @Test
+    public void testRandomTextsHaveMinimalDiff() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            List<String> a = randomLines(random);
+            List<String> b = randomLines(random);
+            List<String> changes = LineDiff.diff(String.join("\n", a), String.join("\n", b), Integer.MAX_VALUE);
+            String message = a + " -> " + b + ": " + changes;
+            assertEquals(message, a.size() + b.size() - 2 * lcs(a, b), changes.size());
+
+            List<String> removed = new ArrayList<>();
+            List<String> added = new ArrayList<>();
+            for (String change : changes) {
+                if (change.startsWith(LineDiff.REMOVED_PREFIX)) {
+                    removed.add(change.substring(LineDiff.REMOVED_PREFIX.length()));
+                } else {
+                    added.add(change.substring(LineDiff.ADDED_PREFIX.length()));
+                }
+            }
+            assertEquals(message, removed.size(), a.size() - lcs(a, b));
+            assertEquals(message, true, isSubsequence(removed, a));
+            assertEquals(message, true, isSubsequence(added, b));
+        }
+    }
+
+    private static List<String> randomLines(Random random) {
+        List<String> lines = new ArrayList<>();
+        int count = 1 + random.nextInt(12);
+        for (int i = 0; i < count; i++) {
+            lines.add(String.valueOf((char) ('a' + random.nextInt(4))));
+        }
+        return lines;
+    }
+
+    private static int lcs(List<String> a, List<String> b) {
+        int[][] length = new int[a.size() + 1][b.size() + 1];
+        for (int i = a.size() - 1; i >= 0; i--) {
+            for (int j = b.size() - 1; j >= 0; j--) {
+                length[i][j] = a.get(i).equals(b.get(j)) ? length[i + 1][j + 1] + 1 : Math.max(length[i + 1][j], length[i][j + 1]);
+            }
+        }
+        return length[0][0];
+    }
+
+    private static boolean isSubsequence(List<String> part, List<String> lines) {
+        int i = 0;
+        for (String line : lines) {
+            if (i < part.size() && part.get(i).equals(line)) {
+                i++;
+            }
+        }
+        return i == part.size();
+    }
+}
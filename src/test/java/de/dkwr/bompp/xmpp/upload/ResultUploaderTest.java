@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 Dennis Kawurek
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.dkwr.bompp.xmpp.upload;
+
+import de.dkwr.bompp.util.BotConfiguration;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uploads results to a {@link LocalUploadServer} and decrypts them with the
+ * key of the aesgcm:// link, like a client does.
+ *
+ * @author Dennis Kawurek
+ */
+public class ResultUploaderTest {
+
+    private static final long THRESHOLD = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        BotConfiguration.getInstance().setStorePath(new File(this.folder.getRoot(), "bot").getPath());
+        BotConfiguration.getInstance().setUploadThreshold(THRESHOLD);
+        ResultUploader.getInstance().setUploader(new LocalUploadServer("127.0.0.1", 0, this.folder.newFolder("served").toPath(), 60000));
+    }
+
+    @After
+    public void tearDown() {
+        ResultUploader.getInstance().shutdown();
+        BotConfiguration.getInstance().setUploadThreshold(0);
+    }
+
+    @Test
+    public void testOnlyLargeResultsAreUploaded() {
+        assertTrue(ResultUploader.getInstance().isEnabled());
+        assertFalse(ResultUploader.getInstance().shouldUpload(THRESHOLD));
+        assertTrue(ResultUploader.getInstance().shouldUpload(THRESHOLD + 1));
+
+        ResultUploader.getInstance().shutdown();
+        assertFalse(ResultUploader.getInstance().isEnabled());
+        assertFalse(ResultUploader.getInstance().shouldUpload(THRESHOLD + 1));
+    }
+
+    @Test
+    public void testUploadedResultCanBeDecrypted() throws Exception {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            result.append("line ").append(i).append('\n');
+        }
+        byte[] data = result.toString().getBytes(StandardCharsets.UTF_8);
+        String link = ResultUploader.getInstance().upload(new ByteArrayInputStream(data), "result.txt");
+        assertTrue(link, link.startsWith("aesgcm://127.0.0.1:"));
+
+        String[] parts = link.substring("aesgcm://".length()).split("#");
+        assertEquals(2, parts.length);
+        assertTrue(parts[0].endsWith("/result.txt.gz"));
+        byte[] ivAndKey = fromHex(parts[1]);
+        assertEquals(12 + 32, ivAndKey.length);
+
+        byte[] encrypted = download(new URL("http://" + parts[0]));
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(ivAndKey, 12, 32, "AES"), new GCMParameterSpec(128, ivAndKey, 0, 12));
+        byte[] compressed = cipher.doFinal(encrypted);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(data, readAll(in));
+        }
+    }
+
+    @Test
+    public void testUnknownFileIsNotFound() throws Exception {
+        String link = ResultUploader.getInstance().upload(new ByteArrayInputStream(new byte[1]), "result.txt");
+        String location = link.substring("aesgcm://".length(), link.indexOf('#'));
+        URL unknown = new URL("http://" + location.replaceFirst("/upload/[0-9a-f]+/", "/upload/0000/"));
+        HttpURLConnection connection = (HttpURLConnection) unknown.openConnection();
+        assertEquals(404, connection.getResponseCode());
+        connection.disconnect();
+    }
+
+    private static byte[] download(URL url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            assertEquals(200, connection.getResponseCode());
+            return readAll(in);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}